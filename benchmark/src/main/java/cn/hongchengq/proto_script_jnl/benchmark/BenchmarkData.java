@@ -0,0 +1,54 @@
+package cn.hongchengq.proto_script_jnl.benchmark;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Replace 基准测试用的数据, 固定种子保证每次运行相同 (Split 使用 CorpusGenerator)
+ */
+final class BenchmarkData {
+    static final long SEED = 20240601L;
+    private static final String[] SCALAR_TYPES = {"uint32", "int32", "uint64", "bool", "string", "bytes", "float"};
+
+    private BenchmarkData() {
+    }
+
+    /**
+     * 11 位大写字母的混淆名称
+     */
+    static String obfuscatedName(Random random) {
+        char[] name = new char[11];
+        for (int i = 0; i < name.length; i++) {
+            name[i] = (char) ('A' + random.nextInt(16));
+        }
+        return new String(name);
+    }
+
+    /**
+     * 混淆 -> 解混淆 的映射
+     */
+    static Map<String, String> mapping(int size, Random random) {
+        Map<String, String> mapping = new LinkedHashMap<>(size * 2);
+        while (mapping.size() < size) {
+            String name = obfuscatedName(random);
+            mapping.put(name, "Name_" + name.toLowerCase());
+        }
+        return mapping;
+    }
+
+    /**
+     * 与 all_in_one.proto 中字段行类似的文本, 长度约为 length, 其中一半的名称来自 keys
+     */
+    static String line(int length, String[] keys, Random random) {
+        StringBuilder line = new StringBuilder(length + 32);
+        line.append("    ");
+        int number = 1;
+        while (line.length() < length) {
+            String type = random.nextInt(4) == 0 ? keys[random.nextInt(keys.length)] : SCALAR_TYPES[random.nextInt(SCALAR_TYPES.length)];
+            String name = random.nextBoolean() ? keys[random.nextInt(keys.length)] : obfuscatedName(random);
+            line.append(type).append(' ').append(name).append(" = ").append(number++).append("; ");
+        }
+        return line.toString();
+    }
+}
@@ -0,0 +1,26 @@
+package cn.hongchengq.proto_script_jnl.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * 基准测试入口, 参数与 JMH 命令行相同, 默认附加 GC profiler 输出分配速率
+ * <pre>
+ * java -jar target/benchmarks.jar                         全部
+ * java -jar target/benchmarks.jar Replace -p engine=trie  只运行 Replace, 指定参数
+ * </pre>
+ */
+public class BenchmarkRunner {
+    public static void main(String[] args) throws CommandLineOptionException, RunnerException {
+        Options options = new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
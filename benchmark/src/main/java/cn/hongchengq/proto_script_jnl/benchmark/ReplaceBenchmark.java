@@ -0,0 +1,79 @@
+package cn.hongchengq.proto_script_jnl.benchmark;
+
+import cn.hongchengq.proto_script_jnl.Replace;
+import cn.hongchengq.proto_script_jnl.replace.LineReplacer;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Replace 的热点: 替换引擎构建与单行替换
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ReplaceBenchmark {
+    private static final int LINE_COUNT = 1024;
+
+    @State(Scope.Benchmark)
+    public static class MappingState {
+        @Param({"1000", "100000"})
+        int mappingSize;
+
+        @Param({"trie", "ahoCorasick", "token"})
+        Replace.ReplaceEngine engine;
+
+        Map<String, String> mapping;
+        String[] keys;
+        LineReplacer replacer;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            mapping = BenchmarkData.mapping(mappingSize, new Random(BenchmarkData.SEED));
+            keys = mapping.keySet().toArray(new String[0]);
+            replacer = Replace.buildReplacer(mapping, engine);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class LineState {
+        @Param({"80", "1000"})
+        int lineLength;
+
+        String[] lines;
+        int next;
+
+        @Setup(Level.Trial)
+        public void setup(MappingState mappingState) {
+            Random random = new Random(BenchmarkData.SEED + 1);
+            lines = new String[LINE_COUNT];
+            for (int i = 0; i < LINE_COUNT; i++) {
+                lines[i] = BenchmarkData.line(lineLength, mappingState.keys, random);
+            }
+        }
+
+        String nextLine() {
+            return lines[next++ & (LINE_COUNT - 1)];
+        }
+    }
+
+    /**
+     * 构建替换引擎 (Trie 树 / Aho-Corasick 自动机 / 标识符哈希表)
+     */
+    @Benchmark
+    public LineReplacer buildReplacer(MappingState mappingState) {
+        return Replace.buildReplacer(mappingState.mapping, mappingState.engine);
+    }
+
+    /**
+     * 替换一行
+     */
+    @Benchmark
+    public String replaceLine(MappingState mappingState, LineState lineState) {
+        return mappingState.replacer.replace(lineState.nextLine());
+    }
+}
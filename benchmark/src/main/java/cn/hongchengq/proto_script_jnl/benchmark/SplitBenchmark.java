@@ -0,0 +1,87 @@
+package cn.hongchengq.proto_script_jnl.benchmark;
+
+import cn.hongchengq.proto_script_jnl.Config;
+import cn.hongchengq.proto_script_jnl.Split;
+import cn.hongchengq.proto_script_jnl.generator.CorpusGenerator;
+import cn.hongchengq.proto_script_jnl.graph.TypeGraph;
+import cn.hongchengq.proto_script_jnl.parser.ProtoFile;
+import cn.hongchengq.proto_script_jnl.parser.ProtoParser;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Split 的热点: 解析大 proto、构建依赖图、生成各文件内容
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SplitBenchmark {
+    @Param({"1000", "20000"})
+    int messageCount;
+
+    @Param({"1", "4"})
+    int nestingDepth;
+
+    String proto;
+    Path protoFile;
+    Config.ConfigBean config;
+    // renderProtoFiles 使用的解析结果
+    Split split;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        config = new Config.ConfigBean();
+        Config.setConfig(config);
+        CorpusGenerator.Spec spec = new CorpusGenerator.Spec();
+        spec.setSeed(BenchmarkData.SEED);
+        spec.setMessages(messageCount);
+        spec.setNestingDepth(nestingDepth);
+        StringBuilder builder = new StringBuilder();
+        CorpusGenerator.generate(spec, builder, new StringBuilder(), new StringBuilder());
+        proto = builder.toString();
+        protoFile = Files.createTempFile("split-benchmark", ".proto");
+        Files.writeString(protoFile, proto);
+
+        split = new Split(config);
+        split.parseProtoFileLines(protoFile.toString());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(protoFile);
+    }
+
+    /**
+     * 只解析 (内存中的文本)
+     */
+    @Benchmark
+    public ProtoFile parse() {
+        return ProtoParser.parse(proto);
+    }
+
+    /**
+     * Split.parseProtoFileLines: 读文件、解析、按顶层定义拆分并构建依赖图
+     */
+    @Benchmark
+    public TypeGraph parseProtoFileLines() throws IOException {
+        Split fresh = new Split(config);
+        fresh.parseProtoFileLines(protoFile.toString());
+        return fresh.getTypeGraph();
+    }
+
+    /**
+     * 生成每个 message 的文件内容 (createProtoFile 中写出之前的部分)
+     */
+    @Benchmark
+    public List<String> renderProtoFiles() {
+        return split.renderProtoFiles();
+    }
+}
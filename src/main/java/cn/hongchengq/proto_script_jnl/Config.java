@@ -1,28 +1,36 @@
 package cn.hongchengq.proto_script_jnl;
 
+import cn.hongchengq.proto_script_jnl.archive.SplitArchive;
+import cn.hongchengq.proto_script_jnl.descriptor.DescriptorSetWriter;
 import com.fasterxml.jackson.core.JsonFactory;
 import com.fasterxml.jackson.core.json.JsonReadFeature;
 import com.fasterxml.jackson.databind.json.JsonMapper;
 import lombok.Data;
 import lombok.Getter;
+import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
 
 @Slf4j
 public class Config {
-    @Getter private static ConfigBean config;
+    // 不读取 config.json 时 (基准测试、语料生成等) 可以直接设置
+    @Getter @Setter private static ConfigBean config;
 
     @Data
     public static class ConfigBean {
         // proto对应游戏版本 标记用
         String gameVersion = "1.0.0";
 
-        // todo 启动模式 四种
+        // 启动模式 六种
         // 0：分割(将一个大proto根据message分割为各个单独的文件)
-        // 1：分割(将一个大proto根据先前定义的类型分割为几个文件)
-        // 10：合并(根据message分割的文件合并为一个大proto)
-        // 11：合并(根据类型分割的文件合并为一个大proto)
+        // 1：分割(将一个大proto按依赖关系分组分割为几个文件, 见 groupedSplitOptional)
+        // 10：合并(根据message分割的文件合并为一个大proto, 见 mergeOptional)
+        // 11：合并(根据类型分割的文件合并为一个大proto, 见 mergeOptional)
+        // 20：还原映射(比较混淆与已解混淆的 proto 目录生成 mapping.tsv, 见 revertMappingOptional)
+        // 21：迁移映射(按结构配对新旧版本的原始 proto, 把旧版本的 mapping.tsv 迁移到新版本, 见 migrateMappingOptional)
         int bootMode = 0;
 
         // 原始proto文件路径
@@ -37,6 +45,155 @@ public class Config {
         String[] headerContent = {"option java_package = \"emu.grasscutter.net.proto\";"};
         // 输出文件前永远清理输出文件夹所有内容
         boolean clearOutputFolderForever = true;
+        // 替换引擎 trie：Trie树 / ahoCorasick：紧凑数组 Aho-Corasick 自动机
+        // token：只替换完整的标识符 (不会改动包含 key 的更长标识符), 复用缓冲区直接写出, 几乎不产生垃圾
+        Replace.ReplaceEngine replaceEngine = Replace.ReplaceEngine.trie;
+
+        private MappingCacheOptional mappingCacheOptional = new MappingCacheOptional();
+        @Data public static class MappingCacheOptional {
+            // 是否启用 mapping 编译缓存 (仅 ahoCorasick 引擎生效, mapping 未变化时直接映射上次构建的自动机)
+            private boolean enableMappingCache = false;
+            // 缓存文件目录
+            private String cacheDirectory = "proto/cache";
+        }
+
+        private ParallelReplaceOptional parallelReplaceOptional = new ParallelReplaceOptional();
+        @Data public static class ParallelReplaceOptional {
+            // 是否启用并行替换 (内存映射输入文件, 按行切块后在 fork-join 线程池中替换, 按原顺序写回)
+            private boolean enableParallelReplace = false;
+            // 每块大小 (KB)
+            private int chunkSizeKb = 4096;
+            // 并行度 0 表示使用 CPU 核心数
+            private int parallelism = 0;
+        }
+
+        private FusedPipelineOptional fusedPipelineOptional = new FusedPipelineOptional();
+        @Data public static class FusedPipelineOptional {
+            // bootMode 为 0/1 时替换结果经有界队列直接交给分割解析, 不再写出并重新读取 replace_output.proto (只省去磁盘读写, 完整的替换结果仍保留在内存中)
+            private boolean enableFusedPipeline = false;
+            // 是否仍写出 replace_output.proto (旁路输出, 分割不读取)
+            private boolean writeIntermediateFile = false;
+            // 替换线程与接收线程之间最多在途的块数 (不限制总内存)
+            private int queueCapacity = 16;
+        }
+
+        private BatchOptional batchOptional = new BatchOptional();
+        @Data public static class BatchOptional {
+            // bootMode 为 0/1 时一次处理 jobs 中的多个版本 (不再使用 gameVersion 与 inputFilePath), mapping 只加载一次并由所有任务共用
+            private boolean enableBatch = false;
+            // 同时运行的任务数 0 表示 min(任务数, CPU 核心数)
+            private int parallelism = 0;
+            // 每个版本的输出写在 输出根目录/游戏版本/ 下
+            private String outputRootDirectory = "proto/batch_output";
+            private List<BatchJob> jobs = new ArrayList<>();
+        }
+        @Data public static class BatchJob {
+            private String gameVersion;
+            // 该版本的原始proto文件路径
+            private String inputFilePath;
+        }
+
+        private ParallelEmitOptional parallelEmitOptional = new ParallelEmitOptional();
+        @Data public static class ParallelEmitOptional {
+            // 是否并行写出分割后的 proto 文件 (每个文件一个虚拟线程)
+            private boolean enableParallelEmit = true;
+            // 同时写入的最大文件数 0 表示默认值 64
+            private int maxConcurrency = 64;
+        }
+
+        private GroupedSplitOptional groupedSplitOptional = new GroupedSplitOptional();
+        @Data public static class GroupedSplitOptional {
+            // bootMode 为 1 时输出的文件数 (互相引用的 message 尽量放在同一文件, 各文件行数尽量均衡)
+            private int fileCount = 16;
+            // 输出文件名前缀 文件名为 前缀 + 序号 + .proto
+            private String fileNamePrefix = "ProtoGroup";
+        }
+
+        private MergeOptional mergeOptional = new MergeOptional();
+        @Data public static class MergeOptional {
+            // bootMode 为 10/11 时读取的分割后 proto 目录
+            private String inputDirectory = "proto/dispersible_proto_output";
+            // 合并后的 proto 文件路径
+            private String outputFilePath = "proto/merge_output/all_in_one.proto";
+            // 并行度 0 表示使用 CPU 核心数
+            private int parallelism = 0;
+        }
+
+        private RevertMappingOptional revertMappingOptional = new RevertMappingOptional();
+        @Data public static class RevertMappingOptional {
+            // bootMode 为 20 时读取的混淆 proto 目录
+            private String originalProtoDirectory = "proto/original";
+            // 已解混淆的 proto 目录 (通常为上一版本的分割输出)
+            private String processedProtoDirectory = "proto/processed";
+            // 生成的映射文件路径
+            private String outputTsvPath = "proto/output/mapping.tsv";
+        }
+
+        private MigrateMappingOptional migrateMappingOptional = new MigrateMappingOptional();
+        @Data public static class MigrateMappingOptional {
+            // bootMode 为 21 时读取的旧版本原始 proto
+            private String oldInputFilePath = "proto/migrate/old_all_in_one.proto";
+            // 旧版本的映射文件
+            private String oldMappingFilePath = "proto/migrate/old_mapping.tsv";
+            // 新版本的原始 proto
+            private String newInputFilePath = "proto/input/all_in_one.proto";
+            // 迁移后的映射文件路径 (第三列为置信度, 第四列为旧混淆名, 可直接作为 replaceMappingFilePath 使用)
+            private String outputTsvPath = "proto/output/migrated_mapping.tsv";
+            // 置信度 (0~1) 低于该值的映射不写出
+            private double minConfidence = 0.5;
+        }
+
+        private IncrementalSplitOptional incrementalSplitOptional = new IncrementalSplitOptional();
+        @Data public static class IncrementalSplitOptional {
+            // 是否启用增量分割 (启用后不再清理分割输出目录, 根据输出目录中的清单只重写内容变化的文件、删除不再生成的文件)
+            // 输出的文件不写 usedTime 与 Game Version 标记行, 这两项只记录在输出目录的清单 .split-manifest.tsv 中
+            private boolean enableIncrementalSplit = false;
+        }
+
+        private WatchOptional watchOptional = new WatchOptional();
+        @Data public static class WatchOptional {
+            // bootMode 为 0/1 时常驻监听输入文件、mapping 与黑名单文件, 变化时增量替换并重新分割 (强制增量分割)
+            private boolean enableWatch = false;
+            // 合并该时间 (毫秒) 内的连续变化后再处理
+            private long debounceMillis = 500;
+        }
+
+        private DescriptorSetOptional descriptorSetOptional = new DescriptorSetOptional();
+        @Data public static class DescriptorSetOptional {
+            // 是否同时输出二进制 FileDescriptorSet (由解析结果直接编码, 与分割输出的 .proto 文件一一对应)
+            private boolean enableDescriptorSet = false;
+            // perFile：每个 .proto 文件一个 .pb / aggregate：所有文件写入一个 .pb (被依赖的文件在前)
+            private DescriptorSetWriter.Mode mode = DescriptorSetWriter.Mode.aggregate;
+            private String outputDirectory = "proto/descriptor_output";
+            // aggregate 时的文件名
+            private String aggregateFileName = "descriptors.pb";
+            // 并行度 0 表示使用 CPU 核心数
+            private int parallelism = 0;
+        }
+
+        private ArchiveOutputOptional archiveOutputOptional = new ArchiveOutputOptional();
+        @Data public static class ArchiveOutputOptional {
+            // 是否把分割后的 proto、PacketOpcodes.java 与 XorFieldConfig.tsv 写入单个 zip/jar, 不再写入各自的输出目录
+            // 条目顺序与时间固定, proto 位于归档根目录, 可直接作为 Gradle 的 proto 依赖; 启用后不使用增量分割
+            // 查找表类、XOR 编解码类与二进制表仍写入各自的输出目录
+            private boolean enableArchiveOutput = false;
+            // 归档路径 (.zip 或 .jar)
+            private String archivePath = "proto/split_output.zip";
+            // store：不压缩 / deflate：压缩
+            private SplitArchive.Compression compression = SplitArchive.Compression.deflate;
+            // 归档内的 proto 不写 usedTime 标记行, 相同输入生成的归档逐字节相同
+            private boolean reproducible = true;
+            // 生成文件内容的并行度 0 表示使用 CPU 核心数
+            private int parallelism = 0;
+        }
+
+        private RunReportOptional runReportOptional = new RunReportOptional();
+        @Data public static class RunReportOptional {
+            // 每次运行结束后写出 JSON 运行报告 (各阶段耗时与计数器), 文件名为 run-report-游戏版本-时间.json
+            private boolean enableRunReport = true;
+            // 批量模式下每个任务的报告写在 outputRootDirectory/游戏版本/report 中, 这里只写 mapping 加载与任务汇总
+            private String reportDirectory = "proto/report";
+        }
 
         private PacketOpcodesOptional packetOpcodesOptional;
         @Data public static class PacketOpcodesOptional {
@@ -45,18 +202,32 @@ public class Config {
             private String packetHeader = "package emu.grasscutter.net.packet;";
             // PacketOpcodes.java 生成路径
             private String opsOutputDirectory = "proto/packet_opcodes_output";
+            // 是否同时生成 cmdId 查找表类 (cmdId <-> 名称、是否含 XOR 字段, 不使用反射, 常数时间查找)
+            private boolean createOpcodeTable = false;
+            // 查找表类名 文件名为 类名 + .java
+            private String opcodeTableClassName = "PacketOpcodesTable";
         }
 
         private GenerateMessageBlacklistOptional generateMessageBlacklistOptional;
         @Data public static class GenerateMessageBlacklistOptional {
+            // 黑名单文件中值为 true 的键: message 名称、cmdId、cmdId 区间 (1000-1999)、通配符 (Gm*Req)、正则 (regex:^Gm.*)
             private boolean enableBlacklist = true;
             private String blacklistFilePath = "proto/input/messageBlacklist.json";
+            // 同时排除只被黑名单 message (直接或间接) 引用的 message
+            private boolean dropOnlyReachableFromBlacklisted = false;
         }
 
         private GenerateXorFieldConfig generateXorFieldConfig;
         @Data public static class GenerateXorFieldConfig {
             private boolean enableGenerateXorFieldConfig = true;
             private String xorOutputDirectory = "proto/xor_field_config_output";
+            // 是否同时生成编解码类 (每个字段的运算内联为常量表达式, 按 message/字段编号 switch 分派)
+            private boolean createXorDecoder = false;
+            private String xorDecoderPackageHeader = "package emu.grasscutter.net.packet;";
+            // 编解码类名 文件名为 类名 + .java
+            private String xorDecoderClassName = "XorFieldDecoder";
+            // 是否同时生成二进制表 XorFieldConfig.bin (格式见 XorDecoderWriter)
+            private boolean createXorBinaryTable = false;
         }
     }
 
@@ -5,6 +5,7 @@ import lombok.Getter;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Set;
 
 public class ConstProtoType {
     private static final String messageType = "message";
@@ -13,7 +14,8 @@ public class ConstProtoType {
     @Getter
     private static final String repeatedType = "repeated";
     @Getter
-    private static final List<String> FieldType = Arrays.asList("bool", "string", "uint32", "uint64", "int32", "int64", "float", "double", "bytes", "fixed32", "fixed64", "sfixed32", "sfixed64");
+    private static final List<String> FieldType = Arrays.asList("bool", "string", "uint32", "uint64", "int32", "int64", "float", "double", "bytes", "fixed32", "fixed64", "sfixed32", "sfixed64", "sint32", "sint64");
+    private static final Set<String> scalarTypeSet = Set.copyOf(FieldType);
     @Getter
     private static final String mapType = "map";
     @Getter
@@ -47,6 +49,13 @@ public class ConstProtoType {
         return tempList;
     }
 
+    /**
+     * 是否为系统定义的标量字段类型
+     */
+    public static boolean isScalarType(String type) {
+        return scalarTypeSet.contains(type);
+    }
+
     /**
      * 获取系统定义的所有类型
      * @return
@@ -1,30 +1,101 @@
 package cn.hongchengq.proto_script_jnl;
 
+import cn.hongchengq.proto_script_jnl.batch.BatchRunner;
+import cn.hongchengq.proto_script_jnl.merge.ProtoMerger;
+import cn.hongchengq.proto_script_jnl.migrate.MappingMigration;
+import cn.hongchengq.proto_script_jnl.pipeline.FusedPipeline;
+import cn.hongchengq.proto_script_jnl.report.RunReport;
 import cn.hongchengq.proto_script_jnl.revert.RevertMapping;
+import cn.hongchengq.proto_script_jnl.watch.WatchDaemon;
+import lombok.extern.slf4j.Slf4j;
 
+import java.io.IOException;
+import java.nio.file.Paths;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
+@Slf4j
 public class Main {
     public static final String PROJECT_ADDRESS = "https://gitcode.com/HongchengQ/proto_script_jnl";
     public static String usedTime;
 
     public static void main(String[] args) {
         // 加载 config
-        Config.JsonLoader();
+        RunReport report = new RunReport();
+        report.time("config", Config::JsonLoader);
 
         // 获取当前时间
         LocalDateTime dateTime = LocalDateTime.now();
         DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
         usedTime = dateTime.format(formatter);
 
-        // 字段替换
-        String path = Replace.start();
+        switch (Config.getConfig().bootMode) {
+            case 10, 11 -> {
+                // 合并文件
+                ProtoMerger.start(report);
+            }
+            case 20 -> {
+                // 还原映射
+                RevertMapping.start(report);
+            }
+            case 21 -> {
+                // 迁移映射
+                MappingMigration.start(report);
+            }
+            default -> {
+                if (Config.getConfig().getBatchOptional().isEnableBatch()) {
+                    // 批量处理多个版本, 每个版本的报告写在各自的输出目录中
+                    List<BatchRunner.JobSummary> jobs = BatchRunner.start(report);
+                    writeRunReport(report, Config.getConfig(), Map.of("batchJobs", jobs));
+                    return;
+                }
 
-        // 分割文件
-        Split.start(path);
+                if (Config.getConfig().getWatchOptional().isEnableWatch()) {
+                    // 常驻监听, 文件变化时增量处理, 每轮处理写出一份报告
+                    WatchDaemon.start();
+                    return;
+                }
 
-        // test
-//        RevertMapping.main(null);
+                if (Config.getConfig().getFusedPipelineOptional().isEnableFusedPipeline()) {
+                    // 替换结果直接交给分割, 不经过中间文件
+                    FusedPipeline.start(report);
+                } else {
+                    // 字段替换
+                    String path = Replace.start(report);
+
+                    // 分割文件
+                    new Split(Config.getConfig(), report).run(path);
+                }
+            }
+        }
+
+        writeRunReport(report, Config.getConfig(), Map.of());
+    }
+
+    /**
+     * 写出运行报告
+     * @param report 本次运行 (批量模式下为一个任务, watch 模式下为一轮处理) 的报告
+     * @param config 本次运行的配置, 决定报告目录与运行信息
+     * @param extra 追加在运行信息之后的内容
+     */
+    public static void writeRunReport(RunReport report, Config.ConfigBean config, Map<String, Object> extra) {
+        if (!config.getRunReportOptional().isEnableRunReport()) {
+            return;
+        }
+
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("gameVersion", config.getGameVersion());
+        summary.put("bootMode", config.getBootMode());
+        summary.put("usedTime", usedTime);
+        summary.put("replaceEngine", String.valueOf(config.getReplaceEngine()));
+        summary.putAll(extra);
+        try {
+            report.write(Paths.get(config.getRunReportOptional().getReportDirectory()), summary);
+        } catch (IOException e) {
+            log.error("写出运行报告时出错", e);
+        }
     }
 }
\ No newline at end of file
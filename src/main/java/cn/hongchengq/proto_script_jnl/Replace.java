@@ -1,159 +1,281 @@
 package cn.hongchengq.proto_script_jnl;
 
+import cn.hongchengq.proto_script_jnl.replace.AhoCorasickAutomaton;
+import cn.hongchengq.proto_script_jnl.replace.LineReplacer;
+import cn.hongchengq.proto_script_jnl.replace.MappingLoader;
+import cn.hongchengq.proto_script_jnl.replace.MappingSnapshot;
+import cn.hongchengq.proto_script_jnl.replace.ParallelReplace;
+import cn.hongchengq.proto_script_jnl.replace.TokenReplacer;
+import cn.hongchengq.proto_script_jnl.report.RunReport;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.commons.csv.CSVFormat;
-import org.apache.commons.csv.CSVParser;
-import org.apache.commons.csv.CSVRecord;
 
 import java.io.*;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
 
 @Slf4j
 public class Replace {
-    public static String start() {
+    /**
+     * 入口方法
+     * @param report 本次运行的报告
+     */
+    public static String start(RunReport report) {
         String tsvFilePath = Config.getConfig().replaceMappingFilePath;
 
-        // 用于存储混淆字段到解混淆字段的映射
-        Map<String, String> mapping = new HashMap<>();
-        // 用于统计每个混淆字段出现次数
-        Map<String, Integer> count = new HashMap<>();
-        // 用于存储重复但映射一致的字段
-        Set<String> consistentDuplicates = new HashSet<>();
-
-        try (
-                Reader reader = new FileReader(tsvFilePath);
-                CSVParser csvParser = CSVFormat.TDF.withFirstRecordAsHeader().parse(reader)
-        ) {
-            // 遍历TSV文件中的每一行
-            for (CSVRecord record : csvParser) {
-                log.debug(String.valueOf(record));
-                try {
-                    String obfuscated;
-                    String deobfuscated;
+        // 加载 mapping 并构建替换引擎用于匹配
+        LineReplacer replacer;
+        try {
+            replacer = countReplacements(loadReplacer(Paths.get(tsvFilePath), report), report);
+        } catch (IOException e) {
+            log.error(String.valueOf(e));
+            return null;
+        }
 
-                    if (record.size() < 2 || record.get(0) == null || record.get(1) == null) {
-                        log.warn("tsv 文件中有一处元素小于 2，不进行记录");
-                        continue;
-                    }
+        return replace(Config.getConfig(), replacer, report);
+    }
 
-                    obfuscated = record.get(0);
-                    deobfuscated = record.get(1);
-
-                    // 检查是否已存在该混淆字段
-                    if (mapping.containsKey(obfuscated)) {
-                        // 如果已存在，检查映射是否一致
-                        if (mapping.get(obfuscated).equals(deobfuscated)) {
-                            // 映射一致，添加到一致重复集合中
-                            consistentDuplicates.add(obfuscated);
-                        }
-                    } else {
-                        // 存储映射关系
-                        mapping.put(obfuscated, deobfuscated);
-                    }
+    /**
+     * 使用已构建的替换器处理 config 中的输入文件, 替换器只读, 可以在多个任务间共用 (批量模式)
+     * @param report 本次运行 (批量模式下为该任务) 的报告
+     * @return replace_output.proto 的路径, 失败时返回 null
+     */
+    public static String replace(Config.ConfigBean config, LineReplacer replacer, RunReport report) {
+        try {
 
-                    // 统计混淆字段出现次数
-                    count.put(obfuscated, count.getOrDefault(obfuscated, 0) + 1);
+            // 获取proto文件路径
+            String inputFilePath = config.inputFilePath;
+            String outputFilePath = prepareOutputFile(config).toString();
 
-                } catch (Exception e) {
-                    log.error(String.valueOf(e));
+            Config.ConfigBean.ParallelReplaceOptional parallelOptional = config.getParallelReplaceOptional();
+            if (parallelOptional != null && parallelOptional.isEnableParallelReplace()) {
+                // 并行替换 输出与下方顺序替换逐字节相同
+                try {
+                    long lineCount = report.time("replace", () -> ParallelReplace.replaceFile(Paths.get(inputFilePath),
+                            Paths.get(outputFilePath), outputHeader(), replacer,
+                            parallelOptional.getChunkSizeKb() * 1024, parallelOptional.getParallelism()));
+                    report.count("replace.lines", lineCount);
+                    report.count("replace.outputBytes", Files.size(Paths.get(outputFilePath)));
+
+                    log.info("mapping 应用完成，输出文件: {}", outputFilePath);
+                    return outputFilePath;
+                } catch (IOException e) {
+                    log.error("生成文件时出错:", e);
                 }
+                return null;
             }
 
-            // 处理映射关系
-            Map<String, String> validMapping = new HashMap<>();
-
-            for (Map.Entry<String, Integer> entry : count.entrySet()) {
-                String obfuscated = entry.getKey();
-                int occurrence = entry.getValue();
-
-                if (occurrence == 1) {
-                    // 只出现一次的字段直接使用
-                    validMapping.put(obfuscated, mapping.get(obfuscated));
-                } else if (consistentDuplicates.contains(obfuscated)) {
-                    // 重复但映射一致的字段也使用
-                    validMapping.put(obfuscated, mapping.get(obfuscated));
-                    log.debug("混淆字段 '{}' 重复出现但映射一致，将进行替换", obfuscated);
-                } else {
-                    // 重复且映射不一致的字段不使用
-                    log.warn("混淆字段 '{}' 出现了 {} 次且映射不一致，将不进行替换", obfuscated, occurrence);
-                }
+            try {
+                long lineCount = report.time("replace", () -> {
+                    try (BufferedReader bufferedReader = Files.newBufferedReader(Paths.get(inputFilePath));
+                         BufferedWriter bufferedWriter = Files.newBufferedWriter(Paths.get(outputFilePath))) {
+
+                        bufferedWriter.write(outputHeader());
+
+                        return LineReplacer.replaceLines(bufferedReader, bufferedWriter, replacer);
+                    }
+                });
+                report.count("replace.lines", lineCount);
+                report.count("replace.outputBytes", Files.size(Paths.get(outputFilePath)));
+
+                log.info("mapping 应用完成，输出文件: {}", outputFilePath);
+                return outputFilePath;
+            } catch (IOException e) {
+                log.error("生成文件时出错:", e);
             }
 
-            // 对validMapping中的key进行处理，如果包含空格则删除
-            Map<String, String> processedMapping = new HashMap<>();
+        } catch (IOException e) {
+            log.error(String.valueOf(e));
+        }
+        return null;
+    }
 
-            for (Map.Entry<String, String> entry : validMapping.entrySet()) {
-                String obfuscated = entry.getKey();
-                String deobfuscated = entry.getValue();
+    /**
+     * 创建替换输出目录 (按配置清理) 并返回 replace_output.proto 的路径
+     */
+    public static Path prepareOutputFile() throws IOException {
+        return prepareOutputFile(Config.getConfig());
+    }
+
+    private static Path prepareOutputFile(Config.ConfigBean config) throws IOException {
+        String outputPath = config.replaceOutputDirectory;
+        Path outputPathDir = Paths.get(outputPath);
 
-                if (obfuscated.contains(" ")) {
-                    String cleanedObfuscated = obfuscated.replace(" ", "");
-                    processedMapping.put(cleanedObfuscated, deobfuscated);
-                    log.info("清理了混淆字段 '{}' 中的空格，清理后为 '{}'", obfuscated, cleanedObfuscated);
-                } else {
-                    processedMapping.put(obfuscated, deobfuscated);
+        // 确保输出目录存在
+        Files.createDirectories(outputPathDir);
+
+        if (config.clearOutputFolderForever) {
+            // 删除输出目录下的所有内容
+            Tools.deleteDirectoryContents(outputPathDir);
+        }
+        return Paths.get(outputPath + "/replace_output.proto");
+    }
+
+    /**
+     * 替换结果最前面的标记行
+     */
+    public static String outputHeader() {
+        return "// " + Main.PROJECT_ADDRESS + "\n" +
+                "// usedTime: " + Main.usedTime + "\n" +
+                System.lineSeparator();
+    }
+
+    /**
+     * 包装替换器, 统计匹配次数 (replace.replacements) 与发生了替换的行数 (replace.changedLines)
+     * @param report 计数器所在的报告, 共用的替换器每个任务各包装一次
+     */
+    public static LineReplacer countReplacements(LineReplacer replacer, RunReport report) {
+        LineReplacer counting = replacer.countingMatches(report.counter("replace.replacements"));
+        LongAdder changedLines = report.counter("replace.changedLines");
+        return new LineReplacer() {
+            @Override
+            public String replace(String line) {
+                String replaced = counting.replace(line);
+                if (!replaced.equals(line)) {
+                    changedLines.increment();
                 }
+                return replaced;
             }
 
-            // 构建Trie树用于匹配
-            TrieNode root = new TrieNode();
-            for (Map.Entry<String, String> entry : processedMapping.entrySet()) {
-                addToTrie(root, entry.getKey(), entry.getValue());
+            @Override
+            public boolean replaceTo(char[] chars, int start, int end, Writer out) throws IOException {
+                boolean changed = counting.replaceTo(chars, start, end, out);
+                if (changed) {
+                    changedLines.increment();
+                }
+                return changed;
             }
 
-            // 获取proto文件路径
-            String inputFilePath = Config.getConfig().inputFilePath;
-            String outputPath = Config.getConfig().replaceOutputDirectory;
-            Path outputPathDir = Paths.get(outputPath);
-            String outputFilePath = outputPath + "/replace_output.proto";
+            @Override
+            public LineReplacer countingMatches(LongAdder matches) {
+                return countReplacements(replacer.countingMatches(matches), report);
+            }
+        };
+    }
 
-            // 确保输出目录存在
-            Files.createDirectories(outputPathDir);
+    /**
+     * 替换引擎
+     */
+    public enum ReplaceEngine {
+        trie,           // HashMap 子节点的 Trie 树, 每个位置从根节点重新匹配
+        ahoCorasick,    // 紧凑数组实现的 Aho-Corasick 自动机, 单次扫描
+        token           // 按完整标识符匹配, 不替换更长标识符中的一部分; 复用缓冲区直接写出, 几乎不产生垃圾
+    }
 
-            if (Config.getConfig().clearOutputFolderForever) {
-                // 删除输出目录下的所有内容
-                Tools.deleteDirectoryContents(outputPathDir);
+    /**
+     * 加载 mapping 并构建行替换器
+     * 启用 mapping 缓存且使用 ahoCorasick 引擎时, mapping 未变化则直接映射缓存中的自动机
+     * @param tsvFile mapping.tsv 路径
+     * @param report 记录加载、构建耗时与 mapping 计数器
+     */
+    public static LineReplacer loadReplacer(Path tsvFile, RunReport report) throws IOException {
+        ReplaceEngine engine = Config.getConfig().replaceEngine;
+        Config.ConfigBean.MappingCacheOptional cacheOptional = Config.getConfig().getMappingCacheOptional();
+
+        if (cacheOptional != null && cacheOptional.isEnableMappingCache()) {
+            if (engine == ReplaceEngine.ahoCorasick) {
+                return report.time("mappingLoad",
+                        () -> MappingSnapshot.loadOrBuild(tsvFile, Paths.get(cacheOptional.getCacheDirectory()), report));
             }
+            log.warn("mapping 缓存仅支持 ahoCorasick 引擎，当前引擎为 {}，不使用缓存", engine);
+        }
 
-            try (BufferedReader bufferedReader = Files.newBufferedReader(Paths.get(inputFilePath));
-                 BufferedWriter bufferedWriter = Files.newBufferedWriter(Paths.get(outputFilePath))) {
+        // 加载 mapping 并完成重复、冲突和空格处理
+        Map<String, String> mapping = report.time("mappingLoad", () -> MappingLoader.load(tsvFile, report));
+        return report.time("replacerBuild", () -> buildReplacer(mapping, engine));
+    }
 
-                bufferedWriter.write("// " + Main.PROJECT_ADDRESS + "\n");
-                bufferedWriter.write("// usedTime: " + Main.usedTime + "\n");
-                bufferedWriter.newLine();
+    /**
+     * 根据引擎类型构建行替换器
+     * @param mapping 已经过校验的映射 (混淆 -> 解混淆)
+     * @param engine 替换引擎, 为 null 时使用 Trie 树
+     */
+    public static LineReplacer buildReplacer(Map<String, String> mapping, ReplaceEngine engine) {
+        if (engine == ReplaceEngine.ahoCorasick) {
+            AhoCorasickAutomaton automaton = AhoCorasickAutomaton.build(mapping);
+            log.info("Aho-Corasick 自动机构建完成，共 {} 个状态", automaton.getStateCount());
+            return automaton;
+        }
 
-                String line;
-                while ((line = bufferedReader.readLine()) != null) {
-                    String processedLine = replaceUsingTrie(line, root);
-                    bufferedWriter.write(processedLine);
-                    bufferedWriter.newLine();
-                }
+        if (engine == ReplaceEngine.token) {
+            TokenReplacer replacer = TokenReplacer.build(mapping);
+            log.info("标识符替换表构建完成，共 {} 个 key", replacer.getKeyCount());
+            return replacer;
+        }
 
-                log.info("mapping 应用完成，输出文件: {}", outputFilePath);
-                return outputFilePath;
-            } catch (IOException e) {
-                log.error("生成文件时出错:", e);
-            }
+        // 构建Trie树用于匹配
+        TrieReplacer replacer = new TrieReplacer();
+        for (Map.Entry<String, String> entry : mapping.entrySet()) {
+            replacer.put(entry.getKey(), entry.getValue());
+        }
+        return replacer;
+    }
 
-        } catch (IOException e) {
-            log.error(String.valueOf(e));
+    /**
+     * Trie树替换器, 可以逐条增删映射而不必重建
+     */
+    public static class TrieReplacer implements LineReplacer {
+        private final TrieNode root;
+        private final LongAdder matches;    // 匹配次数, 不统计时为 null
+
+        public TrieReplacer() {
+            this(new TrieNode(), null);
+        }
+
+        private TrieReplacer(TrieNode root, LongAdder matches) {
+            this.root = root;
+            this.matches = matches;
+        }
+
+        @Override
+        public String replace(String line) {
+            return replaceUsingTrie(line, root, matches);
+        }
+
+        /**
+         * 与当前替换器共用同一棵 Trie 树, 增删映射对两者都生效
+         */
+        @Override
+        public TrieReplacer countingMatches(LongAdder matches) {
+            return new TrieReplacer(root, matches);
+        }
+
+        /**
+         * 添加或修改一条映射
+         */
+        public void put(String key, String value) {
+            addToTrie(root, key, value);
+        }
+
+        /**
+         * 删除一条映射, 不再使用的节点保留在树中, 不影响匹配结果
+         */
+        public void remove(String key) {
+            TrieNode current = root;
+            for (int i = 0; i < key.length() && current != null; i++) {
+                current = current.children.get(key.charAt(i));
+            }
+            if (current != null) {
+                current.isEndOfWord = false;
+                current.replacement = null;
+            }
         }
-        return null;
     }
 
     /**
      * 使用Trie树进行字符串替换
+     * @param matches 匹配次数, 为 null 时不统计
      */
-    private static String replaceUsingTrie(String line, TrieNode root) {
+    private static String replaceUsingTrie(String line, TrieNode root, LongAdder matches) {
         if (line.isEmpty()) {
             return line;
         }
 
         StringBuilder result = new StringBuilder(line.length() * 2);
         Map<String, String> replacements = new HashMap<>();
+        int matchCount = 0;
 
         int i = 0;
         while (i < line.length()) {
@@ -185,6 +307,7 @@ public class Replace {
                     replacements.put(matchedKey, replacementValue);
                 }
                 i = matchEnd + 1;
+                matchCount++;
             } else {
                 // 没有匹配，复制当前字符
                 result.append(line.charAt(i));
@@ -193,19 +316,9 @@ public class Replace {
         }
 
         // 添加注释（如果有的话）
-        if (!replacements.isEmpty()) {
-            result.append(" /*[");
-            boolean first = true;
-            for (Map.Entry<String, String> replacement : replacements.entrySet()) {
-                if (!first) {
-                    result.append(", ");
-                }
-                result.append(replacement.getKey())
-                        .append("->")
-                        .append(replacement.getValue());
-                first = false;
-            }
-            result.append("]*/");
+        LineReplacer.appendAnnotation(result, replacements);
+        if (matches != null && matchCount > 0) {
+            matches.add(matchCount);
         }
 
         return result.toString();
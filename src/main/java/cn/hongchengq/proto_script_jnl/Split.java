@@ -1,495 +1,1094 @@
 package cn.hongchengq.proto_script_jnl;
 
+import cn.hongchengq.proto_script_jnl.archive.SplitArchive;
+import cn.hongchengq.proto_script_jnl.blacklist.MessageBlacklist;
+import cn.hongchengq.proto_script_jnl.descriptor.DescriptorSetWriter;
+import cn.hongchengq.proto_script_jnl.graph.GroupPartitioner;
+import cn.hongchengq.proto_script_jnl.graph.TypeGraph;
+import cn.hongchengq.proto_script_jnl.opcodes.OpcodeTableWriter;
+import cn.hongchengq.proto_script_jnl.parser.ProtoFile;
+import cn.hongchengq.proto_script_jnl.parser.ProtoMessage;
+import cn.hongchengq.proto_script_jnl.parser.ProtoParser;
+import cn.hongchengq.proto_script_jnl.parser.ProtoXorField;
+import cn.hongchengq.proto_script_jnl.pipeline.ChunkedText;
+import cn.hongchengq.proto_script_jnl.report.RunReport;
+import cn.hongchengq.proto_script_jnl.xor.XorDecoderWriter;
+import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.function.Supplier;
 
 @Slf4j
 public class Split {
+    private final Config.ConfigBean config;
+    // 本次运行的报告, 各阶段耗时与计数器记录在这里
+    @Getter private final RunReport report;
+
     // 存储路径
-    static String outputProtoDirectory = Config.getConfig().splitOutputDirectory;
+    private final String outputProtoDirectory;
 
     // 顶层 message
-    static List<TopFloorMessagesData> topFloorMessages = new ArrayList<>();
+    private final List<TopFloorMessagesData> topFloorMessages = new ArrayList<>();
     // 顶层 message 输出黑名单 - 这里面的 messageName 都不会输出
-    static List<String> topMessageBlackList;
+    private MessageBlacklist topMessageBlackList;
+    // 顶层类型的符号表与依赖图, 编号与 topFloorMessages 下标一致
+    private TypeGraph typeGraph;
 
     // 存储所有文件头部基本信息 - syntax、package、import等 (是根据大proto复制来的)
-    static List<String> headerLines = new ArrayList<>();
+    private final List<String> headerLines = new ArrayList<>();
+    // 游戏版本标记行, 写在 headerLines 之前
+    private String gameVersionLine;
+    // 启用归档输出时本次分割写入的归档, 否则为 null
+    private SplitArchive archive;
+    // 输入的总行数 (update 时定位变化的行)
+    private int inputLineCount;
+    // 上次写出的每个文件的成员与 import (文件名 -> 签名), update 时签名不变且成员未变化的文件不重新生成
+    private final Map<String, String> outputSignatures = new HashMap<>();
+
+    // 本次分割输出的 message 数与文件数
+    @Getter private int outputMessageCount;
+    @Getter private int outputFileCount;
+
+    /**
+     * 使用单独的运行报告
+     * @param config 本次分割使用的配置
+     */
+    public Split(Config.ConfigBean config) {
+        this(config, new RunReport());
+    }
+
+    /**
+     * 每个实例保存一次分割的全部状态, 不同实例可以在不同线程中同时使用 (批量模式)
+     * @param config 本次分割使用的配置
+     * @param report 本次运行的报告, 通常与同一次运行的替换共用
+     */
+    public Split(Config.ConfigBean config, RunReport report) {
+        this.config = config;
+        this.report = report;
+        this.outputProtoDirectory = config.splitOutputDirectory;
+    }
 
     /**
-     * 入口方法
+     * 分割替换后的文件
      * @param replaceFilePath Replace后传入的路径
+     * @return 是否成功
      */
-    public static void start(String replaceFilePath) {
+    public boolean run(String replaceFilePath) {
         if (replaceFilePath == null) {
             log.error("由于传入路径为空 不继续对文件分割");
-            return;
+            return false;
         }
 
+        return split(() -> ProtoParser.parseMapped(Paths.get(replaceFilePath)));
+    }
+
+    /**
+     * 分割已在内存中的替换结果
+     * @param replacedSource 与 replace_output.proto 相同的内容
+     * @return 是否成功
+     */
+    public boolean run(CharSequence replacedSource) {
+        return split(() -> ProtoParser.parse(replacedSource));
+    }
+
+    /**
+     * 读取替换结果并解析
+     */
+    @FunctionalInterface
+    private interface ProtoFileReader {
+        ProtoFile read() throws IOException;
+    }
+
+    private boolean split(ProtoFileReader reader) {
+        Config.ConfigBean.ArchiveOutputOptional archiveOptional = config.getArchiveOutputOptional();
+        boolean archiveOutput = archiveOptional.isEnableArchiveOutput();
         try {
-            // 确保输出目录存在
-            Files.createDirectories(Paths.get(outputProtoDirectory));
+            if (archiveOutput) {
+                // 归档输出时不使用分割输出目录
+                log.info("已启用归档输出，分割结果写入: {}", archiveOptional.getArchivePath());
+            } else {
+                // 确保输出目录存在
+                Files.createDirectories(Paths.get(outputProtoDirectory));
+            }
 
-            if (Config.getConfig().clearOutputFolderForever) {
+            if (archiveOutput) {
+                if (config.getIncrementalSplitOptional().isEnableIncrementalSplit()) {
+                    log.warn("归档输出每次重新生成整个归档，不使用增量分割");
+                }
+            } else if (config.getIncrementalSplitOptional().isEnableIncrementalSplit()) {
+                // 增量分割时由清单决定需要删除的文件
+                log.info("已启用增量分割，不清理输出目录: {}", outputProtoDirectory);
+            } else if (config.clearOutputFolderForever) {
                 // 删除输出目录下的所有内容
                 Tools.deleteDirectoryContents((Paths.get(outputProtoDirectory)));
             }
 
-            headerLines.add("// Game Version: " + Config.getConfig().gameVersion + "\n");
+            gameVersionLine = "// Game Version: " + config.gameVersion + "\n";
 
             // 解析 proto 文件的每一行
-            parseProtoFileLines(replaceFilePath);
+            report.time("parse", () -> parseProtoFile(reader.read()));
 
             // 自定义文件头部内容添加进 headerLines
-            headerLines.addAll(Arrays.asList(Config.getConfig().headerContent));
+            headerLines.addAll(Arrays.asList(config.headerContent));
 
-            // 记录全局需要 import 的 name
-            List<String> allImportMessages = topFloorMessages.parallelStream()
-                    .flatMap(metadata -> metadata.needImportMessage.stream())
-                    .distinct()
-                    .toList();
+            writeOutputs(null);
+        } catch (IOException e) {
+            log.error(String.valueOf(e));
+            return false;
+        }
+        return true;
+    }
 
-            // proto 输出黑名单
-            topMessageBlackList = parseMessageBlackListFileLines();
+    /**
+     * 与上次分割的输入相比的变化 (watch 模式), 行号从 0 开始
+     * @param regionStart 被整体替换的区间的起始行, 新旧输入相同
+     * @param oldRegionEnd 该区间在上次输入中的结束行 (不含), 与 regionStart 相同表示没有删除行
+     * @param newRegionEnd 该区间在本次输入中的结束行 (不含), 与 regionStart 相同表示没有插入行
+     * @param changedLines 区间之外内容变化的行 (本次输入中的行号)
+     */
+    public record SourceChange(int regionStart, int oldRegionEnd, int newRegionEnd, int[] changedLines) {
+        public static SourceChange lines(int[] changedLines) {
+            return new SourceChange(0, 0, 0, changedLines);
+        }
+    }
 
-            // 遍历每个顶层 message 进行数据清理和创建 proto
-            for (TopFloorMessagesData topFloorMessage : topFloorMessages) {
+    /**
+     * 按上次分割的结果增量更新 (watch 模式)
+     * <p>
+     * 沿用上次解析的顶层定义, 只重新解析与变化的行有交集的顶层定义 (连同前一个定义, 保证片段从完整的定义边界开始),
+     * 重建依赖图后重新选择输出; 增量写出时只重新生成这些定义及依赖它们的定义所在的文件, 其它文件沿用清单中的 hash.
+     * 文件头变化、片段的块不完整等无法局部处理的情况重新完整分割
+     * @param lines 本次输入的所有行, 与传给 run 的内容相同
+     * @param change 与上次输入相比的变化
+     * @return 是否成功
+     */
+    public boolean update(List<String> lines, SourceChange change) {
+        Set<String> dirtyNames = null;
+        if (typeGraph != null) {
+            dirtyNames = report.time("parse", () -> reparse(lines, change));
+            if (dirtyNames == null) {
+                log.info("无法按变化的行局部更新，重新完整分割");
+            }
+        }
+        if (dirtyNames == null) {
+            topFloorMessages.clear();
+            headerLines.clear();
+            typeGraph = null;
+            ChunkedText source = new ChunkedText();
+            for (String line : lines) {
+                source.append(line);
+                source.append("\n");
+            }
+            return run(source);
+        }
 
-                // 检测是否在黑名单
-                if (topMessageBlackList.contains(topFloorMessage.name) ||
-                        topMessageBlackList.contains(String.valueOf(topFloorMessage.cmdId))
-                ) continue;
+        try {
+            if (!config.getArchiveOutputOptional().isEnableArchiveOutput()) {
+                Files.createDirectories(Paths.get(outputProtoDirectory));
+            }
+            writeOutputs(dirtyNames);
+        } catch (IOException e) {
+            log.error(String.valueOf(e));
+            return false;
+        }
+        return true;
+    }
 
-                // 清除被嵌套进message的message
-                for (String name : topFloorMessage.extraNestedMessagesName) {
-                    topFloorMessage.needImportMessage.remove(name);
+    /**
+     * 重新解析受影响的顶层定义, 替换 topFloorMessages 中对应的部分并重建依赖图
+     * @return 内容可能变化的 message 名称 (重新解析的定义及依赖它们的定义), 无法局部更新时返回 null
+     */
+    private Set<String> reparse(List<String> lines, SourceChange change) {
+        int count = topFloorMessages.size();
+        int delta = change.newRegionEnd() - change.oldRegionEnd();
+        boolean hasRegion = change.oldRegionEnd() > change.regionStart() || change.newRegionEnd() > change.regionStart();
+        if (count == 0 || inputLineCount + delta != lines.size()) {
+            return null;
+        }
+
+        // 每个顶层定义的影响范围为 [inputStart, inputEnd): 从上一个定义结束的下一行 (其间有 cmdId 注释) 到下一个定义开始
+        // 与区间相接 (在边界插入) 也视为受影响; 区间之后的定义整体移动 delta 行
+        boolean[] touched = new boolean[count];
+        int[] shifts = new int[count];
+        for (int i = 0; hasRegion && i < count; i++) {
+            TopFloorMessagesData message = topFloorMessages.get(i);
+            if (message.inputStart <= change.oldRegionEnd() && change.regionStart() <= message.inputEnd) {
+                touched[i] = true;
+            } else if (message.inputStart > change.oldRegionEnd()) {
+                shifts[i] = delta;
+            }
+        }
+        // 按本次输入中的位置查找包含变化行的定义 (与区间相交的定义按区间起点计, 保持有序)
+        int[] starts = new int[count];
+        for (int i = 0; i < count; i++) {
+            starts[i] = touched[i] ? change.regionStart() : topFloorMessages.get(i).inputStart + shifts[i];
+        }
+        for (int line : change.changedLines()) {
+            // 开始于该行或之前的最后一个定义, 以及影响范围同样包含该行的前一个定义
+            int i = lastAtOrBefore(starts, line);
+            for (int j = i; j >= 0 && j >= i - 1; j--) {
+                TopFloorMessagesData message = topFloorMessages.get(j);
+                if (!touched[j] && message.inputStart + shifts[j] <= line && line < message.inputEnd + shifts[j]) {
+                    touched[j] = true;
                 }
+            }
+        }
 
-                // needImportMessage 去重
-                List<String> importMessage = topFloorMessage.needImportMessage;
-                topFloorMessage.needImportMessage = new ArrayList<>(new LinkedHashSet<>(importMessage));
+        // 连同前一个定义一起重新解析, 片段从未变化的定义开始
+        boolean[] reparsed = touched.clone();
+        for (int i = 1; i < count; i++) {
+            if (touched[i]) {
+                reparsed[i - 1] = true;
+            }
+        }
 
-                // 有cmdId 并且名称是全大写未解混淆的proto
-                if (topFloorMessage.cmdId != 0 && topFloorMessage.name.matches("[A-Z]+"))
-                    continue;
-                // 无cmdId 并且不在全局需要import的记录中
-                if (topFloorMessage.cmdId == 0 && !allImportMessages.contains(topFloorMessage.name))
-                    continue;
+        String cmdIdPrefix = ConstProtoType.getDumpedCmdId() + " ";
+        List<TopFloorMessagesData> messages = new ArrayList<>(count);
+        Set<String> reparsedNames = new HashSet<>();
+        int reparsedLines = 0;
+        int i = 0;
+        while (i < count) {
+            if (!reparsed[i]) {
+                TopFloorMessagesData message = topFloorMessages.get(i);
+                message.inputStart += shifts[i];
+                message.inputFirstLine += shifts[i];
+                message.inputEnd += shifts[i];
+                messages.add(message);
+                i++;
+                continue;
+            }
 
-                // 创建 proto 文件
-                createProtoFile(topFloorMessage);
+            // 连续的一段 [runFirst, runLast]
+            int runFirst = i;
+            while (i < count && reparsed[i]) {
+                i++;
             }
-            log.info("Proto文件分割完成，共生成 {} 个文件，输出目录: {}", topFloorMessages.size(), outputProtoDirectory);
+            int runLast = i - 1;
+            TopFloorMessagesData first = topFloorMessages.get(runFirst);
+            int runStart = first.inputStart + shifts[runFirst];
+            int runEnd = runLast + 1 < count
+                    ? topFloorMessages.get(runLast + 1).inputFirstLine + shifts[runLast + 1]
+                    : lines.size();
+
+            StringBuilder text = new StringBuilder();
+            for (int lineIndex = runStart; lineIndex < runEnd; lineIndex++) {
+                text.append(lines.get(lineIndex)).append('\n');
+            }
+            ProtoFile fragment = ProtoParser.parse(text);
+            List<ProtoMessage> fragmentMessages = fragment.getMessages();
+            reparsedLines += runEnd - runStart;
 
-            // 创建 PacketOpcodes.java
-            if (Config.getConfig().getPacketOpcodesOptional().isCreatePacketOpcodes()) {
-                Path OpFileDirectory = Paths.get(Config.getConfig().getPacketOpcodesOptional().getOpsOutputDirectory());
-                Path OpFilePath = Paths.get(OpFileDirectory + "/PacketOpcodes.java");
+            if (!fragment.isComplete() || fragmentMessages.isEmpty()) {
+                return null;
+            }
+            if (runFirst == 0) {
+                // 片段包含文件头, 文件头变化时需要重新生成所有文件
+                List<String> sourceHeaderLines = headerLines.subList(0, headerLines.size() - config.headerContent.length);
+                if (!fragment.getHeaderLines().equals(sourceHeaderLines)) {
+                    return null;
+                }
+            } else if (touched[runFirst] || fragmentMessages.getFirst().getFirstLine() + runStart != first.inputFirstLine + shifts[runFirst]) {
+                // 片段的第一个定义应为未变化的前一个定义
+                return null;
+            }
 
-                // 确保输出目录存在
-                Files.createDirectories(OpFileDirectory);
+            for (int m = 0; m < fragmentMessages.size(); m++) {
+                ProtoMessage message = fragmentMessages.get(m);
+                int endLine = m + 1 < fragmentMessages.size() ? fragmentMessages.get(m + 1).getFirstLine() : fragment.getLineCount();
+                TopFloorMessagesData newMessage = newTopFloorMessage(message, fragment, endLine, cmdIdPrefix);
+                newMessage.inputStart = runStart + (m == 0 ? 0 : fragmentMessages.get(m - 1).getLastLine() + 1);
+                newMessage.inputFirstLine = runStart + message.getFirstLine();
+                newMessage.inputEnd = runStart + endLine;
+                messages.add(newMessage);
+                reparsedNames.add(message.getName());
+            }
+            if (runLast + 1 < count) {
+                // 下一个定义的影响范围从片段最后一个定义结束的下一行开始
+                TopFloorMessagesData next = topFloorMessages.get(runLast + 1);
+                next.inputStart = runStart + fragmentMessages.getLast().getLastLine() + 1 - shifts[runLast + 1];
+            }
+        }
 
-                if (Config.getConfig().clearOutputFolderForever) {
-                    // 删除输出目录下的所有内容
-                    Tools.deleteDirectoryContents(OpFileDirectory);
+        topFloorMessages.clear();
+        topFloorMessages.addAll(messages);
+        for (int index = 0; index < messages.size(); index++) {
+            messages.get(index).index = index;
+        }
+        inputLineCount = lines.size();
+        typeGraph = TypeGraph.build(messages.stream().map(message -> message.model).toList());
+
+        // 依赖重新解析的定义的定义
+        Set<String> dirtyNames = new HashSet<>(reparsedNames);
+        for (String name : reparsedNames) {
+            int index = typeGraph.indexOf(name);
+            if (index >= 0) {
+                for (int dependent : typeGraph.getDependents(index)) {
+                    dirtyNames.add(typeGraph.getName(dependent));
                 }
+            }
+        }
+        report.count("parse.lines", reparsedLines);
+        report.count("parse.messages", reparsedNames.size());
+        log.info("重新解析 {} 行中的 {} 个顶层定义，{} 个 message 需要重新生成", reparsedLines, reparsedNames.size(), dirtyNames.size());
+        return dirtyNames;
+    }
 
-                try (BufferedWriter OpWriter = Files.newBufferedWriter(OpFilePath)) {
-                    OpWriter.write(Config.getConfig().getPacketOpcodesOptional().getPacketHeader() + "\n");
-                    OpWriter.newLine();
-                    OpWriter.write("public final class PacketOpcodes {\n");
-                    for (TopFloorMessagesData message : topFloorMessages) {
-                        if (message.cmdId == 0) {
-                            continue;
-                        }
-                        OpWriter.write("    public static final int " + message.name + " = " + message.cmdId + ";\n");
-                    }
-                    OpWriter.write("}\n");
-                }
-                log.info("{} 已生成完毕", OpFilePath);
+    /**
+     * @param starts 非递减
+     * @return 最后一个小于等于 line 的下标, 没有时返回 0
+     */
+    private static int lastAtOrBefore(int[] starts, int line) {
+        int low = 0;
+        int high = starts.length - 1;
+        int found = 0;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (starts[mid] <= line) {
+                found = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * 选择需要输出的 message 并写出所有结果
+     * @param dirtyNames 内容可能变化的 message (update 时), 为 null 时重新生成所有文件
+     */
+    private void writeOutputs(Set<String> dirtyNames) throws IOException {
+        Config.ConfigBean.ArchiveOutputOptional archiveOptional = config.getArchiveOutputOptional();
+        boolean archiveOutput = archiveOptional.isEnableArchiveOutput();
+
+        // 需要输出的 message
+        List<TopFloorMessagesData> outputMessages = report.time("filter", this::selectOutputMessages);
+
+        // 归档输出时 proto 文件、PacketOpcodes.java 与 XorFieldConfig.tsv 依次写入同一个归档
+        try (SplitArchive openedArchive = archiveOutput
+                ? SplitArchive.open(Paths.get(archiveOptional.getArchivePath()), archiveOptional.getCompression(), report)
+                : null) {
+            archive = openedArchive;
+
+            // 创建 proto 文件 bootMode 1 时按依赖分组写入固定数量的文件
+            List<ProtoOutput> outputs = report.time("emit", () -> {
+                List<ProtoOutput> fileOutputs = config.bootMode == 1
+                        ? groupOutputs(outputMessages)
+                        : messageOutputs(outputMessages);
+                emitProtoFiles(fileOutputs, dirtyNames);
+                return fileOutputs;
+            });
+            outputMessageCount = outputMessages.size();
+            outputFileCount = outputs.size();
+            log.info("Proto文件分割完成，共 {} 个顶层定义，输出 {} 个 message 到 {} 个文件，跳过 {} 个，输出目录: {}",
+                    topFloorMessages.size(), outputMessages.size(), outputs.size(),
+                    topFloorMessages.size() - outputMessages.size(),
+                    archiveOutput ? archiveOptional.getArchivePath() : outputProtoDirectory);
+
+            // 创建二进制描述符
+            if (config.getDescriptorSetOptional().isEnableDescriptorSet()) {
+                report.time("descriptor", () -> writeDescriptorSet(outputs));
+            }
+
+            // 创建 PacketOpcodes.java
+            if (config.getPacketOpcodesOptional().isCreatePacketOpcodes()) {
+                report.time("opcodes", this::writePacketOpcodes);
             }
 
             // create XorFieldConfig
-            if (Config.getConfig().getGenerateXorFieldConfig().isEnableGenerateXorFieldConfig()) {
-                Path fileDir = Paths.get(Config.getConfig().getGenerateXorFieldConfig().getXorOutputDirectory());
-                Path FilePath = Paths.get(fileDir + "/XorFieldConfig.tsv");
+            if (config.getGenerateXorFieldConfig().isEnableGenerateXorFieldConfig()) {
+                report.time("xorConfig", this::writeXorFieldConfig);
+            }
 
-                // 确保输出目录存在
-                Files.createDirectories(fileDir);
+            if (openedArchive != null) {
+                report.time("archive", openedArchive::commit);
+            }
+        } finally {
+            archive = null;
+        }
+    }
 
-                if (Config.getConfig().clearOutputFolderForever) {
-                    // 删除输出目录下的所有内容
-                    Tools.deleteDirectoryContents(fileDir);
-                }
+    /**
+     * 应用黑名单并跳过未解混淆的协议、未被引用的 message
+     * @return 需要输出的 message
+     */
+    private List<TopFloorMessagesData> selectOutputMessages() {
+        // proto 输出黑名单
+        topMessageBlackList = parseMessageBlackList(config);
+        BitSet excludedMessages = topMessageBlackList.resolve(typeGraph, isDropOnlyReachableFromBlacklisted());
 
-                try (BufferedWriter Writer = Files.newBufferedWriter(FilePath)) {
-                    Writer.write("CmdId\tMessageName\tFiledId\tMagicNumber1\tMagicNumber2\tMagicNumberOperatorMode");
-                    Writer.newLine();
-                    for (TopFloorMessagesData message : topFloorMessages) {
-                        if (message.filedMagicNumberMap == null || message.filedMagicNumberMap.isEmpty()) {
-                            continue;
-                        }
-                        for (TopFloorMessagesData.FiledMagicNumberMap map : message.filedMagicNumberMap) {
-                            Writer.write(message.cmdId + "\t" + message.name + "\t" + map.filedId + "\t" +
-                                    map.magicNumber1 + "\t" + map.magicNumber2 + "\t" + map.mode);
-                            Writer.newLine();
-                        }
-                    }
-                }
-                log.info("{} 已生成完毕", FilePath);
+        // 需要输出的 message
+        List<TopFloorMessagesData> outputMessages = new ArrayList<>();
+
+        // 遍历每个顶层 message 进行数据清理
+        for (int i = 0; i < topFloorMessages.size(); i++) {
+            TopFloorMessagesData topFloorMessage = topFloorMessages.get(i);
+
+            // 检测是否在黑名单
+            if (excludedMessages.get(i)) {
+                report.increment("split.skippedBlacklisted");
+                continue;
             }
-        } catch (IOException e) {
-            log.error(String.valueOf(e));
+
+            // 去重并清除被嵌套进message的message
+            topFloorMessage.needImportMessage = typeGraph.getImports(i);
+
+            // 有cmdId 并且名称是全大写未解混淆的proto
+            if (topFloorMessage.cmdId != 0 && topFloorMessage.name.matches("[A-Z]+")) {
+                report.increment("split.skippedObfuscated");
+                continue;
+            }
+            // 无cmdId 并且不在全局需要import的记录中
+            if (topFloorMessage.cmdId == 0 && !typeGraph.isReferenced(topFloorMessage.name)) {
+                report.increment("split.skippedUnreferenced");
+                continue;
+            }
+
+            outputMessages.add(topFloorMessage);
         }
+        report.count("split.outputMessages", outputMessages.size());
+        return outputMessages;
     }
 
     /**
-     * 解析 message 输出黑名单文件的每一行
-     * @return 需要黑名单的 list (name/cmdId)
+     * 创建 PacketOpcodes.java
      */
-    public static List<String> parseMessageBlackListFileLines() {
-        Config.ConfigBean.GenerateMessageBlacklistOptional configOptional = Config.getConfig()
-                .getGenerateMessageBlacklistOptional();
+    private void writePacketOpcodes() throws IOException {
+        Path OpFileDirectory = Paths.get(config.getPacketOpcodesOptional().getOpsOutputDirectory());
+        Path OpFilePath = Paths.get(OpFileDirectory + "/PacketOpcodes.java");
+
+        // 归档输出时只有查找表类写入输出目录
+        if (archive == null || config.getPacketOpcodesOptional().isCreateOpcodeTable()) {
+            // 确保输出目录存在
+            Files.createDirectories(OpFileDirectory);
 
-        if (!configOptional.isEnableBlacklist()) return Collections.singletonList("null");
+            if (config.clearOutputFolderForever) {
+                // 删除输出目录下的所有内容
+                Tools.deleteDirectoryContents(OpFileDirectory);
+            }
+        }
 
-        return Tools.getJsonTrueKeys(configOptional.getBlacklistFilePath());
+        StringWriter content = new StringWriter();
+        try (BufferedWriter OpWriter = new BufferedWriter(content)) {
+            OpWriter.write(config.getPacketOpcodesOptional().getPacketHeader() + "\n");
+            OpWriter.newLine();
+            OpWriter.write("public final class PacketOpcodes {\n");
+            for (TopFloorMessagesData message : topFloorMessages) {
+                if (message.cmdId == 0) {
+                    continue;
+                }
+                OpWriter.write("    public static final int " + message.name + " = " + message.cmdId + ";\n");
+                report.increment("opcodes.entries");
+            }
+            OpWriter.write("}\n");
+        }
+        writeOutputFile(OpFilePath, content.toString());
+
+        // 创建 cmdId 查找表类
+        Config.ConfigBean.PacketOpcodesOptional optional = config.getPacketOpcodesOptional();
+        if (optional.isCreateOpcodeTable()) {
+            List<OpcodeTableWriter.Entry> entries = new ArrayList<>();
+            for (TopFloorMessagesData message : topFloorMessages) {
+                if (message.cmdId != 0) {
+                    entries.add(new OpcodeTableWriter.Entry(message.cmdId, message.name, !message.filedMagicNumberMap.isEmpty()));
+                }
+            }
+            String className = optional.getOpcodeTableClassName();
+            int count = OpcodeTableWriter.write(OpFileDirectory.resolve(className + ".java"), optional.getPacketHeader(), className, entries);
+            report.count("opcodes.tableEntries", count);
+        }
     }
 
     /**
-     * 解析 proto 文件的每一行
+     * 创建与分割输出对应的 FileDescriptorSet
      */
-    public static void parseProtoFileLines(String inputProtoFilePath) throws IOException {
-        List<String> lines = Files.readAllLines(Paths.get(inputProtoFilePath));
+    private void writeDescriptorSet(List<ProtoOutput> outputs) throws IOException {
+        Config.ConfigBean.DescriptorSetOptional optional = config.getDescriptorSetOptional();
+        Path directory = Paths.get(optional.getOutputDirectory());
 
-        // message嵌套深度: 当行内出现可以嵌套或被嵌套的类型时 +1, 匹配到 "}" 符号时 -1, 归零时生成一个新的message
-        int messageNestingAllowance = 0;
-        // 最后一次读取的 cmdId
-        int lastCmdId = 0;
+        // 确保输出目录存在
+        Files.createDirectories(directory);
 
-        for (String line : lines) {
-            boolean isNestingTypeLine = false;  // 是可以嵌套类型行
-            String lineImportMessage = null;      // 行导入自定义类型
+        if (config.clearOutputFolderForever) {
+            // 删除输出目录下的所有内容
+            Tools.deleteDirectoryContents(directory);
+        }
 
-            // 移除每行前导和尾随空格
-            String trimmedLine = line.trim();
+        List<DescriptorSetWriter.FileSpec> files = new ArrayList<>();
+        for (ProtoOutput output : outputs) {
+            files.add(new DescriptorSetWriter.FileSpec(output.fileName(), output.importFiles(),
+                    output.members().stream().map(proto -> proto.model).toList()));
+        }
+        DescriptorSetWriter.write(files, headerLines, optional.getMode(), directory,
+                optional.getAggregateFileName(), optional.getParallelism(), report);
+    }
 
-            // 收集文件头部信息
-            if (topFloorMessages.isEmpty() &&
-                    (trimmedLine.startsWith("syntax") ||
-                            trimmedLine.startsWith("package") ||
-                            trimmedLine.startsWith("import"))) {
-                headerLines.add(line);
-                continue;
+    /**
+     * 创建 XorFieldConfig.tsv
+     */
+    private void writeXorFieldConfig() throws IOException {
+        Path fileDir = Paths.get(config.getGenerateXorFieldConfig().getXorOutputDirectory());
+        Path FilePath = Paths.get(fileDir + "/XorFieldConfig.tsv");
+
+        // 归档输出时只有编解码类与二进制表写入输出目录
+        Config.ConfigBean.GenerateXorFieldConfig optional = config.getGenerateXorFieldConfig();
+        if (archive == null || optional.isCreateXorDecoder() || optional.isCreateXorBinaryTable()) {
+            // 确保输出目录存在
+            Files.createDirectories(fileDir);
+
+            if (config.clearOutputFolderForever) {
+                // 删除输出目录下的所有内容
+                Tools.deleteDirectoryContents(fileDir);
             }
+        }
 
-            if (trimmedLine.startsWith(ConstProtoType.getDumpedCmdId() + " ")) {
-                Integer CmdId = extractCmdId(trimmedLine); // 提取 CmdId
-                lastCmdId = Objects.requireNonNullElse(CmdId, 0);
-            }
-
-            // 构建 messages
-            for (String NestingType : ConstProtoType.getConstNestingType()) {
-                // 行内出现可以嵌套或被嵌套的类型
-                if (trimmedLine.startsWith(NestingType + " ")) {
-                    String messageName = extractTypeName(trimmedLine, NestingType); // 提取message名称
-                    if (messageName != null) {
-                        // 没有message嵌套余量时 代表已经进入下一个message了
-                        if (messageNestingAllowance == 0) {
-                            // 这时可以构建 newMessage
-                            TopFloorMessagesData newMessage = new TopFloorMessagesData();
-                            newMessage.name = messageName;
-                            newMessage.cmdId = lastCmdId;
-                            // 向 messages 添加 newMessage
-                            topFloorMessages.add(newMessage);
-
-                            lastCmdId = 0;
-                        } else {
-                            // 当前message在上一层嵌套中 需要导入
-                            topFloorMessages.getLast().extraNestedMessagesName.add(messageName);
-                        }
-                        messageNestingAllowance++;
-                    }
-                    isNestingTypeLine = true;
-                    break;
+        StringWriter content = new StringWriter();
+        try (BufferedWriter Writer = new BufferedWriter(content)) {
+            Writer.write("CmdId\tMessageName\tFiledId\tMagicNumber1\tMagicNumber2\tMagicNumberOperatorMode");
+            Writer.newLine();
+            for (TopFloorMessagesData message : topFloorMessages) {
+                if (message.filedMagicNumberMap == null || message.filedMagicNumberMap.isEmpty()) {
+                    continue;
+                }
+                for (ProtoXorField map : message.filedMagicNumberMap) {
+                    Writer.write(message.cmdId + "\t" + message.name + "\t" + map.getFieldNumber() + "\t" +
+                            map.getMagicNumber1() + "\t" + map.getMagicNumber2() + "\t" + map.getMode());
+                    Writer.newLine();
+                    report.increment("xor.fields");
                 }
             }
+        }
+        writeOutputFile(FilePath, content.toString());
 
-            // 分析xor字段
-            TopFloorMessagesData.FiledMagicNumberMap xorMap = extractFiledMagicNumber(line);
-            if (xorMap != null && topFloorMessages != null && !topFloorMessages.isEmpty()) {
-                topFloorMessages.getLast().filedMagicNumberMap.add(xorMap);
+        // 编解码类与二进制表
+        if (optional.isCreateXorDecoder() || optional.isCreateXorBinaryTable()) {
+            List<XorDecoderWriter.Message> messages = new ArrayList<>();
+            for (TopFloorMessagesData message : topFloorMessages) {
+                messages.add(new XorDecoderWriter.Message(message.name, message.cmdId, message.filedMagicNumberMap));
+            }
+            if (optional.isCreateXorDecoder()) {
+                String className = optional.getXorDecoderClassName();
+                int count = XorDecoderWriter.writeDecoder(fileDir.resolve(className + ".java"),
+                        optional.getXorDecoderPackageHeader(), className, messages);
+                report.count("xor.decoderMessages", count);
+            }
+            if (optional.isCreateXorBinaryTable()) {
+                XorDecoderWriter.writeBinaryTable(fileDir.resolve("XorFieldConfig.bin"), messages);
             }
+        }
+    }
 
-            int fieldTypeMaxCount = ConstProtoType.getSimpleType().size();
-            int fieldTypeCount = 0; // 已经查找过的固定类型, 等于max时代表这一行不是固定类型 极大可能是自定义类型 需要移交下一步操作, 等于0时后续也不需要操作
+    /**
+     * 写出 PacketOpcodes.java、XorFieldConfig.tsv, 归档输出时以文件名作为条目名写入归档
+     */
+    private void writeOutputFile(Path path, String content) throws IOException {
+        if (archive != null) {
+            archive.add(path.getFileName().toString(), content.getBytes(StandardCharsets.UTF_8));
+            log.info("{} 已写入归档", path.getFileName());
+            return;
+        }
+        Files.writeString(path, content);
+        log.info("{} 已生成完毕", path);
+    }
 
-            // 查找需要导入的自定义类型
-            for (String fieldType : ConstProtoType.getSimpleType()) {
-                if (isNestingTypeLine) break;
+    /**
+     * 解析 message 输出黑名单文件并编译
+     * @return 黑名单 (name/cmdId/cmdId 区间/通配符/正则)
+     */
+    private static MessageBlacklist parseMessageBlackList(Config.ConfigBean config) {
+        Config.ConfigBean.GenerateMessageBlacklistOptional configOptional = config.getGenerateMessageBlacklistOptional();
 
-                // 如果行开头是基本数据类型 直接退出循环
-                if (trimmedLine.startsWith(fieldType + " ")) {
-                    fieldTypeCount = 0;
-                    break;
-                }
+        if (!configOptional.isEnableBlacklist()) return MessageBlacklist.empty();
 
-                fieldTypeCount++;
-            }
+        List<String> blacklist = Tools.getJsonTrueKeys(configOptional.getBlacklistFilePath());
+        return blacklist == null ? MessageBlacklist.empty() : MessageBlacklist.compile(blacklist);
+    }
 
-            if ((fieldTypeCount == fieldTypeMaxCount)) {
-                // 提取字段类型名称
-                lineImportMessage = extractFieldType(trimmedLine);
-            }
+    private boolean isDropOnlyReachableFromBlacklisted() {
+        Config.ConfigBean.GenerateMessageBlacklistOptional configOptional = config.getGenerateMessageBlacklistOptional();
+        return configOptional.isEnableBlacklist() && configOptional.isDropOnlyReachableFromBlacklisted();
+    }
 
-            // 根据符号判断已经进入方法末尾
-            if (trimmedLine.equals("}")) {
-                messageNestingAllowance--;
-            }
+    /**
+     * 解析 proto 文件, 按顶层定义拆分并构建依赖图, 不写出任何结果 (基准测试)
+     * 每个实例只能解析一次
+     */
+    public void parseProtoFileLines(String inputProtoFilePath) throws IOException {
+        parseProtoFile(ProtoParser.parseMapped(Paths.get(inputProtoFilePath)));
+    }
+
+    /**
+     * 按顶层定义拆分已解析的 proto 文件
+     * 每个顶层定义只记录行号区间, 输出时再从 protoFile 中读取内容, 不为每一行保留字符串
+     */
+    private void parseProtoFile(ProtoFile protoFile) {
+        // 收集文件头部信息
+        headerLines.addAll(protoFile.getHeaderLines());
+
+        List<ProtoMessage> messages = protoFile.getMessages();
+        report.count("parse.lines", protoFile.getLineCount());
+        report.count("parse.messages", messages.size());
+        String cmdIdPrefix = ConstProtoType.getDumpedCmdId() + " ";
+        for (int i = 0; i < messages.size(); i++) {
+            ProtoMessage message = messages.get(i);
+            int endLine = i + 1 < messages.size() ? messages.get(i + 1).getFirstLine() : protoFile.getLineCount();
+            TopFloorMessagesData newMessage = newTopFloorMessage(message, protoFile, endLine, cmdIdPrefix);
+            newMessage.index = i;
+            newMessage.inputStart = i == 0 ? 0 : messages.get(i - 1).getLastLine() + 1;
+            newMessage.inputFirstLine = message.getFirstLine();
+            newMessage.inputEnd = endLine;
+            topFloorMessages.add(newMessage);
+        }
+        inputLineCount = protoFile.getLineCount();
+
+        typeGraph = TypeGraph.build(messages);
+    }
 
-            // messages已录入，并且录入不是cmdId那一行
-            if (!topFloorMessages.isEmpty() && !trimmedLine.startsWith(ConstProtoType.getDumpedCmdId() + " ")) {
-                // 向顶层message加入自身行
-                topFloorMessages.getLast().lines.add(line);
-                // 向顶层message加入需要import的message
-                if (lineImportMessage != null && !isNestingTypeLine) {
-                    topFloorMessages.getLast().needImportMessage.add(lineImportMessage);
+    /**
+     * @param endLine 下一个顶层定义开始的行 (在 protoFile 中)
+     */
+    private static TopFloorMessagesData newTopFloorMessage(ProtoMessage message, ProtoFile protoFile, int endLine,
+                                                          String cmdIdPrefix) {
+        TopFloorMessagesData newMessage = new TopFloorMessagesData();
+        newMessage.name = message.getName();
+        newMessage.cmdId = message.getCmdId();
+        newMessage.model = message;
+
+        // 自身包含的行: 从定义开始到下一个顶层定义之前, cmdId 那一行除外
+        newMessage.source = protoFile;
+        newMessage.lineRanges = lineRanges(protoFile, message.getFirstLine(), endLine, cmdIdPrefix);
+
+        newMessage.needImportMessage = new ArrayList<>(message.getReferencedTypes());
+        newMessage.extraNestedMessagesName = message.getNestedNames();
+        newMessage.filedMagicNumberMap = message.getXorFields();
+        return newMessage;
+    }
+
+    /**
+     * [firstLine, endLine) 中去掉 cmdId 行后剩下的连续区间
+     * @return 依次为每个区间的起始行与结束行 (不含)
+     */
+    private static int[] lineRanges(ProtoFile protoFile, int firstLine, int endLine, String cmdIdPrefix) {
+        int[] ranges = new int[2];
+        int rangeCount = 0;
+        int rangeStart = firstLine;
+        for (int lineIndex = firstLine; lineIndex <= endLine; lineIndex++) {
+            if (lineIndex < endLine && !protoFile.lineStartsWith(lineIndex, cmdIdPrefix)) {
+                continue;
+            }
+            if (lineIndex > rangeStart) {
+                if (rangeCount * 2 == ranges.length) {
+                    ranges = Arrays.copyOf(ranges, ranges.length * 2);
                 }
+                ranges[rangeCount * 2] = rangeStart;
+                ranges[rangeCount * 2 + 1] = lineIndex;
+                rangeCount++;
             }
-
+            rangeStart = lineIndex + 1;
         }
+        return ranges.length == rangeCount * 2 ? ranges : Arrays.copyOf(ranges, rangeCount * 2);
+    }
+
+    /**
+     * 本实例最近一次分割 (run / update) 构建的顶层类型符号表与依赖图, 分割前为 null
+     * 可用于查询某个 message 的直接 import 或传递依赖 (TypeGraph#getTransitiveDependencies)
+     */
+    public TypeGraph getTypeGraph() {
+        return typeGraph;
     }
 
     /**
-     * 提取类型后面的名称
-     * @param line 行
-     * @param type 前往下面的方法查看 cn.hongchengq.ConstProtoType#getNestingType()
-     * @return 类型后面的名称 如: GetPlayerTokenReq/Retcode
+     * 按当前解析结果生成每个顶层定义对应文件的内容 (不含标记行, 不写出, 不应用黑名单), 用于基准测试
      */
-    private static String extractTypeName(String line, String type) {
-        Pattern pattern = Pattern.compile(type + "\\s+([\\w_]+)");
-        Matcher matcher = pattern.matcher(line.trim());
-        if (matcher.find()) {
-            return matcher.group(1);
+    public List<String> renderProtoFiles() {
+        for (TopFloorMessagesData proto : topFloorMessages) {
+            proto.needImportMessage = typeGraph.getImports(proto.index);
         }
-        return null;
+        return messageOutputs(topFloorMessages).stream().map(output -> output.body().get()).toList();
     }
 
     /**
-     * 提取需要导入的自定义类型
-     * @param line 行
-     * @return 需要导入的自定义类型
+     * 每个 message 输出一个文件
      */
-    private static String extractFieldType(String line) {
-        String customType = null;
+    private List<ProtoOutput> messageOutputs(List<TopFloorMessagesData> protos) {
+        List<ProtoOutput> outputs = new ArrayList<>();
+        for (TopFloorMessagesData proto : distinctByName(protos)) {
+            List<String> importFiles = proto.needImportMessage.stream().map(name -> name + ".proto").toList();
+            outputs.add(new ProtoOutput(proto.name + ".proto", importFiles, List.of(proto), () -> {
+                StringBuilder writer = new StringBuilder(256 + proto.lineCount() * 48);
+                appendProtoHeader(writer, importFiles);
+                appendMessage(writer, proto);
+                return writer.toString();
+            }));
+        }
+        return outputs;
+    }
 
-        // 对于简单行(类型) 使用这样的方式
-        Pattern pattern = Pattern.compile("^\\s*([\\w_]+)");
-        Matcher matcher = pattern.matcher(line);
-        if (matcher.find()) {
-            customType = matcher.group(1);
+    /**
+     * bootMode 1: 按依赖关系分组, 把所有 message 写入固定数量的文件, 各文件行数尽量均衡
+     * 互相引用的 message 尽量放在同一个文件中, 跨文件时生成对应的 import
+     */
+    private List<ProtoOutput> groupOutputs(List<TopFloorMessagesData> protos) {
+        Config.ConfigBean.GroupedSplitOptional optional = config.getGroupedSplitOptional();
+        int fileCount = Math.max(1, optional.getFileCount());
+
+        List<TopFloorMessagesData> distinctProtos = distinctByName(protos);
+        BitSet selected = new BitSet(typeGraph.size());
+        int[] weights = new int[typeGraph.size()];
+        for (TopFloorMessagesData proto : distinctProtos) {
+            selected.set(proto.index);
+            weights[proto.index] = proto.lineCount();
         }
-        if (customType == null) return null;
+        int[] groups = GroupPartitioner.partition(typeGraph, selected, weights, fileCount);
 
-        // 跳过enum值定义行（如 ada = 0; 这样的行）
-        Pattern enumValuePattern = Pattern.compile("^\\s*[\\w_]+\\s*=\\s*\\d+\\s*;");
-        Matcher enumValueMatcher = enumValuePattern.matcher(line.trim());
-        if (enumValueMatcher.find()) {
-            return null; // 这是enum值定义行，不需要导入任何类型
+        // 文件内按原顺序排列
+        List<List<TopFloorMessagesData>> members = new ArrayList<>();
+        for (int g = 0; g < fileCount; g++) {
+            members.add(new ArrayList<>());
         }
+        distinctProtos.stream()
+                .sorted(Comparator.comparingInt(proto -> proto.index))
+                .forEach(proto -> members.get(groups[proto.index]).add(proto));
+
+        String fileNameFormat = optional.getFileNamePrefix() + "%0" + String.valueOf(fileCount - 1).length() + "d.proto";
+        List<ProtoOutput> outputs = new ArrayList<>();
+        for (int g = 0; g < fileCount; g++) {
+            List<TopFloorMessagesData> groupMembers = members.get(g);
+            if (groupMembers.isEmpty()) {
+                continue;
+            }
 
-        if (customType.equals(ConstProtoType.getRepeatedType())) {
-            // 处理 repeated 类型
-            Pattern repeatedPattern = Pattern.compile("repeated\\s+([\\w_]+)");
-            Matcher repeatedMatcher = repeatedPattern.matcher(line);
-            if (repeatedMatcher.find()) {
-                String repeatedType = repeatedMatcher.group(1);
-                // 检查是否为自定义类型（非基本类型）
-                if (!ConstProtoType.getSimpleType().contains(repeatedType)) {
-                    customType = repeatedType;
+            // 依赖的其它文件
+            Set<Integer> importGroups = new TreeSet<>();
+            int lineCount = 0;
+            for (TopFloorMessagesData proto : groupMembers) {
+                for (int dependency : typeGraph.getDependencies(proto.index)) {
+                    if (selected.get(dependency) && groups[dependency] != g) {
+                        importGroups.add(groups[dependency]);
+                    }
                 }
+                lineCount += proto.lineCount();
             }
-        } else if (customType.equals(ConstProtoType.getMapType())) {
-            // 处理 map 类型
-            Pattern mapPattern = Pattern.compile("map<\\s*([\\w_]+)\\s*,\\s*([\\w_]+)\\s*>");
-            Matcher mapMatcher = mapPattern.matcher(line);
-            if (mapMatcher.find()) {
-                String mapValueType = mapMatcher.group(2); // 只关心值类型，键类型通常是基本类型
-                // 检查值类型是否为自定义类型（非基本类型）
-                if (!ConstProtoType.getSimpleType().contains(mapValueType)) {
-                    customType = mapValueType;
+            List<String> importFiles = importGroups.stream().map(group -> String.format(fileNameFormat, group)).toList();
+
+            String fileName = String.format(fileNameFormat, g);
+            log.info("{}: {} 个 message，{} 行，依赖 {} 个文件", fileName, groupMembers.size(), lineCount, importFiles.size());
+            outputs.add(new ProtoOutput(fileName, importFiles, groupMembers, () -> {
+                StringBuilder writer = new StringBuilder(256 + groupMembers.size() * 1024);
+                appendProtoHeader(writer, importFiles);
+                for (TopFloorMessagesData proto : groupMembers) {
+                    appendMessage(writer, proto);
                 }
-            }
-        } else if (customType.equals("google")) {
-            // todo
-            // google.protobuf.Any data = 3;
-            // 这行会被识别为 google
-            return null;
+                return writer.toString();
+            }));
         }
+        return outputs;
+    }
 
-        // 检查是否为基本类型，如果是则不返回
-        if (ConstProtoType.getAllConstTypes().contains(customType)) {
-            return null;
+    /**
+     * 同名 message 以最后出现的为准, 与顺序覆盖写出的结果一致
+     */
+    private static List<TopFloorMessagesData> distinctByName(List<TopFloorMessagesData> protos) {
+        Map<String, TopFloorMessagesData> files = new LinkedHashMap<>();
+        for (TopFloorMessagesData proto : protos) {
+            files.remove(proto.name);
+            files.put(proto.name, proto);
         }
+        return new ArrayList<>(files.values());
+    }
 
-        return customType;
+    /**
+     * 写出所有 proto 文件
+     * @param dirtyNames 内容可能变化的 message, 为 null 时所有文件都重新生成
+     */
+    private void emitProtoFiles(List<ProtoOutput> outputs, Set<String> dirtyNames) throws IOException {
+        Map<String, String> signatures = new HashMap<>();
+        for (ProtoOutput output : outputs) {
+            signatures.put(output.fileName(), output.signature());
+        }
+        if (archive != null) {
+            emitProtoFilesToArchive(outputs);
+        } else if (config.getIncrementalSplitOptional().isEnableIncrementalSplit()) {
+            emitProtoFilesIncrementally(outputs, dirtyNames);
+        } else {
+            throwIfFailed(writeProtoFiles(outputs, null));
+        }
+        outputSignatures.clear();
+        outputSignatures.putAll(signatures);
     }
 
     /**
-     * 提取 CmdId 后面的数字
-     * 目标行示例: // CmdId: 46
-     * @param line 行
-     * @return CmdId
+     * 文件内容是否一定与上次写出的相同: 成员与 import 不变, 且没有成员的内容变化
      */
-    private static Integer extractCmdId(String line) {
-        Pattern pattern = Pattern.compile("//\\s+CmdId:\\s+(\\d+)");
-        Matcher matcher = pattern.matcher(line.trim());
-        if (matcher.find()) {
-            try {
-                return Integer.parseInt(matcher.group(1));
-            } catch (NumberFormatException e) {
-                return null;
+    private boolean isUnchangedOutput(ProtoOutput output, Set<String> dirtyNames) {
+        if (dirtyNames == null || !output.signature().equals(outputSignatures.get(output.fileName()))) {
+            return false;
+        }
+        for (TopFloorMessagesData member : output.members()) {
+            if (dirtyNames.contains(member.name)) {
+                return false;
             }
         }
-        return null;
+        return true;
     }
 
-    enum MagicNumberOperatorMode {
-        none,
-        xorAndAdder,        // 先xor再加
-        xorAndSubtract,     // 先xor再减
-        adderAndXor,        // 先加再xor
-        subtractAndXor      // 先减再xor
+    /**
+     * 写入归档: 按文件名排序, 内容并行生成后按顺序写入
+     */
+    private void emitProtoFilesToArchive(List<ProtoOutput> outputs) throws IOException {
+        Map<String, ProtoOutput> outputsByName = new TreeMap<>();
+        for (ProtoOutput output : outputs) {
+            outputsByName.put(output.fileName(), output);
+        }
+        String stamp = renderProtoStamp();
+        archive.addAll(new ArrayList<>(outputsByName.keySet()),
+                fileName -> (stamp + outputsByName.get(fileName).body().get()).getBytes(StandardCharsets.UTF_8),
+                config.getArchiveOutputOptional().getParallelism());
+        report.count("emit.archivedFiles", outputsByName.size());
     }
 
     /**
-     * 提取 CUSTOM_ENCRYPT 后面的两个魔数 以及 filedId
+     * 增量写出: 只重写内容变化的文件, 只删除本次不再生成的文件
+     * @param dirtyNames 内容可能变化的 message, 其它 message 所在的文件在签名不变时沿用清单中的 hash, 不重新生成;
+     *                   为 null 时生成所有文件的内容
      */
-    private static TopFloorMessagesData.FiledMagicNumberMap extractFiledMagicNumber(String line) {
-        TopFloorMessagesData.FiledMagicNumberMap map = new TopFloorMessagesData.FiledMagicNumberMap();
+    private void emitProtoFilesIncrementally(List<ProtoOutput> outputs, Set<String> dirtyNames) throws IOException {
+        Path directory = Paths.get(outputProtoDirectory);
+        SplitManifest manifest = SplitManifest.load(directory);
+        if (manifest.gameVersion() != null && !manifest.gameVersion().equals(config.gameVersion)) {
+            log.info("游戏版本 {} -> {}，版本号只记录在增量分割清单中", manifest.gameVersion(), config.gameVersion);
+        }
 
-        // 匹配模式，处理 ^ + - 符号的任意顺序组合
-        Pattern pattern = Pattern.compile(
-                "=\\s*(\\d+)\\s*;.*CUSTOM_ENCRYPT:\\s*\\(VALUE\\s*([+\\-^])\\s*(0[Xx][0-9A-Fa-f]+|\\d+)\\)\\s*([+\\-^/])\\s*(0[Xx][0-9A-Fa-f]+|\\d+)"
-        );
+        // 生成每个文件的内容并计算 hash
+        Map<String, String> bodies = new ConcurrentHashMap<>();
+        Map<String, String> hashes = new ConcurrentHashMap<>();
+        outputs.parallelStream().forEach(output -> {
+            String previousHash = manifest.get(output.fileName());
+            if (previousHash != null && isUnchangedOutput(output, dirtyNames)) {
+                hashes.put(output.fileName(), previousHash);
+                return;
+            }
+            String body = output.body().get();
+            bodies.put(output.fileName(), body);
+            hashes.put(output.fileName(), SplitManifest.hash(body));
+        });
+        report.count("emit.renderedFiles", bodies.size());
+
+        List<ProtoOutput> changedOutputs = new ArrayList<>();
+        int added = 0;
+        int changed = 0;
+        for (ProtoOutput output : outputs) {
+            String fileName = output.fileName();
+            String previousHash = manifest.get(fileName);
+            if (previousHash == null || !Files.isRegularFile(directory.resolve(fileName))) {
+                added++;
+                changedOutputs.add(output);
+                bodies.computeIfAbsent(fileName, name -> output.body().get());
+            } else if (!previousHash.equals(hashes.get(fileName))) {
+                changed++;
+                changedOutputs.add(output);
+            }
+        }
 
-        Matcher matcher = pattern.matcher(line.trim());
+        // 删除上次生成但本次不再生成的文件
+        int removed = 0;
+        for (String fileName : manifest.fileNames()) {
+            if (!hashes.containsKey(fileName)) {
+                Files.deleteIfExists(directory.resolve(fileName));
+                removed++;
+            }
+        }
 
-        if (matcher.find()) {
-            try {
-                // 提取字段ID
-                int fieldId = Integer.parseInt(matcher.group(1));
+        Map<String, IOException> errors = writeProtoFiles(changedOutputs, bodies);
 
-                // 提取操作符和操作数
-                String operator1 = matcher.group(2);  // 第一个操作符 (^, +, -)
-                String operand1 = matcher.group(3);   // 第一个操作数 (可能是0X格式或数字)
-                String operator2 = matcher.group(4);  // 第二个操作符 (^, +, -)
-                String operand2 = matcher.group(5);   // 第二个操作数 (可能是0X格式或数字)
+        // 写出失败的文件不记入清单, 下次重新生成
+        for (String fileName : errors.keySet()) {
+            hashes.remove(fileName);
+        }
+        SplitManifest.save(directory, hashes, config.gameVersion, Main.usedTime);
 
-                if (fieldId == 0 || operator1 == null || operand1 == null ||
-                        operator2 == null || operand2 == null
-                ) {
-                    log.error("提取xor字段魔数时发生错误，关键字段为0或null");
-                    return null;
-                }
+        report.count("emit.unchangedFiles", outputs.size() - added - changed);
+        report.count("emit.removedFiles", removed);
+        log.info("增量分割完成，新增 {} 个，修改 {} 个，删除 {} 个，未变化 {} 个",
+                added, changed, removed, outputs.size() - added - changed);
+        throwIfFailed(errors);
+    }
 
-                map.filedId = fieldId;
-                map.magicNumber1 = operand1.toUpperCase();
-                map.magicNumber2 = operand2.toUpperCase();
-
-                // 根据运算符确定模式
-                if (operator1.equals("^") && operator2.equals("+")) {
-                    map.mode = MagicNumberOperatorMode.xorAndAdder;
-                } else if (operator1.equals("^") && operator2.equals("-")) {
-                    map.mode = MagicNumberOperatorMode.xorAndSubtract;
-                } else if (operator1.equals("+") && operator2.equals("^")) {
-                    map.mode = MagicNumberOperatorMode.adderAndXor;
-                } else if (operator1.equals("-") && operator2.equals("^")) {
-                    map.mode = MagicNumberOperatorMode.subtractAndXor;
-                } else {
-                    // 未知模式
-                    log.error("提取xor字段魔数时发生错误，未知模式");
-                    map.mode = MagicNumberOperatorMode.none;
+    /**
+     * 写出 proto 文件
+     * 启用并行写出时每个文件使用一个虚拟线程, 同时写入的文件数由信号量限制;
+     * 单个文件失败不会中断其它文件
+     * @param bodies 已生成的文件内容 (文件名 -> 内容), 为 null 时在写出时生成
+     * @return 写出失败的文件 (文件名 -> 异常)
+     */
+    private Map<String, IOException> writeProtoFiles(List<ProtoOutput> outputs,
+                                                     Map<String, String> bodies) throws IOException {
+        Config.ConfigBean.ParallelEmitOptional optional = config.getParallelEmitOptional();
+        Map<String, IOException> errors = new ConcurrentSkipListMap<>();
+
+        if (!optional.isEnableParallelEmit()) {
+            for (ProtoOutput output : outputs) {
+                try {
+                    createProtoFile(output, bodies);
+                } catch (IOException e) {
+                    errors.put(output.fileName(), e);
                 }
-
-            } catch (NumberFormatException e) {
-                log.error("提取xor字段魔数时发生错误，未知错误");
-                // 解析数字失败时返回空Map
-                return null;
             }
-        } else {
-            return null;
+            return errors;
         }
 
-        return map;
+        int maxConcurrency = optional.getMaxConcurrency() > 0 ? optional.getMaxConcurrency() : 64;
+        Semaphore permits = new Semaphore(maxConcurrency);
+
+        // close 时等待所有任务结束
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (ProtoOutput output : outputs) {
+                permits.acquire();
+                executor.execute(() -> {
+                    try {
+                        createProtoFile(output, bodies);
+                    } catch (IOException | RuntimeException e) {
+                        errors.put(output.fileName(), e instanceof IOException io ? io : new IOException(e));
+                    } finally {
+                        permits.release();
+                    }
+                });
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("proto 文件写出被中断");
+        }
+        return errors;
     }
 
-    private static void createProtoFile(TopFloorMessagesData proto) {
-        String fileName = outputProtoDirectory + File.separator + proto.name + ".proto";
+    /**
+     * 汇总抛出写出失败的文件
+     */
+    private void throwIfFailed(Map<String, IOException> errors) throws IOException {
+        if (!errors.isEmpty()) {
+            report.count("emit.failedFiles", errors.size());
+            IOException exception = new IOException(errors.size() + " 个 proto 文件写出失败: " + errors.keySet());
+            errors.values().forEach(exception::addSuppressed);
+            throw exception;
+        }
+    }
 
-        try (BufferedWriter writer = Files.newBufferedWriter(Paths.get(fileName))) {
-            writer.write("// " + Main.PROJECT_ADDRESS + "\n");
-            writer.write("// usedTime: " + Main.usedTime + "\n");
-            writer.newLine();
+    /**
+     * @param bodies 已生成的文件内容, 为 null 时现场生成
+     */
+    private void createProtoFile(ProtoOutput output, Map<String, String> bodies) throws IOException {
+        String body = bodies == null ? output.body().get() : bodies.get(output.fileName());
+        Path fileName = Paths.get(outputProtoDirectory + File.separator + output.fileName());
+        byte[] bytes = (renderProtoStamp() + body).getBytes(StandardCharsets.UTF_8);
+        Files.write(fileName, bytes);
+        report.increment("emit.files");
+        report.count("emit.bytes", bytes.length);
+    }
 
-            // 写入头部信息
-            for (String headerLine : headerLines) {
-                writer.write(headerLine);
-                writer.newLine();
-            }
-            // 添加空行分隔
-            writer.newLine();
+    /**
+     * 生成文件开头的标记行 (项目地址、生成时间、游戏版本), 不参与增量分割的内容比较
+     */
+    private String renderProtoStamp() {
+        String newLine = System.lineSeparator();
+        // 增量分割时未变化的文件不会重写, 生成时间与游戏版本只记录在清单中, 保证输出目录中的文件一致
+        if (archive == null && config.getIncrementalSplitOptional().isEnableIncrementalSplit()) {
+            return "// " + Main.PROJECT_ADDRESS + "\n" + newLine;
+        }
+        // 可复现的归档中不写生成时间
+        String usedTimeLine = archive != null && config.getArchiveOutputOptional().isReproducible()
+                ? ""
+                : "// usedTime: " + Main.usedTime + "\n";
+        return "// " + Main.PROJECT_ADDRESS + "\n" +
+                usedTimeLine +
+                newLine +
+                gameVersionLine + newLine;
+    }
 
-            // 写入需要 import 的 message 定义
-            for (String importMessage : proto.needImportMessage) {
-                writer.write("import \"" + importMessage + ".proto\"" + ";");
-                // 确保每个message定义后都有空行分隔
-                writer.newLine();
-            }
-            // 添加空行分隔
-            writer.newLine();
+    /**
+     * 写入标记行之后的头部信息与 import
+     * @param importFiles 需要 import 的文件名
+     */
+    private void appendProtoHeader(StringBuilder writer, List<String> importFiles) {
+        String newLine = System.lineSeparator();
 
-            boolean isWriteToTopOfMessage = false;
-            boolean isWriteToTopOfCmdId = false;
+        // 写入头部信息
+        for (String headerLine : headerLines) {
+            writer.append(headerLine).append(newLine);
+        }
+        // 添加空行分隔
+        writer.append(newLine);
+
+        // 写入需要 import 的 message 定义
+        for (String importFile : importFiles) {
+            writer.append("import \"").append(importFile).append("\"").append(";");
+            // 确保每个message定义后都有空行分隔
+            writer.append(newLine);
+        }
+        // 添加空行分隔
+        writer.append(newLine);
+    }
 
-            // 写入目标消息定义
-            for (String messageLine : proto.lines) {
+    /**
+     * 写入 message 定义, 有 cmdId 时在第一行之后插入 enum CmdId
+     */
+    private static void appendMessage(StringBuilder writer, TopFloorMessagesData proto) {
+        String newLine = System.lineSeparator();
+        boolean isWriteToTopOfMessage = false;
+        boolean isWriteToTopOfCmdId = false;
+
+        // 写入目标消息定义
+        for (int range = 0; range < proto.lineRanges.length; range += 2) {
+            for (int lineIndex = proto.lineRanges[range]; lineIndex < proto.lineRanges[range + 1]; lineIndex++) {
                 if (proto.cmdId != 0 && isWriteToTopOfMessage && !isWriteToTopOfCmdId) {
-                    // 后面要使用的数字 判断是否需要加入 allow_alias 用
-                    List<Integer> writeTheNumbers = new ArrayList<>();
-                    writeTheNumbers.add(0);
-                    writeTheNumbers.add(proto.cmdId);
-                    if (!proto.filedMagicNumberMap.isEmpty())
-                        writeTheNumbers.add(1);
-
-                    writer.write("\tenum CmdId {\n");
-                    if (Tools.hasDuplicates(writeTheNumbers)) {
+                    writer.append("\tenum CmdId {\n");
+                    if (Tools.cmdIdEnumAllowsAlias(proto.cmdId, !proto.filedMagicNumberMap.isEmpty())) {
                         // enum 有重复项
-                        writer.write("\t\toption allow_alias = true;\n");
+                        writer.append("\t\toption allow_alias = true;\n");
                     }
-                    writer.write("\t\tNONE = 0;\n");
-                    writer.write("\t\tCMD_ID = " + proto.cmdId + ";\n");
+                    writer.append("\t\tNONE = 0;\n");
+                    writer.append("\t\tCMD_ID = ").append(proto.cmdId).append(";\n");
                     if (!proto.filedMagicNumberMap.isEmpty())
-                        writer.write("\t\tIS_XOR_VALUE_FIELDS = " + 1 + ";\n");
-                    writer.write("\t}");
-                    writer.newLine();
+                        writer.append("\t\tIS_XOR_VALUE_FIELDS = ").append(1).append(";\n");
+                    writer.append("\t}");
+                    writer.append(newLine);
                     isWriteToTopOfCmdId = true;
                 }
-                writer.write(messageLine);
-                writer.newLine();
+                proto.source.appendLine(writer, lineIndex);
+                writer.append(newLine);
                 isWriteToTopOfMessage = true;
             }
-        } catch (IOException e) {
-            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * 一个输出文件: 文件名、生成的 import、写入的 message 与内容 (不含标记行) 的生成方法
+     */
+    private record ProtoOutput(String fileName, List<String> importFiles, List<TopFloorMessagesData> members,
+                               Supplier<String> body) {
+        /**
+         * 成员与 import, 相同时文件内容只取决于成员自身
+         */
+        String signature() {
+            StringBuilder signature = new StringBuilder();
+            members.forEach(member -> signature.append(member.name).append(','));
+            signature.append('|');
+            importFiles.forEach(importFile -> signature.append(importFile).append(','));
+            return signature.toString();
         }
     }
 
@@ -498,18 +1097,29 @@ public class Split {
      * 这里的数据将写入输出文件
      */
     private static class TopFloorMessagesData {
+        int index;                                                                  // 在 typeGraph 中的编号
+        int inputStart;                                                             // 在输入中的影响范围: 从上一个顶层定义结束的下一行开始 (含 cmdId 注释)
+        int inputFirstLine;                                                         // 在输入中定义开始的行
+        int inputEnd;                                                               // 在输入中的影响范围结束 (不含): 下一个顶层定义开始的行
         String name;                                                                // 输出文件名
         int cmdId = 0;                                                              // CmdId
-        List<String> lines = new ArrayList<>();                                     // 自身包含的行
+        ProtoFile source;                                                           // 所在的 proto 文件, 各行从中读取
+        ProtoMessage model;                                                         // 解析得到的定义, 用于生成描述符
+        int[] lineRanges;                                                           // 自身包含的行: [起始行, 结束行) 区间依次排列
         List<String> needImportMessage = new ArrayList<>();                         // 需要import的message
         List<String> extraNestedMessagesName = new ArrayList<>();                   // 自身额外嵌套类的name
 //        List<topFloorMessagesMetadata> extraNestedMessages = new ArrayList<>();     // 自身额外嵌套类 暂时用不到
-        List<FiledMagicNumberMap> filedMagicNumberMap = new ArrayList<>();
-        static class FiledMagicNumberMap {
-            int filedId;
-            String magicNumber1;
-            String magicNumber2;
-            MagicNumberOperatorMode mode;
+        List<ProtoXorField> filedMagicNumberMap = new ArrayList<>();                // 带 CUSTOM_ENCRYPT 的字段
+
+        /**
+         * 自身包含的行数
+         */
+        int lineCount() {
+            int count = 0;
+            for (int range = 0; range < lineRanges.length; range += 2) {
+                count += lineRanges[range + 1] - lineRanges[range];
+            }
+            return count;
         }
     }
 }
@@ -0,0 +1,135 @@
+package cn.hongchengq.proto_script_jnl;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * 增量分割清单
+ * <p>
+ * 记录输出目录中每个 proto 文件内容的 SHA-256, 下次分割时只重写内容变化的文件, 只删除本次不再生成的文件;
+ * 不在清单中的文件不会被改动
+ * <p>
+ * 增量分割输出的文件不写 usedTime 与 Game Version 标记行 (否则未变化的文件会保留旧版本号, 与重写的文件不一致),
+ * 这两项只记录在清单开头的注释行中
+ * <p>
+ * 文件格式: 以 "# " 开头的标记行 (Game Version、usedTime), 之后为 tsv (按文件名排序): FileName  Sha256
+ */
+@Slf4j
+class SplitManifest {
+    static final String FILE_NAME = ".split-manifest.tsv";
+    private static final String HEADER = "FileName\tSha256";
+    private static final String GAME_VERSION_PREFIX = "# Game Version: ";
+    private static final String USED_TIME_PREFIX = "# usedTime: ";
+
+    private final Map<String, String> hashes;   // 文件名 -> 内容 hash
+    private final String gameVersion;           // 上次分割的游戏版本, 没有时为 null
+
+    private SplitManifest(Map<String, String> hashes, String gameVersion) {
+        this.hashes = hashes;
+        this.gameVersion = gameVersion;
+    }
+
+    /**
+     * 读取输出目录中的清单, 不存在或无法解析时返回空清单 (所有文件都会重写)
+     */
+    static SplitManifest load(Path directory) {
+        Path file = directory.resolve(FILE_NAME);
+        Map<String, String> hashes = new HashMap<>();
+        if (!Files.isRegularFile(file)) {
+            return new SplitManifest(hashes, null);
+        }
+
+        String gameVersion = null;
+        try {
+            List<String> lines = Files.readAllLines(file);
+            int headerIndex = 0;
+            while (headerIndex < lines.size() && lines.get(headerIndex).startsWith("# ")) {
+                String line = lines.get(headerIndex++);
+                if (line.startsWith(GAME_VERSION_PREFIX)) {
+                    gameVersion = line.substring(GAME_VERSION_PREFIX.length());
+                }
+            }
+            // 旧格式的清单没有版本行, 对应的文件仍带有标记行, 需要全部重写
+            if (gameVersion == null || headerIndex >= lines.size() || !lines.get(headerIndex).equals(HEADER)) {
+                log.warn("增量分割清单 {} 格式不正确，将重新生成所有文件", file);
+                return new SplitManifest(hashes, null);
+            }
+            for (String line : lines.subList(headerIndex + 1, lines.size())) {
+                int tab = line.indexOf('\t');
+                if (tab > 0) {
+                    hashes.put(line.substring(0, tab), line.substring(tab + 1));
+                }
+            }
+        } catch (IOException e) {
+            log.warn("增量分割清单 {} 无法读取，将重新生成所有文件", file, e);
+            hashes.clear();
+        }
+        return new SplitManifest(hashes, gameVersion);
+    }
+
+    /**
+     * @return 上次记录的 hash, 没有时返回 null
+     */
+    String get(String fileName) {
+        return hashes.get(fileName);
+    }
+
+    Set<String> fileNames() {
+        return hashes.keySet();
+    }
+
+    /**
+     * @return 上次分割的游戏版本, 没有清单时返回 null
+     */
+    String gameVersion() {
+        return gameVersion;
+    }
+
+    /**
+     * 写入清单, 先写临时文件再原子替换
+     * @param gameVersion 本次分割的游戏版本
+     * @param usedTime 本次分割的生成时间
+     */
+    static void save(Path directory, Map<String, String> hashes, String gameVersion, String usedTime) throws IOException {
+        Path file = directory.resolve(FILE_NAME);
+        Path tempFile = Files.createTempFile(directory, FILE_NAME, ".tmp");
+        try {
+            try (BufferedWriter writer = Files.newBufferedWriter(tempFile)) {
+                writer.write(GAME_VERSION_PREFIX + gameVersion);
+                writer.newLine();
+                writer.write(USED_TIME_PREFIX + usedTime);
+                writer.newLine();
+                writer.write(HEADER);
+                writer.newLine();
+                for (Map.Entry<String, String> entry : new TreeMap<>(hashes).entrySet()) {
+                    writer.write(entry.getKey() + "\t" + entry.getValue());
+                    writer.newLine();
+                }
+            }
+            Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    /**
+     * 内容的 SHA-256 (十六进制)
+     */
+    static String hash(String content) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(content.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
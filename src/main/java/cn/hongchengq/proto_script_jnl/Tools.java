@@ -63,6 +63,21 @@ public class Tools {
         return trueKeys;
     }
 
+    /**
+     * Split 插入的 enum CmdId 是否写出 option allow_alias: NONE = 0、CMD_ID = cmdId、
+     * 有 CUSTOM_ENCRYPT 字段时 IS_XOR_VALUE_FIELDS = 1, 其中有重复的值时需要
+     * 分割输出与描述符都按这里的结果写出, 保证两者一致
+     */
+    public static boolean cmdIdEnumAllowsAlias(int cmdId, boolean hasXorFields) {
+        // 后面要使用的数字 判断是否需要加入 allow_alias 用
+        List<Integer> writeTheNumbers = new ArrayList<>();
+        writeTheNumbers.add(0);
+        writeTheNumbers.add(cmdId);
+        if (hasXorFields)
+            writeTheNumbers.add(1);
+        return hasDuplicates(writeTheNumbers);
+    }
+
     /**
      * 判断 list 是否有重复项
      */
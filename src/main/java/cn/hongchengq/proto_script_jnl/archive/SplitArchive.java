@@ -0,0 +1,169 @@
+package cn.hongchengq.proto_script_jnl.archive;
+
+import cn.hongchengq.proto_script_jnl.report.RunReport;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.*;
+import java.time.LocalDateTime;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Function;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * 把分割输出写入单个 zip/jar 归档, 代替输出目录中成千上万个小文件
+ * <p>
+ * 条目按加入顺序写出, 时间统一为 1980-02-01 00:00 (DOS 时间, 不写扩展时间戳), 不含目录条目与注释,
+ * 因此相同内容生成的归档逐字节相同. .proto 文件位于归档根目录, import 路径与目录输出相同,
+ * 可以直接作为 protobuf-gradle-plugin 的 proto 依赖, 或解压后作为 protoc 的 -I 目录
+ * <p>
+ * 内容先写入同目录下的临时文件, commit 时再替换目标文件; 未 commit 就关闭时删除临时文件, 不会留下不完整的归档
+ */
+@Slf4j
+public final class SplitArchive implements Closeable {
+    // 固定的条目时间 (与 Gradle 可复现归档相同)
+    private static final LocalDateTime ENTRY_TIME = LocalDateTime.of(1980, 2, 1, 0, 0);
+
+    public enum Compression {
+        store,
+        deflate
+    }
+
+    private final Path archivePath;
+    private final Path temporaryPath;
+    private final ZipOutputStream zip;
+    private final Compression compression;
+    private final RunReport report;
+    private final Set<String> entryNames = new HashSet<>();
+    private long contentBytes = 0;
+    private boolean committed = false;
+
+    private SplitArchive(Path archivePath, Path temporaryPath, ZipOutputStream zip, Compression compression,
+                         RunReport report) {
+        this.archivePath = archivePath;
+        this.temporaryPath = temporaryPath;
+        this.zip = zip;
+        this.compression = compression;
+        this.report = report;
+    }
+
+    /**
+     * 创建归档
+     * @param archivePath 归档路径, 扩展名不影响格式 (.zip 与 .jar 相同)
+     * @param report commit 时记录条目数与大小
+     */
+    public static SplitArchive open(Path archivePath, Compression compression, RunReport report) throws IOException {
+        Path absolutePath = archivePath.toAbsolutePath();
+        Files.createDirectories(absolutePath.getParent());
+        Path temporaryPath = absolutePath.resolveSibling(absolutePath.getFileName() + ".tmp");
+        ZipOutputStream zip = new ZipOutputStream(new BufferedOutputStream(Files.newOutputStream(temporaryPath), 64 * 1024));
+        zip.setMethod(compression == Compression.store ? ZipOutputStream.STORED : ZipOutputStream.DEFLATED);
+        return new SplitArchive(absolutePath, temporaryPath, zip, compression, report);
+    }
+
+    /**
+     * 加入一个条目
+     * @param entryName 归档内路径, 以 / 分隔
+     */
+    public synchronized void add(String entryName, byte[] content) throws IOException {
+        if (!entryNames.add(entryName)) {
+            throw new IOException("归档中已存在条目: " + entryName);
+        }
+        ZipEntry entry = new ZipEntry(entryName);
+        entry.setTimeLocal(ENTRY_TIME);
+        if (compression == Compression.store) {
+            // STORED 条目需要预先给出大小与 CRC
+            CRC32 crc = new CRC32();
+            crc.update(content);
+            entry.setSize(content.length);
+            entry.setCompressedSize(content.length);
+            entry.setCrc(crc.getValue());
+        }
+        zip.putNextEntry(entry);
+        zip.write(content);
+        zip.closeEntry();
+        contentBytes += content.length;
+    }
+
+    /**
+     * 按顺序加入多个条目, 内容在 fork-join 线程池中并行生成, 同时在途的条目数有上限
+     * @param names 条目名, 按写出顺序
+     * @param content 生成条目内容, 需要线程安全
+     * @param parallelism 并行度, 小于等于 0 时使用 CPU 核心数
+     */
+    public void addAll(List<String> names, Function<String, byte[]> content, int parallelism) throws IOException {
+        int threads = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+        int maxInFlight = threads * 4;
+        try (ForkJoinPool pool = new ForkJoinPool(threads)) {
+            Deque<ForkJoinTask<byte[]>> inFlight = new ArrayDeque<>();
+            int next = 0;
+            for (String name : names) {
+                inFlight.addLast(pool.submit(() -> content.apply(name)));
+                if (inFlight.size() >= maxInFlight) {
+                    add(names.get(next++), join(inFlight.removeFirst()));
+                }
+            }
+            while (!inFlight.isEmpty()) {
+                add(names.get(next++), join(inFlight.removeFirst()));
+            }
+        }
+    }
+
+    /**
+     * 完成归档并替换目标文件
+     */
+    public synchronized void commit() throws IOException {
+        zip.close();
+        try {
+            Files.move(temporaryPath, archivePath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temporaryPath, archivePath, StandardCopyOption.REPLACE_EXISTING);
+        }
+        committed = true;
+
+        long archiveBytes = Files.size(archivePath);
+        report.count("archive.entries", entryNames.size());
+        report.count("archive.contentBytes", contentBytes);
+        report.count("archive.bytes", archiveBytes);
+        log.info("归档已写出到 {}，共 {} 个条目，内容 {} 字节，归档 {} 字节，压缩方式 {}",
+                archivePath, entryNames.size(), contentBytes, archiveBytes, compression);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (committed) {
+            return;
+        }
+        try {
+            zip.close();
+        } finally {
+            Files.deleteIfExists(temporaryPath);
+        }
+    }
+
+    /**
+     * 等待条目生成, 还原工作线程中包装的 IO 异常
+     */
+    private static byte[] join(ForkJoinTask<byte[]> task) throws IOException {
+        try {
+            return task.join();
+        } catch (RuntimeException e) {
+            for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+                if (cause instanceof IOException ioException) {
+                    throw ioException;
+                }
+            }
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package cn.hongchengq.proto_script_jnl.batch;
+
+import cn.hongchengq.proto_script_jnl.Config;
+import cn.hongchengq.proto_script_jnl.Main;
+import cn.hongchengq.proto_script_jnl.Replace;
+import cn.hongchengq.proto_script_jnl.Split;
+import cn.hongchengq.proto_script_jnl.replace.LineReplacer;
+import cn.hongchengq.proto_script_jnl.report.RunReport;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 批量模式 (bootMode 0/1 且启用 batchOptional 时): 一次处理多个游戏版本
+ * <p>
+ * mapping 只加载、构建一次, 替换器只读, 所有任务共用; 每个任务使用自己的配置副本与 Split 实例,
+ * 在固定大小的线程池中同时运行 Replace + Split. 各任务的输出写在 outputRootDirectory/游戏版本/ 下:
+ * <pre>
+ * all_in_one_proto_output      replace_output.proto
+ * dispersible_proto_output     分割后的 proto
+ * packet_opcodes_output        PacketOpcodes.java 等
+ * xor_field_config_output      XorFieldConfig.tsv 等
+ * descriptor_output            描述符
+ * split_output.zip             启用归档输出时的归档 (文件名与 archivePath 相同)
+ * report                       该任务的运行报告 (启用运行报告时)
+ * </pre>
+ * 每个任务的阶段耗时与计数器记录在自己的报告中; mapping 加载与批量汇总记录在本次运行的报告中.
+ * 其余配置与单次运行相同; 融合流水线与 watch 模式不适用于批量模式
+ */
+@Slf4j
+public class BatchRunner {
+
+    /**
+     * 一个任务的结果
+     * @param outputDirectory 该任务的输出根目录
+     * @param error 失败原因, 成功时为 null
+     */
+    public record JobSummary(String gameVersion, boolean success, long millis, int outputMessages, int outputFiles,
+                             String outputDirectory, String error) {
+    }
+
+    /**
+     * 入口方法
+     * @param report 本次运行的报告, 记录 mapping 加载与任务汇总
+     * @return 每个任务的结果, 按配置中的顺序
+     */
+    public static List<JobSummary> start(RunReport report) {
+        Config.ConfigBean baseConfig = Config.getConfig();
+        Config.ConfigBean.BatchOptional optional = baseConfig.getBatchOptional();
+        List<Config.ConfigBean.BatchJob> jobs = optional.getJobs();
+        if (jobs == null || jobs.isEmpty()) {
+            log.warn("已启用批量模式，但没有配置任务");
+            return List.of();
+        }
+
+        // 所有任务共用的替换器, 替换计数由各任务分别包装
+        LineReplacer replacer;
+        try {
+            replacer = Replace.loadReplacer(Paths.get(baseConfig.getReplaceMappingFilePath()), report);
+        } catch (IOException e) {
+            log.error("加载 mapping 时出错:", e);
+            return List.of();
+        }
+
+        int threads = optional.getParallelism() > 0
+                ? optional.getParallelism()
+                : Math.min(jobs.size(), Runtime.getRuntime().availableProcessors());
+        log.info("批量模式: {} 个任务，并行度 {}", jobs.size(), threads);
+
+        Set<String> versions = new HashSet<>();
+        List<Future<JobSummary>> futures = new ArrayList<>();
+        List<JobSummary> summaries = new ArrayList<>();
+        try (ExecutorService executor = Executors.newFixedThreadPool(threads)) {
+            for (Config.ConfigBean.BatchJob job : jobs) {
+                if (!versions.add(job.getGameVersion())) {
+                    // 同一版本的输出目录相同, 不能同时运行
+                    futures.add(null);
+                    continue;
+                }
+                futures.add(executor.submit(() -> runJob(baseConfig, job, replacer)));
+            }
+
+            for (int i = 0; i < jobs.size(); i++) {
+                summaries.add(result(jobs.get(i), futures.get(i)));
+            }
+        }
+
+        logSummaries(summaries, report);
+        return summaries;
+    }
+
+    /**
+     * 运行一个任务, 异常记录在结果中, 不影响其它任务; 无论成功与否都写出该任务的报告
+     */
+    private static JobSummary runJob(Config.ConfigBean baseConfig, Config.ConfigBean.BatchJob job, LineReplacer replacer) {
+        Thread thread = Thread.currentThread();
+        String threadName = thread.getName();
+        // 日志中的线程名标明版本
+        thread.setName("batch-" + job.getGameVersion());
+        long start = System.nanoTime();
+        Config.ConfigBean config = jobConfig(baseConfig, job);
+        String outputDirectory = jobOutputDirectory(baseConfig, job).toString();
+        RunReport report = new RunReport();
+        try {
+            if (job.getInputFilePath() == null || !Files.isRegularFile(Paths.get(job.getInputFilePath()))) {
+                return failed(job, start, outputDirectory, "输入文件不存在: " + job.getInputFilePath());
+            }
+
+            String replacedFile = Replace.replace(config, Replace.countReplacements(replacer, report), report);
+            if (replacedFile == null) {
+                return failed(job, start, outputDirectory, "替换失败");
+            }
+
+            Split split = new Split(config, report);
+            if (!split.run(replacedFile)) {
+                return failed(job, start, outputDirectory, "分割失败");
+            }
+            return new JobSummary(job.getGameVersion(), true, elapsedMillis(start), split.getOutputMessageCount(),
+                    split.getOutputFileCount(), outputDirectory, null);
+        } catch (RuntimeException e) {
+            log.error("版本 {} 处理时出错:", job.getGameVersion(), e);
+            return failed(job, start, outputDirectory, String.valueOf(e));
+        } finally {
+            Main.writeRunReport(report, config, Map.of());
+            thread.setName(threadName);
+        }
+    }
+
+    /**
+     * 任务的配置: 复制基础配置, 替换游戏版本、输入文件与所有输出目录
+     */
+    private static Config.ConfigBean jobConfig(Config.ConfigBean baseConfig, Config.ConfigBean.BatchJob job) {
+        Config.ConfigBean config = new JsonMapper().convertValue(baseConfig, Config.ConfigBean.class);
+        Path root = jobOutputDirectory(baseConfig, job);
+
+        config.setGameVersion(job.getGameVersion());
+        config.setInputFilePath(job.getInputFilePath());
+        config.setReplaceOutputDirectory(root.resolve("all_in_one_proto_output").toString());
+        config.setSplitOutputDirectory(root.resolve("dispersible_proto_output").toString());
+        if (config.getPacketOpcodesOptional() != null) {
+            config.getPacketOpcodesOptional().setOpsOutputDirectory(root.resolve("packet_opcodes_output").toString());
+        }
+        if (config.getGenerateXorFieldConfig() != null) {
+            config.getGenerateXorFieldConfig().setXorOutputDirectory(root.resolve("xor_field_config_output").toString());
+        }
+        config.getDescriptorSetOptional().setOutputDirectory(root.resolve("descriptor_output").toString());
+        config.getArchiveOutputOptional().setArchivePath(
+                root.resolve(Paths.get(baseConfig.getArchiveOutputOptional().getArchivePath()).getFileName()).toString());
+        config.getRunReportOptional().setReportDirectory(root.resolve("report").toString());
+        return config;
+    }
+
+    private static Path jobOutputDirectory(Config.ConfigBean baseConfig, Config.ConfigBean.BatchJob job) {
+        String version = String.valueOf(job.getGameVersion()).replaceAll("[^\\w.-]", "_");
+        return Paths.get(baseConfig.getBatchOptional().getOutputRootDirectory(), version);
+    }
+
+    /**
+     * 等待任务结束
+     * @param future 为 null 时表示版本重复, 未运行
+     */
+    private static JobSummary result(Config.ConfigBean.BatchJob job, Future<JobSummary> future) {
+        if (future == null) {
+            return new JobSummary(job.getGameVersion(), false, 0, 0, 0, null, "版本重复，已跳过");
+        }
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new JobSummary(job.getGameVersion(), false, 0, 0, 0, null, "被中断");
+        } catch (ExecutionException e) {
+            return new JobSummary(job.getGameVersion(), false, 0, 0, 0, null, String.valueOf(e.getCause()));
+        }
+    }
+
+    private static JobSummary failed(Config.ConfigBean.BatchJob job, long start, String outputDirectory, String error) {
+        log.error("版本 {} 处理失败: {}", job.getGameVersion(), error);
+        return new JobSummary(job.getGameVersion(), false, elapsedMillis(start), 0, 0, outputDirectory, error);
+    }
+
+    private static long elapsedMillis(long start) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+
+    private static void logSummaries(List<JobSummary> summaries, RunReport report) {
+        int failed = 0;
+        for (JobSummary summary : summaries) {
+            if (summary.success()) {
+                log.info("版本 {}: 完成，耗时 {} ms，输出 {} 个 message 到 {} 个文件，输出目录: {}", summary.gameVersion(),
+                        summary.millis(), summary.outputMessages(), summary.outputFiles(), summary.outputDirectory());
+            } else {
+                failed++;
+                log.error("版本 {}: 失败，耗时 {} ms，原因: {}", summary.gameVersion(), summary.millis(), summary.error());
+            }
+        }
+        report.count("batch.jobs", summaries.size());
+        report.count("batch.failedJobs", failed);
+        log.info("批量模式完成，成功 {} 个，失败 {} 个", summaries.size() - failed, failed);
+    }
+}
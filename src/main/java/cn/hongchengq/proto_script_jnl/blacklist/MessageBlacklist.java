@@ -0,0 +1,217 @@
+package cn.hongchengq.proto_script_jnl.blacklist;
+
+import cn.hongchengq.proto_script_jnl.graph.TypeGraph;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.*;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * 编译后的 message 输出黑名单
+ * <p>
+ * 支持的规则 (黑名单文件中值为 true 的键):
+ * <pre>
+ * GetPlayerTokenReq        精确名称, 存入哈希表
+ * 46                       cmdId
+ * 1000-1999                cmdId 闭区间, 与单个 cmdId 合并为有序不重叠区间后二分查找
+ * Gm*Req / *Notify / Abc?  glob 通配符 (* 任意个字符, ? 单个字符)
+ * regex:^Gm[A-Z]\w+$       正则表达式
+ * </pre>
+ * 所有 glob 与正则合并为一个 Pattern, 每个名称只匹配一次
+ */
+@Slf4j
+public class MessageBlacklist {
+    private static final String REGEX_PREFIX = "regex:";
+    private static final Pattern CMD_ID = Pattern.compile("\\d+");
+    private static final Pattern CMD_ID_RANGE = Pattern.compile("(\\d+)\\s*-\\s*(\\d+)");
+
+    private final Set<String> names;
+    private final int[] rangeStarts;    // 按起点升序, 互不重叠
+    private final int[] rangeEnds;
+    private final Pattern pattern;      // 没有 glob/正则规则时为 null
+
+    private MessageBlacklist(Set<String> names, int[] rangeStarts, int[] rangeEnds, Pattern pattern) {
+        this.names = names;
+        this.rangeStarts = rangeStarts;
+        this.rangeEnds = rangeEnds;
+        this.pattern = pattern;
+    }
+
+    /**
+     * 空黑名单
+     */
+    public static MessageBlacklist empty() {
+        return new MessageBlacklist(Set.of(), new int[0], new int[0], null);
+    }
+
+    /**
+     * 编译黑名单规则, 无法解析的规则会被忽略
+     */
+    public static MessageBlacklist compile(Collection<String> rules) {
+        Set<String> names = new HashSet<>();
+        List<long[]> ranges = new ArrayList<>();
+        List<String> regexes = new ArrayList<>();
+
+        for (String rawRule : rules) {
+            String rule = rawRule.trim();
+            if (rule.isEmpty()) {
+                continue;
+            }
+
+            if (rule.startsWith(REGEX_PREFIX)) {
+                String regex = rule.substring(REGEX_PREFIX.length());
+                try {
+                    Pattern.compile(regex);
+                    regexes.add(regex);
+                } catch (PatternSyntaxException e) {
+                    log.error("黑名单规则 '{}' 不是有效的正则表达式，已忽略", rule);
+                }
+            } else if (CMD_ID.matcher(rule).matches()) {
+                long cmdId = parseCmdId(rule);
+                if (cmdId >= 0) {
+                    ranges.add(new long[]{cmdId, cmdId});
+                }
+            } else if (CMD_ID_RANGE.matcher(rule).matches()) {
+                var matcher = CMD_ID_RANGE.matcher(rule);
+                matcher.matches();
+                long start = parseCmdId(matcher.group(1));
+                long end = parseCmdId(matcher.group(2));
+                if (start < 0 || end < 0 || start > end) {
+                    log.error("黑名单规则 '{}' 不是有效的 cmdId 区间，已忽略", rule);
+                } else {
+                    ranges.add(new long[]{start, end});
+                }
+            } else if (rule.indexOf('*') >= 0 || rule.indexOf('?') >= 0) {
+                regexes.add(globToRegex(rule));
+            } else {
+                names.add(rule);
+            }
+        }
+
+        // 合并 cmdId 区间
+        ranges.sort(Comparator.comparingLong(range -> range[0]));
+        List<long[]> merged = new ArrayList<>();
+        for (long[] range : ranges) {
+            if (!merged.isEmpty() && range[0] <= merged.getLast()[1] + 1) {
+                merged.getLast()[1] = Math.max(merged.getLast()[1], range[1]);
+            } else {
+                merged.add(range);
+            }
+        }
+        int[] rangeStarts = new int[merged.size()];
+        int[] rangeEnds = new int[merged.size()];
+        for (int i = 0; i < merged.size(); i++) {
+            rangeStarts[i] = (int) merged.get(i)[0];
+            rangeEnds[i] = (int) merged.get(i)[1];
+        }
+
+        Pattern pattern = null;
+        if (!regexes.isEmpty()) {
+            StringJoiner joiner = new StringJoiner("|");
+            regexes.forEach(regex -> joiner.add("(?:" + regex + ")"));
+            pattern = Pattern.compile(joiner.toString());
+        }
+
+        log.info("黑名单编译完成，{} 个名称，{} 个 cmdId 区间，{} 个匹配规则", names.size(), rangeStarts.length, regexes.size());
+        return new MessageBlacklist(names, rangeStarts, rangeEnds, pattern);
+    }
+
+    /**
+     * @return 超出 int 范围时返回 -1
+     */
+    private static long parseCmdId(String text) {
+        try {
+            return Integer.parseInt(text);
+        } catch (NumberFormatException e) {
+            log.error("黑名单规则中的 cmdId '{}' 超出范围，已忽略", text);
+            return -1;
+        }
+    }
+
+    /**
+     * glob 转为正则, 除 * ? 以外的字符都按字面匹配
+     */
+    private static String globToRegex(String glob) {
+        StringBuilder regex = new StringBuilder();
+        StringBuilder literal = new StringBuilder();
+        for (int i = 0; i < glob.length(); i++) {
+            char c = glob.charAt(i);
+            if (c == '*' || c == '?') {
+                if (!literal.isEmpty()) {
+                    regex.append(Pattern.quote(literal.toString()));
+                    literal.setLength(0);
+                }
+                regex.append(c == '*' ? ".*" : ".");
+            } else {
+                literal.append(c);
+            }
+        }
+        if (!literal.isEmpty()) {
+            regex.append(Pattern.quote(literal.toString()));
+        }
+        return regex.toString();
+    }
+
+    /**
+     * 名称或 cmdId 是否命中黑名单
+     */
+    public boolean matches(String name, int cmdId) {
+        return names.contains(name) || containsCmdId(cmdId) || (pattern != null && pattern.matcher(name).matches());
+    }
+
+    private boolean containsCmdId(int cmdId) {
+        // 最后一个起点 <= cmdId 的区间
+        int low = 0;
+        int high = rangeStarts.length - 1;
+        int found = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (rangeStarts[mid] <= cmdId) {
+                found = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return found >= 0 && cmdId <= rangeEnds[found];
+    }
+
+    /**
+     * 计算需要排除的顶层定义
+     * @param dropOnlyReachableFromBlacklisted 是否同时排除只被黑名单 message (直接或间接) 引用的 message
+     * @return 需要排除的编号
+     */
+    public BitSet resolve(TypeGraph graph, boolean dropOnlyReachableFromBlacklisted) {
+        int size = graph.size();
+        BitSet blacklisted = new BitSet(size);
+        for (int i = 0; i < size; i++) {
+            if (matches(graph.getName(i), graph.getCmdId(i))) {
+                blacklisted.set(i);
+            }
+        }
+        if (!dropOnlyReachableFromBlacklisted || blacklisted.isEmpty()) {
+            return blacklisted;
+        }
+
+        // 黑名单可以到达的 message
+        BitSet tainted = graph.reachableFrom(blacklisted);
+
+        // 保留的入口: 不在黑名单中的协议 (有 cmdId) 以及黑名单到达不了的 message
+        BitSet roots = new BitSet(size);
+        for (int i = 0; i < size; i++) {
+            if (!blacklisted.get(i) && (graph.getCmdId(i) != 0 || !tainted.get(i))) {
+                roots.set(i);
+            }
+        }
+        BitSet kept = graph.reachableFrom(roots);
+
+        // 只能从黑名单到达的 message
+        BitSet excluded = (BitSet) tainted.clone();
+        excluded.andNot(kept);
+        excluded.or(blacklisted);
+        log.info("黑名单排除 {} 个 message，其中 {} 个只被黑名单引用", excluded.cardinality(),
+                excluded.cardinality() - blacklisted.cardinality());
+        return excluded;
+    }
+}
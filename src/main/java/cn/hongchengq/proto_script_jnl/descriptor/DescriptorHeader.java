@@ -0,0 +1,124 @@
+package cn.hongchengq.proto_script_jnl.descriptor;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 分割输出文件共用的文件头 (syntax、package、import、option) 在描述符中的表示
+ * @param packageName 没有 package 时为 null
+ * @param imports 文件头中的 import, 在分割生成的 import 之前
+ * @param publicImports import public 在 imports 中的下标
+ * @param weakImports import weak 在 imports 中的下标
+ * @param options 已编码的 FileOptions, 没有可识别的 option 时为 null
+ */
+@Slf4j
+record DescriptorHeader(boolean proto3, String packageName, List<String> imports,
+                        List<Integer> publicImports, List<Integer> weakImports, byte[] options) {
+    private static final Pattern SYNTAX = Pattern.compile("^\\s*syntax\\s*=\\s*[\"'](\\w+)[\"']\\s*;");
+    private static final Pattern PACKAGE = Pattern.compile("^\\s*package\\s+([\\w.]+)\\s*;");
+    private static final Pattern IMPORT = Pattern.compile("^\\s*import\\s+(?:(public|weak)\\s+)?[\"']([^\"']+)[\"']\\s*;");
+    private static final Pattern OPTION = Pattern.compile("^\\s*option\\s+(\\w+)\\s*=\\s*(\"(?:[^\"\\\\]|\\\\.)*\"|[\\w.]+)\\s*;");
+
+    // FileOptions 中的字符串选项
+    private static final Map<String, Integer> STRING_OPTIONS = Map.of(
+            "java_package", 1, "java_outer_classname", 8, "go_package", 11, "objc_class_prefix", 36,
+            "csharp_namespace", 37, "swift_prefix", 39, "php_class_prefix", 40, "php_namespace", 41,
+            "php_metadata_namespace", 44, "ruby_package", 45);
+    // FileOptions 中的布尔选项
+    private static final Map<String, Integer> BOOL_OPTIONS = Map.of(
+            "java_multiple_files", 10, "java_generate_equals_and_hash", 20, "java_string_check_utf8", 27,
+            "cc_generic_services", 16, "java_generic_services", 17, "py_generic_services", 18,
+            "deprecated", 23, "cc_enable_arenas", 31);
+    private static final int OPTIMIZE_FOR = 9;
+    private static final List<String> OPTIMIZE_MODES = List.of("SPEED", "CODE_SIZE", "LITE_RUNTIME");
+
+    /**
+     * 解析文件头, 无法识别的行与 option 忽略
+     */
+    static DescriptorHeader parse(List<String> headerLines) {
+        boolean proto3 = false;
+        String packageName = null;
+        List<String> imports = new ArrayList<>();
+        List<Integer> publicImports = new ArrayList<>();
+        List<Integer> weakImports = new ArrayList<>();
+        // 字段编号 -> 编码方法, 同一选项以最后出现的为准, 按字段编号写出
+        Map<Integer, OptionWriter> options = new TreeMap<>();
+
+        for (String line : headerLines) {
+            Matcher matcher;
+            if ((matcher = SYNTAX.matcher(line)).find()) {
+                proto3 = "proto3".equals(matcher.group(1));
+            } else if ((matcher = PACKAGE.matcher(line)).find()) {
+                packageName = matcher.group(1);
+            } else if ((matcher = IMPORT.matcher(line)).find()) {
+                if ("public".equals(matcher.group(1))) {
+                    publicImports.add(imports.size());
+                } else if ("weak".equals(matcher.group(1))) {
+                    weakImports.add(imports.size());
+                }
+                imports.add(matcher.group(2));
+            } else if ((matcher = OPTION.matcher(line)).find()) {
+                addOption(options, matcher.group(1), matcher.group(2));
+            }
+        }
+
+        byte[] encodedOptions = null;
+        if (!options.isEmpty()) {
+            ProtoWire wire = new ProtoWire();
+            options.values().forEach(option -> option.write(wire));
+            encodedOptions = wire.toByteArray();
+        }
+        return new DescriptorHeader(proto3, packageName, imports, publicImports, weakImports, encodedOptions);
+    }
+
+    @FunctionalInterface
+    private interface OptionWriter {
+        void write(ProtoWire wire);
+    }
+
+    private static void addOption(Map<Integer, OptionWriter> options, String name, String value) {
+        Integer stringField = STRING_OPTIONS.get(name);
+        if (stringField != null && value.startsWith("\"")) {
+            String text = unquote(value);
+            options.put(stringField, wire -> wire.writeString(stringField, text));
+            return;
+        }
+        Integer boolField = BOOL_OPTIONS.get(name);
+        if (boolField != null && (value.equals("true") || value.equals("false"))) {
+            boolean flag = value.equals("true");
+            options.put(boolField, wire -> wire.writeBool(boolField, flag));
+            return;
+        }
+        if (name.equals("optimize_for") && OPTIMIZE_MODES.contains(value)) {
+            int mode = OPTIMIZE_MODES.indexOf(value) + 1;
+            options.put(OPTIMIZE_FOR, wire -> wire.writeInt32(OPTIMIZE_FOR, mode));
+            return;
+        }
+        log.warn("文件选项 {} = {} 无法识别，未写入描述符", name, value);
+    }
+
+    /**
+     * 去掉引号并处理常见转义
+     */
+    private static String unquote(String value) {
+        StringBuilder result = new StringBuilder(value.length());
+        for (int i = 1; i < value.length() - 1; i++) {
+            char c = value.charAt(i);
+            if (c == '\\' && i + 1 < value.length() - 1) {
+                char next = value.charAt(++i);
+                result.append(switch (next) {
+                    case 'n' -> '\n';
+                    case 't' -> '\t';
+                    case 'r' -> '\r';
+                    default -> next;
+                });
+            } else {
+                result.append(c);
+            }
+        }
+        return result.toString();
+    }
+}
@@ -0,0 +1,186 @@
+package cn.hongchengq.proto_script_jnl.descriptor;
+
+import cn.hongchengq.proto_script_jnl.parser.ProtoMessage;
+import cn.hongchengq.proto_script_jnl.report.RunReport;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * 把分割结果直接写为二进制 google.protobuf.FileDescriptorSet, 不需要再用 protoc 编译分割后的 .proto 文件
+ * <p>
+ * 描述符由解析得到的 message 模型生成, 与分割输出的 .proto 文件一一对应 (文件名、import、enum CmdId 均相同).
+ * 各文件在 fork-join 线程池中并行编码, 输出格式:
+ * <pre>
+ * perFile     每个 .proto 文件一个 .pb (只含该文件的 FileDescriptorSet), 并行写出
+ * aggregate   一个 FileDescriptorSet, 被依赖的文件排在前面, 可直接用于 protoc --descriptor_set_in 或 DescriptorPool
+ * </pre>
+ * 不包含 service、reserved、字段选项与默认值 (分割输出中没有这些信息)
+ */
+@Slf4j
+public class DescriptorSetWriter {
+    // FileDescriptorSet.file
+    private static final int SET_FILE = 1;
+
+    public enum Mode {
+        perFile,
+        aggregate
+    }
+
+    /**
+     * 一个分割输出文件
+     * @param fileName 文件名, 如 Foo.proto
+     * @param importFiles 分割时生成的 import
+     * @param definitions 文件中的顶层定义, 按写入顺序
+     */
+    public record FileSpec(String fileName, List<String> importFiles, List<ProtoMessage> definitions) {
+    }
+
+    /**
+     * 写出描述符
+     * @param headerLines 分割输出文件共用的文件头 (syntax、package、import、option)
+     * @param outputDirectory 输出目录, perFile 时文件名为 .proto 文件名换成 .pb
+     * @param aggregateFileName aggregate 时的文件名
+     * @param parallelism 并行度, 小于等于 0 时使用 CPU 核心数
+     * @param report 记录写出的文件数与字节数
+     * @return 写出的文件描述符数
+     */
+    public static int write(List<FileSpec> files, List<String> headerLines, Mode mode, Path outputDirectory,
+                            String aggregateFileName, int parallelism, RunReport report) throws IOException {
+        DescriptorHeader header = DescriptorHeader.parse(headerLines);
+        FileDescriptorEncoder encoder = new FileDescriptorEncoder(header,
+                files.stream().flatMap(file -> file.definitions().stream()).toList());
+        int threads = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+        long bytes;
+
+        try (ForkJoinPool pool = new ForkJoinPool(threads)) {
+            if (mode == Mode.perFile) {
+                bytes = join(pool.submit(() -> files.parallelStream()
+                        .mapToLong(file -> writeFile(outputDirectory.resolve(descriptorFileName(file.fileName())),
+                                List.of(encodeSetEntry(encoder, file))))
+                        .sum()));
+            } else {
+                List<byte[]> entries = join(pool.submit(() -> files.parallelStream()
+                        .map(file -> encodeSetEntry(encoder, file))
+                        .toList()));
+                List<byte[]> ordered = new ArrayList<>(entries.size());
+                for (int index : dependencyOrder(files)) {
+                    ordered.add(entries.get(index));
+                }
+                bytes = writeFile(outputDirectory.resolve(aggregateFileName), ordered);
+            }
+        }
+
+        report.count("descriptor.files", files.size());
+        report.count("descriptor.bytes", bytes);
+        log.info("描述符已写出到 {}，共 {} 个文件描述符，{} 字节，模式 {}，并行度 {}",
+                outputDirectory, files.size(), bytes, mode, threads);
+        return files.size();
+    }
+
+    /**
+     * 编码一个文件, 结果为 FileDescriptorSet 中的一项 (含字段标签与长度), 多项直接拼接即为完整的 FileDescriptorSet
+     */
+    private static byte[] encodeSetEntry(FileDescriptorEncoder encoder, FileSpec file) {
+        ProtoWire entry = new ProtoWire();
+        entry.writeMessage(SET_FILE, encoder.encodeFile(file.fileName(), file.importFiles(), file.definitions()));
+        return entry.toByteArray();
+    }
+
+    private static String descriptorFileName(String protoFileName) {
+        String baseName = protoFileName.endsWith(".proto")
+                ? protoFileName.substring(0, protoFileName.length() - ".proto".length())
+                : protoFileName;
+        return baseName + ".pb";
+    }
+
+    /**
+     * @return 写入的字节数
+     */
+    private static long writeFile(Path path, List<byte[]> entries) {
+        long bytes = 0;
+        try (OutputStream output = Files.newOutputStream(path)) {
+            for (byte[] entry : entries) {
+                output.write(entry);
+                bytes += entry.length;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes;
+    }
+
+    /**
+     * 文件的写出顺序: 被依赖的文件在前 (深度优先后序), 不在本次输出中的依赖忽略;
+     * 循环依赖时按遍历顺序断开, 并记录警告
+     * @return 按写出顺序排列的文件下标
+     */
+    private static int[] dependencyOrder(List<FileSpec> files) {
+        Map<String, Integer> indexes = new HashMap<>();
+        for (int i = 0; i < files.size(); i++) {
+            indexes.put(files.get(i).fileName(), i);
+        }
+
+        int[] order = new int[files.size()];
+        int orderCount = 0;
+        byte[] states = new byte[files.size()];     // 0 未访问 1 访问中 2 已完成
+        int cycleCount = 0;
+        // 每项为 {文件下标, 下一个要访问的依赖}
+        Deque<int[]> stack = new ArrayDeque<>();
+        for (int root = 0; root < files.size(); root++) {
+            if (states[root] != 0) {
+                continue;
+            }
+            states[root] = 1;
+            stack.push(new int[]{root, 0});
+            while (!stack.isEmpty()) {
+                int[] frame = stack.peek();
+                List<String> importFiles = files.get(frame[0]).importFiles();
+                if (frame[1] < importFiles.size()) {
+                    Integer dependency = indexes.get(importFiles.get(frame[1]++));
+                    if (dependency == null) {
+                        continue;
+                    }
+                    if (states[dependency] == 0) {
+                        states[dependency] = 1;
+                        stack.push(new int[]{dependency, 0});
+                    } else if (states[dependency] == 1) {
+                        cycleCount++;
+                    }
+                } else {
+                    stack.pop();
+                    states[frame[0]] = 2;
+                    order[orderCount++] = frame[0];
+                }
+            }
+        }
+
+        if (cycleCount > 0) {
+            log.warn("分割输出中有 {} 处循环 import，描述符集合中按遍历顺序断开，加载时可能需要允许循环依赖", cycleCount);
+        }
+        return order;
+    }
+
+    /**
+     * 等待任务结束, 还原工作线程中包装的 IO 异常
+     */
+    private static <T> T join(ForkJoinTask<T> task) throws IOException {
+        try {
+            return task.join();
+        } catch (RuntimeException e) {
+            for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+                if (cause instanceof IOException ioException) {
+                    throw ioException;
+                }
+            }
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,446 @@
+package cn.hongchengq.proto_script_jnl.descriptor;
+
+import cn.hongchengq.proto_script_jnl.Tools;
+import cn.hongchengq.proto_script_jnl.parser.ProtoEnumValue;
+import cn.hongchengq.proto_script_jnl.parser.ProtoField;
+import cn.hongchengq.proto_script_jnl.parser.ProtoMessage;
+import cn.hongchengq.proto_script_jnl.parser.ProtoOneof;
+
+import java.util.*;
+
+/**
+ * 把解析得到的 message/enum 编码为 google.protobuf.FileDescriptorProto
+ * <p>
+ * 与分割输出的 .proto 文件一一对应: 顶层 message 中插入与文本相同的 enum CmdId,
+ * map 字段展开为 XxxEntry 嵌套 message, proto3 的 optional 字段生成 "_字段名" 的合成 oneof.
+ * 类型名按 protobuf 的作用域规则 (从内向外) 在所有输出文件的符号中解析为全限定名, 解析不到的保留原文且不设置 type
+ */
+final class FileDescriptorEncoder {
+    // FileDescriptorProto
+    private static final int FILE_NAME = 1;
+    private static final int FILE_PACKAGE = 2;
+    private static final int FILE_DEPENDENCY = 3;
+    private static final int FILE_MESSAGE_TYPE = 4;
+    private static final int FILE_ENUM_TYPE = 5;
+    private static final int FILE_OPTIONS = 8;
+    private static final int FILE_PUBLIC_DEPENDENCY = 10;
+    private static final int FILE_WEAK_DEPENDENCY = 11;
+    private static final int FILE_SYNTAX = 12;
+    // DescriptorProto
+    private static final int MESSAGE_NAME = 1;
+    private static final int MESSAGE_FIELD = 2;
+    private static final int MESSAGE_NESTED_TYPE = 3;
+    private static final int MESSAGE_ENUM_TYPE = 4;
+    private static final int MESSAGE_OPTIONS = 7;
+    private static final int MESSAGE_ONEOF_DECL = 8;
+    private static final int MESSAGE_OPTIONS_MAP_ENTRY = 7;
+    // FieldDescriptorProto
+    private static final int FIELD_NAME = 1;
+    private static final int FIELD_NUMBER = 3;
+    private static final int FIELD_LABEL = 4;
+    private static final int FIELD_TYPE = 5;
+    private static final int FIELD_TYPE_NAME = 6;
+    private static final int FIELD_ONEOF_INDEX = 9;
+    private static final int FIELD_JSON_NAME = 10;
+    private static final int FIELD_PROTO3_OPTIONAL = 17;
+    // OneofDescriptorProto / EnumDescriptorProto / EnumValueDescriptorProto
+    private static final int ONEOF_NAME = 1;
+    private static final int ENUM_NAME = 1;
+    private static final int ENUM_VALUE = 2;
+    private static final int ENUM_OPTIONS = 3;
+    private static final int ENUM_OPTIONS_ALLOW_ALIAS = 2;
+    private static final int ENUM_VALUE_NAME = 1;
+    private static final int ENUM_VALUE_NUMBER = 2;
+
+    private static final int LABEL_OPTIONAL = 1;
+    private static final int LABEL_REQUIRED = 2;
+    private static final int LABEL_REPEATED = 3;
+    private static final int TYPE_MESSAGE = 11;
+    private static final int TYPE_ENUM = 14;
+
+    private static final Map<String, Integer> SCALAR_TYPES = Map.ofEntries(
+            Map.entry("double", 1), Map.entry("float", 2), Map.entry("int64", 3), Map.entry("uint64", 4),
+            Map.entry("int32", 5), Map.entry("fixed64", 6), Map.entry("fixed32", 7), Map.entry("bool", 8),
+            Map.entry("string", 9), Map.entry("bytes", 12), Map.entry("uint32", 13), Map.entry("sfixed32", 15),
+            Map.entry("sfixed64", 16), Map.entry("sint32", 17), Map.entry("sint64", 18));
+
+    // 与 Split 写入文本的 enum CmdId 一致
+    private static final String CMD_ID_ENUM = "CmdId";
+
+    private final DescriptorHeader header;
+    private final String packageScope;                  // "." + package, 没有 package 时为 ""
+    private final Map<String, Boolean> symbols;         // 全限定名 (以 "." 开头) -> 是否为 enum
+
+    /**
+     * @param definitions 所有输出文件中的顶层定义, 用于解析字段类型
+     */
+    FileDescriptorEncoder(DescriptorHeader header, Collection<ProtoMessage> definitions) {
+        this.header = header;
+        this.packageScope = header.packageName() == null ? "" : "." + header.packageName();
+        this.symbols = new HashMap<>();
+        for (ProtoMessage definition : definitions) {
+            addSymbols(definition, packageScope, true);
+        }
+    }
+
+    private void addSymbols(ProtoMessage message, String scope, boolean topLevel) {
+        String fullName = scope + "." + message.getName();
+        symbols.put(fullName, message.isEnum());
+        if (message.isEnum()) {
+            return;
+        }
+        if (topLevel && hasCmdIdEnum(message)) {
+            symbols.put(fullName + "." + CMD_ID_ENUM, true);
+        }
+        for (ProtoMessage nested : message.getNestedMessages()) {
+            addSymbols(nested, fullName, false);
+        }
+    }
+
+    /**
+     * Split 只在有 cmdId 且定义不止一行时插入 enum CmdId
+     */
+    private static boolean hasCmdIdEnum(ProtoMessage message) {
+        return !message.isEnum() && message.getCmdId() != 0 && message.getLastLine() > message.getFirstLine();
+    }
+
+    /**
+     * 编码一个文件
+     * @param fileName 文件名 (与分割输出的 .proto 文件名一致)
+     * @param importFiles 分割时生成的 import, 写在文件头中的 import 之后
+     * @param definitions 文件中的顶层定义, 按写入顺序
+     */
+    ProtoWire encodeFile(String fileName, List<String> importFiles, List<ProtoMessage> definitions) {
+        ProtoWire file = new ProtoWire();
+        file.writeString(FILE_NAME, fileName);
+        if (header.packageName() != null) {
+            file.writeString(FILE_PACKAGE, header.packageName());
+        }
+
+        List<String> dependencies = new ArrayList<>(header.imports());
+        dependencies.addAll(importFiles);
+        for (String dependency : dependencies) {
+            file.writeString(FILE_DEPENDENCY, dependency);
+        }
+
+        for (ProtoMessage definition : definitions) {
+            if (!definition.isEnum()) {
+                file.writeMessage(FILE_MESSAGE_TYPE, encodeMessage(definition, packageScope, true));
+            }
+        }
+        for (ProtoMessage definition : definitions) {
+            if (definition.isEnum()) {
+                file.writeMessage(FILE_ENUM_TYPE, encodeEnum(definition));
+            }
+        }
+
+        if (header.options() != null) {
+            file.writeBytes(FILE_OPTIONS, header.options());
+        }
+        for (int index : header.publicImports()) {
+            file.writeInt32(FILE_PUBLIC_DEPENDENCY, index);
+        }
+        for (int index : header.weakImports()) {
+            file.writeInt32(FILE_WEAK_DEPENDENCY, index);
+        }
+        if (header.proto3()) {
+            file.writeString(FILE_SYNTAX, "proto3");
+        }
+        return file;
+    }
+
+    /**
+     * 字段在 message 中的位置: oneofIndex 为 -1 时不属于 oneof
+     */
+    private record FieldEntry(ProtoField field, int oneofIndex) {
+    }
+
+    /**
+     * map 字段展开的 XxxEntry 与字段所在行
+     */
+    private record MapEntry(int line, ProtoWire descriptor) {
+    }
+
+    private ProtoWire encodeMessage(ProtoMessage message, String scope, boolean topLevel) {
+        String fullName = scope + "." + message.getName();
+        ProtoWire wire = new ProtoWire();
+        wire.writeString(MESSAGE_NAME, message.getName());
+
+        // 字段按源码顺序, oneof 内的字段穿插在其中
+        List<FieldEntry> fields = new ArrayList<>();
+        message.getFields().forEach(field -> fields.add(new FieldEntry(field, -1)));
+        List<ProtoOneof> oneofs = message.getOneofs();
+        for (int i = 0; i < oneofs.size(); i++) {
+            for (ProtoField field : oneofs.get(i).getFields()) {
+                fields.add(new FieldEntry(field, i));
+            }
+        }
+        fields.sort(Comparator.comparingInt(entry -> entry.field().getLine()));
+
+        List<String> syntheticOneofs = new ArrayList<>();
+        List<MapEntry> mapEntries = new ArrayList<>();          // 按所在行排列
+        for (FieldEntry entry : fields) {
+            ProtoField field = entry.field();
+            int oneofIndex = entry.oneofIndex();
+            boolean proto3Optional = header.proto3() && oneofIndex < 0 && "optional".equals(field.getLabel());
+            if (proto3Optional) {
+                oneofIndex = oneofs.size() + syntheticOneofs.size();
+                syntheticOneofs.add(syntheticOneofName(field.getName(), oneofs, syntheticOneofs));
+            }
+
+            String mapEntryTypeName = null;
+            if (field.isMap()) {
+                String entryName = mapEntryName(field.getName());
+                mapEntryTypeName = fullName + "." + entryName;
+                mapEntries.add(new MapEntry(field.getLine(), encodeMapEntry(entryName, field, fullName)));
+            }
+            wire.writeMessage(MESSAGE_FIELD, encodeField(field, fullName, oneofIndex, proto3Optional, mapEntryTypeName));
+        }
+
+        // 嵌套 message 与 map 展开的 XxxEntry 按源码顺序排列
+        List<ProtoMessage> nestedMessages = message.getNestedMessages().stream()
+                .filter(nested -> !nested.isEnum())
+                .toList();
+        int entryIndex = 0;
+        for (ProtoMessage nested : nestedMessages) {
+            while (entryIndex < mapEntries.size() && mapEntries.get(entryIndex).line() < nested.getFirstLine()) {
+                wire.writeMessage(MESSAGE_NESTED_TYPE, mapEntries.get(entryIndex++).descriptor());
+            }
+            wire.writeMessage(MESSAGE_NESTED_TYPE, encodeMessage(nested, fullName, false));
+        }
+        while (entryIndex < mapEntries.size()) {
+            wire.writeMessage(MESSAGE_NESTED_TYPE, mapEntries.get(entryIndex++).descriptor());
+        }
+
+        // enum CmdId 写在定义的第一行之后, 排在所有嵌套 enum 之前
+        if (topLevel && hasCmdIdEnum(message)) {
+            wire.writeMessage(MESSAGE_ENUM_TYPE, encodeCmdIdEnum(message));
+        }
+        for (ProtoMessage nested : message.getNestedMessages()) {
+            if (nested.isEnum()) {
+                wire.writeMessage(MESSAGE_ENUM_TYPE, encodeEnum(nested));
+            }
+        }
+
+        for (ProtoOneof oneof : oneofs) {
+            ProtoWire oneofWire = new ProtoWire();
+            oneofWire.writeString(ONEOF_NAME, oneof.getName());
+            wire.writeMessage(MESSAGE_ONEOF_DECL, oneofWire);
+        }
+        for (String syntheticOneof : syntheticOneofs) {
+            ProtoWire oneofWire = new ProtoWire();
+            oneofWire.writeString(ONEOF_NAME, syntheticOneof);
+            wire.writeMessage(MESSAGE_ONEOF_DECL, oneofWire);
+        }
+        return wire;
+    }
+
+    /**
+     * @param mapEntryTypeName map 字段展开的 XxxEntry 全限定名, 不是 map 时为 null
+     */
+    private ProtoWire encodeField(ProtoField field, String scope, int oneofIndex, boolean proto3Optional,
+                                  String mapEntryTypeName) {
+        ProtoWire wire = new ProtoWire();
+        wire.writeString(FIELD_NAME, field.getName());
+        wire.writeInt32(FIELD_NUMBER, field.getNumber());
+        if (mapEntryTypeName != null) {
+            wire.writeInt32(FIELD_LABEL, LABEL_REPEATED);
+            wire.writeInt32(FIELD_TYPE, TYPE_MESSAGE);
+            wire.writeString(FIELD_TYPE_NAME, mapEntryTypeName);
+        } else {
+            wire.writeInt32(FIELD_LABEL, label(field.getLabel()));
+            writeType(wire, field.getType(), scope);
+        }
+        if (oneofIndex >= 0) {
+            wire.writeInt32(FIELD_ONEOF_INDEX, oneofIndex);
+        }
+        wire.writeString(FIELD_JSON_NAME, jsonName(field.getName()));
+        if (proto3Optional) {
+            wire.writeBool(FIELD_PROTO3_OPTIONAL, true);
+        }
+        return wire;
+    }
+
+    private int label(String label) {
+        if ("repeated".equals(label)) {
+            return LABEL_REPEATED;
+        }
+        if ("required".equals(label) && !header.proto3()) {
+            return LABEL_REQUIRED;
+        }
+        return LABEL_OPTIONAL;
+    }
+
+    /**
+     * 标量写 type, 自定义类型写 type 与全限定的 type_name
+     */
+    private void writeType(ProtoWire wire, String type, String scope) {
+        Integer scalarType = SCALAR_TYPES.get(type);
+        if (scalarType != null) {
+            wire.writeInt32(FIELD_TYPE, scalarType);
+            return;
+        }
+        String fullName = resolve(type, scope);
+        if (fullName == null) {
+            // 不在本次输出中的类型 (如 google.protobuf.Any), 交给使用方解析
+            wire.writeString(FIELD_TYPE_NAME, type);
+            return;
+        }
+        wire.writeInt32(FIELD_TYPE, symbols.get(fullName) ? TYPE_ENUM : TYPE_MESSAGE);
+        wire.writeString(FIELD_TYPE_NAME, fullName);
+    }
+
+    /**
+     * 从 scope 开始逐层向外查找类型名
+     * @return 全限定名, 找不到时返回 null
+     */
+    private String resolve(String type, String scope) {
+        if (type.startsWith(".")) {
+            return symbols.containsKey(type) ? type : null;
+        }
+        String current = scope;
+        while (true) {
+            String candidate = current + "." + type;
+            if (symbols.containsKey(candidate)) {
+                return candidate;
+            }
+            if (current.isEmpty()) {
+                return null;
+            }
+            current = current.substring(0, current.lastIndexOf('.'));
+        }
+    }
+
+    private ProtoWire encodeMapEntry(String entryName, ProtoField field, String scope) {
+        ProtoWire wire = new ProtoWire();
+        wire.writeString(MESSAGE_NAME, entryName);
+
+        ProtoWire key = new ProtoWire();
+        key.writeString(FIELD_NAME, "key");
+        key.writeInt32(FIELD_NUMBER, 1);
+        key.writeInt32(FIELD_LABEL, LABEL_OPTIONAL);
+        writeType(key, field.getKeyType() == null ? "" : field.getKeyType(), scope);
+        key.writeString(FIELD_JSON_NAME, "key");
+        wire.writeMessage(MESSAGE_FIELD, key);
+
+        ProtoWire value = new ProtoWire();
+        value.writeString(FIELD_NAME, "value");
+        value.writeInt32(FIELD_NUMBER, 2);
+        value.writeInt32(FIELD_LABEL, LABEL_OPTIONAL);
+        writeType(value, field.getType(), scope);
+        value.writeString(FIELD_JSON_NAME, "value");
+        wire.writeMessage(MESSAGE_FIELD, value);
+
+        ProtoWire options = new ProtoWire();
+        options.writeBool(MESSAGE_OPTIONS_MAP_ENTRY, true);
+        wire.writeMessage(MESSAGE_OPTIONS, options);
+        return wire;
+    }
+
+    /**
+     * enum 的值 (enum CmdId 的值不在解析结果中)
+     */
+    private record EnumValue(String name, int number) {
+    }
+
+    /**
+     * 与分割输出中插入的 enum CmdId 相同的值与 option
+     */
+    private ProtoWire encodeCmdIdEnum(ProtoMessage message) {
+        boolean hasXorFields = !message.getXorFields().isEmpty();
+        List<EnumValue> values = new ArrayList<>();
+        values.add(new EnumValue("NONE", 0));
+        values.add(new EnumValue("CMD_ID", message.getCmdId()));
+        if (hasXorFields) {
+            values.add(new EnumValue("IS_XOR_VALUE_FIELDS", 1));
+        }
+        return encodeEnum(CMD_ID_ENUM, values, Tools.cmdIdEnumAllowsAlias(message.getCmdId(), hasXorFields));
+    }
+
+    /**
+     * 源码中的 enum, 有重复的值时写出 allow_alias (源码中的 option 不在解析结果中, 按值推断;
+     * protoc 不接受有重复值却没有 allow_alias 的 enum, 也不接受 allow_alias 却没有重复值的 enum, 因此与源码一致)
+     */
+    private static ProtoWire encodeEnum(ProtoMessage definition) {
+        List<EnumValue> values = new ArrayList<>();
+        Set<Integer> numbers = new HashSet<>();
+        boolean hasAlias = false;
+        for (ProtoEnumValue value : definition.getEnumValues()) {
+            values.add(new EnumValue(value.getName(), value.getNumber()));
+            hasAlias |= !numbers.add(value.getNumber());
+        }
+        return encodeEnum(definition.getName(), values, hasAlias);
+    }
+
+    private static ProtoWire encodeEnum(String name, List<EnumValue> values, boolean allowAlias) {
+        ProtoWire wire = new ProtoWire();
+        wire.writeString(ENUM_NAME, name);
+        for (EnumValue value : values) {
+            ProtoWire valueWire = new ProtoWire();
+            valueWire.writeString(ENUM_VALUE_NAME, value.name());
+            valueWire.writeInt32(ENUM_VALUE_NUMBER, value.number());
+            wire.writeMessage(ENUM_VALUE, valueWire);
+        }
+        if (allowAlias) {
+            ProtoWire options = new ProtoWire();
+            options.writeBool(ENUM_OPTIONS_ALLOW_ALIAS, true);
+            wire.writeMessage(ENUM_OPTIONS, options);
+        }
+        return wire;
+    }
+
+    /**
+     * protoc 的合成 oneof 名称: 字段名前加 "_" (已以 "_" 开头时不加), 与已有 oneof 冲突时在前面继续加 "X"
+     */
+    private static String syntheticOneofName(String fieldName, List<ProtoOneof> oneofs, List<String> syntheticOneofs) {
+        String name = fieldName.startsWith("_") ? fieldName : "_" + fieldName;
+        while (true) {
+            String candidate = name;
+            if (oneofs.stream().noneMatch(oneof -> oneof.getName().equals(candidate)) &&
+                    !syntheticOneofs.contains(candidate)) {
+                return candidate;
+            }
+            name = "X" + name;
+        }
+    }
+
+    /**
+     * protoc 的 map 展开类型名: 字段名转为大驼峰后加 "Entry"
+     */
+    private static String mapEntryName(String fieldName) {
+        StringBuilder result = new StringBuilder();
+        boolean capitalizeNext = true;
+        for (int i = 0; i < fieldName.length(); i++) {
+            char c = fieldName.charAt(i);
+            if (c == '_') {
+                capitalizeNext = true;
+            } else if (capitalizeNext) {
+                result.append(Character.toUpperCase(c));
+                capitalizeNext = false;
+            } else {
+                result.append(c);
+            }
+        }
+        return result.append("Entry").toString();
+    }
+
+    /**
+     * protoc 的 json_name: 去掉下划线, 下划线后的字母转为大写
+     */
+    private static String jsonName(String fieldName) {
+        StringBuilder result = new StringBuilder(fieldName.length());
+        boolean capitalizeNext = false;
+        for (int i = 0; i < fieldName.length(); i++) {
+            char c = fieldName.charAt(i);
+            if (c == '_') {
+                capitalizeNext = true;
+            } else if (capitalizeNext) {
+                result.append(Character.toUpperCase(c));
+                capitalizeNext = false;
+            } else {
+                result.append(c);
+            }
+        }
+        return result.toString();
+    }
+}
@@ -0,0 +1,72 @@
+package cn.hongchengq.proto_script_jnl.descriptor;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * protobuf 编码 (只包含描述符需要的 varint 与 length-delimited 两种类型)
+ * 嵌套 message 先单独编码, 再以 bytes 的形式写入
+ */
+final class ProtoWire {
+    private static final int WIRE_VARINT = 0;
+    private static final int WIRE_LENGTH_DELIMITED = 2;
+
+    private byte[] buffer = new byte[128];
+    private int size = 0;
+
+    void writeInt32(int field, int value) {
+        writeTag(field, WIRE_VARINT);
+        // 负数按 64 位补码写出, 与 protobuf 的 int32 一致
+        writeVarint(value);
+    }
+
+    void writeBool(int field, boolean value) {
+        writeTag(field, WIRE_VARINT);
+        writeVarint(value ? 1 : 0);
+    }
+
+    void writeString(int field, String value) {
+        writeBytes(field, value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    void writeMessage(int field, ProtoWire message) {
+        writeTag(field, WIRE_LENGTH_DELIMITED);
+        writeVarint(message.size);
+        append(message.buffer, message.size);
+    }
+
+    void writeBytes(int field, byte[] bytes) {
+        writeTag(field, WIRE_LENGTH_DELIMITED);
+        writeVarint(bytes.length);
+        append(bytes, bytes.length);
+    }
+
+    byte[] toByteArray() {
+        return Arrays.copyOf(buffer, size);
+    }
+
+    private void writeTag(int field, int wireType) {
+        writeVarint((field << 3) | wireType);
+    }
+
+    private void writeVarint(long value) {
+        ensureCapacity(10);
+        while ((value & ~0x7FL) != 0) {
+            buffer[size++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[size++] = (byte) value;
+    }
+
+    private void append(byte[] bytes, int length) {
+        ensureCapacity(length);
+        System.arraycopy(bytes, 0, buffer, size, length);
+        size += length;
+    }
+
+    private void ensureCapacity(int additional) {
+        if (size + additional > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + additional));
+        }
+    }
+}
@@ -0,0 +1,403 @@
+package cn.hongchengq.proto_script_jnl.generator;
+
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+
+/**
+ * 合成语料生成器: 生成与真实数据规模和形态相近的 all_in_one.proto、mapping.tsv 与 messageBlacklist.json
+ * <p>
+ * 同一组参数 (含种子) 的输出逐字节相同, 用于规模测试和回归对比
+ * <pre>
+ * 顶层定义        message 与少量 enum, 名称为 11 位大写字母 (A-P), 部分带 "// CmdId: N"
+ * 字段            标量、其它顶层 message/enum 的引用、repeated、map; 引用大多指向之前生成的定义 (一半在附近),
+ *                 少量 (backEdgeRatio) 指向之后不远处的定义, 依赖图接近 DAG, 只有少量小的循环依赖
+ * 嵌套            嵌套 enum、oneof、嵌套 message (深度可配置)
+ * CUSTOM_ENCRYPT  部分协议的一个整数字段带有 xor 注释, 四种运算模式
+ * mapping         按比例为混淆名称生成解混淆名称 (message 为驼峰, 字段为下划线)
+ * 黑名单          随机选取的协议 (替换后的名称)
+ * </pre>
+ * 混淆名称由计数器经过可逆变换得到, 不需要记录已用名称即可保证唯一
+ * <p>
+ * 命令行: java -cp proto_script_jnl-pm-jar-with-dependencies.jar cn.hongchengq.proto_script_jnl.generator.CorpusGenerator
+ * --messages=100000 --seed=1 --out=proto/input (参数名与 {@link Spec} 的字段对应, 见 {@link #main})
+ */
+@Slf4j
+public class CorpusGenerator {
+    private static final String[] SCALAR_TYPES = {"uint32", "uint32", "uint32", "bool", "string", "uint64", "int32", "bytes", "float", "int64"};
+    private static final String[] WORDS = {"Avatar", "Scene", "Player", "Item", "Quest", "Gadget", "Team", "Reward", "Shop",
+            "Mail", "Fight", "Prop", "Entity", "Dungeon", "Gacha", "Weapon", "Reliquary", "Friend", "Chat", "Home", "Tower",
+            "Activity", "Coop", "Battle", "Pass", "Skill", "Talent", "Mark", "Material", "World", "Level", "Route", "Npc",
+            "Monster", "Challenge", "Furniture", "Widget", "Combine", "Forge", "Cook", "Expedition", "Achievement"};
+    private static final String[] PROTOCOL_SUFFIXES = {"Req", "Rsp", "Notify"};
+    private static final String[] DATA_SUFFIXES = {"Info", "Data", "Detail", "Config", "Entry", ""};
+    private static final String[] FIELD_SUFFIXES = {"id", "list", "map", "count", "type", "guid", "info", "time", "level", ""};
+    private static final char[][] XOR_OPERATORS = {{'^', '+'}, {'^', '-'}, {'+', '^'}, {'-', '^'}};
+    private static final long NAME_SPACE = 1L << 44;    // 16^11
+    private static final int REFERENCE_WINDOW = 32;     // "附近" 的范围: 前后各 32 个顶层定义
+
+    /**
+     * 生成参数
+     */
+    @Data
+    public static class Spec {
+        // 随机种子
+        private long seed = 1;
+        // 顶层定义数
+        private int messages = 100000;
+        // 顶层定义中 enum 的比例
+        private double enumRatio = 0.08;
+        // 带 cmdId 的 message 比例
+        private double cmdIdRatio = 0.4;
+        // 每个 message 的字段数上限
+        private int maxFields = 12;
+        // 嵌套 message 的最大深度
+        private int nestingDepth = 2;
+        // 带 CUSTOM_ENCRYPT 字段的协议比例
+        private double xorRatio = 0.05;
+        // 引用之后定义的比例 (依赖图中的回边), 其余引用只指向之前的定义
+        private double backEdgeRatio = 0.02;
+        // 写入 mapping 的混淆名称比例
+        private double mappedRatio = 0.8;
+        // 黑名单中的协议数
+        private int blacklist = 200;
+    }
+
+    private final Spec spec;
+    private final Random random;
+    private final long nameMultiplier;
+    private final long nameOffset;
+    private long nameCounter = 0;
+
+    // 顶层定义
+    private String[] names;
+    private boolean[] enums;
+    private int[] cmdIds;
+    private int current;                                            // 正在生成的顶层定义
+    private final Map<String, Integer> usedDeobfuscatedNames = new HashMap<>();
+    private final List<String> protocolNames = new ArrayList<>();   // 替换后的协议名, 用于黑名单
+
+    private CorpusGenerator(Spec spec) {
+        this.spec = spec;
+        this.random = new Random(spec.getSeed());
+        this.nameMultiplier = (random.nextLong() | 1) & (NAME_SPACE - 1);
+        this.nameOffset = random.nextLong() & (NAME_SPACE - 1);
+    }
+
+    /**
+     * 命令行入口, 参数形如 --messages=100000, 另有 --out=目录 (默认 proto/input)
+     */
+    public static void main(String[] args) throws IOException {
+        Spec spec = new Spec();
+        Path outputDirectory = Paths.get("proto/input");
+        for (String arg : args) {
+            int separator = arg.indexOf('=');
+            if (!arg.startsWith("--") || separator < 0) {
+                throw new IllegalArgumentException("无法识别的参数: " + arg);
+            }
+            String key = arg.substring(2, separator);
+            String value = arg.substring(separator + 1);
+            switch (key) {
+                case "out" -> outputDirectory = Paths.get(value);
+                case "seed" -> spec.setSeed(Long.parseLong(value));
+                case "messages" -> spec.setMessages(Integer.parseInt(value));
+                case "enumRatio" -> spec.setEnumRatio(Double.parseDouble(value));
+                case "cmdIdRatio" -> spec.setCmdIdRatio(Double.parseDouble(value));
+                case "maxFields" -> spec.setMaxFields(Integer.parseInt(value));
+                case "nestingDepth" -> spec.setNestingDepth(Integer.parseInt(value));
+                case "xorRatio" -> spec.setXorRatio(Double.parseDouble(value));
+                case "backEdgeRatio" -> spec.setBackEdgeRatio(Double.parseDouble(value));
+                case "mappedRatio" -> spec.setMappedRatio(Double.parseDouble(value));
+                case "blacklist" -> spec.setBlacklist(Integer.parseInt(value));
+                default -> throw new IllegalArgumentException("无法识别的参数: " + arg);
+            }
+        }
+        generate(spec, outputDirectory);
+    }
+
+    /**
+     * 生成 all_in_one.proto、mapping.tsv 与 messageBlacklist.json 到指定目录 (覆盖)
+     */
+    public static void generate(Spec spec, Path outputDirectory) throws IOException {
+        Files.createDirectories(outputDirectory);
+        try (Writer proto = Files.newBufferedWriter(outputDirectory.resolve("all_in_one.proto"));
+             Writer mapping = Files.newBufferedWriter(outputDirectory.resolve("mapping.tsv"));
+             Writer blacklist = Files.newBufferedWriter(outputDirectory.resolve("messageBlacklist.json"))) {
+            generate(spec, proto, mapping, blacklist);
+        }
+        log.info("语料已生成: {} (seed {}，{} 个顶层定义)", outputDirectory, spec.getSeed(), spec.getMessages());
+    }
+
+    /**
+     * 生成到任意输出, 测试时可以直接使用 StringBuilder
+     */
+    public static void generate(Spec spec, Appendable proto, Appendable mapping, Appendable blacklist) throws IOException {
+        try {
+            new CorpusGenerator(spec).run(proto, mapping, blacklist);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private void run(Appendable proto, Appendable mapping, Appendable blacklist) throws IOException {
+        mapping.append("Obfuscated\tDeobfuscated\n");
+
+        // 先确定所有顶层定义, 回边需要引用后面的定义
+        int count = spec.getMessages();
+        names = new String[count];
+        enums = new boolean[count];
+        cmdIds = new int[count];
+        int nextCmdId = 1;
+        for (int i = 0; i < count; i++) {
+            names[i] = nextObfuscatedName();
+            enums[i] = random.nextDouble() < spec.getEnumRatio();
+            if (!enums[i] && random.nextDouble() < spec.getCmdIdRatio()) {
+                nextCmdId += 1 + random.nextInt(4);
+                cmdIds[i] = nextCmdId;
+            }
+            String deobfuscated = mapName(mapping, names[i], enums[i] ? typeName("Type") : messageName(cmdIds[i] != 0));
+            if (cmdIds[i] != 0) {
+                protocolNames.add(deobfuscated);
+            }
+        }
+
+        proto.append("syntax = \"proto3\";\n\n");
+        proto.append("import \"google/protobuf/any.proto\";\n\n");
+        StringBuilder body = new StringBuilder(4096);
+        for (int i = 0; i < count; i++) {
+            current = i;
+            body.setLength(0);
+            if (cmdIds[i] != 0) {
+                body.append("// CmdId: ").append(cmdIds[i]).append('\n');
+            }
+            if (enums[i]) {
+                appendEnum(body, mapping, names[i], "");
+            } else {
+                appendMessage(body, mapping, names[i], "", 0, cmdIds[i] != 0 && random.nextDouble() < spec.getXorRatio());
+            }
+            body.append('\n');
+            proto.append(body);
+        }
+
+        appendBlacklist(blacklist);
+    }
+
+    private void appendMessage(StringBuilder out, Appendable mapping, String name, String indent, int depth, boolean xor) {
+        String inner = indent + "    ";
+        out.append(indent).append("message ").append(name).append(" {\n");
+
+        // 嵌套定义, 可被本 message 的字段引用
+        List<String> nestedTypes = new ArrayList<>();
+        if (random.nextDouble() < 0.15) {
+            String enumName = nextObfuscatedName();
+            mapName(mapping, enumName, typeName("Type"));
+            appendEnum(out, mapping, enumName, inner);
+            nestedTypes.add(enumName);
+        }
+        if (depth < spec.getNestingDepth() && random.nextDouble() < 0.12) {
+            String nestedName = nextObfuscatedName();
+            mapName(mapping, nestedName, typeName("Inner"));
+            appendMessage(out, mapping, nestedName, inner, depth + 1, false);
+            nestedTypes.add(nestedName);
+        }
+
+        int fieldCount = 1 + random.nextInt(Math.max(1, spec.getMaxFields()));
+        int xorField = xor ? random.nextInt(fieldCount) : -1;
+        int number = 1;
+        for (int f = 0; f < fieldCount; f++) {
+            number += random.nextInt(10) == 0 ? 1 + random.nextInt(20) : 1;
+            out.append(inner);
+            if (f == xorField) {
+                out.append("uint32 ");
+                appendFieldName(out, mapping);
+                out.append(" = ").append(number).append(';');
+                appendXorComment(out);
+            } else {
+                appendFieldType(out, nestedTypes);
+                out.append(' ');
+                appendFieldName(out, mapping);
+                out.append(" = ").append(number).append(';');
+            }
+            out.append('\n');
+        }
+
+        if (random.nextDouble() < 0.2) {
+            String oneofName = nextObfuscatedName();
+            mapName(mapping, oneofName, fieldName());
+            out.append(inner).append("oneof ").append(oneofName).append(" {\n");
+            int oneofFields = 2 + random.nextInt(4);
+            number += 1 + random.nextInt(100);
+            for (int f = 0; f < oneofFields; f++) {
+                out.append(inner).append("    ").append(referencedName()).append(' ');
+                appendFieldName(out, mapping);
+                out.append(" = ").append(number).append(";\n");
+                number += 1 + random.nextInt(50);
+            }
+            out.append(inner).append("}\n");
+        }
+        out.append(indent).append("}\n");
+    }
+
+    private void appendEnum(StringBuilder out, Appendable mapping, String name, String indent) {
+        out.append(indent).append("enum ").append(name).append(" {\n");
+        int valueCount = 2 + random.nextInt(8);
+        for (int value = 0; value < valueCount; value++) {
+            String valueName = nextObfuscatedName();
+            mapName(mapping, valueName, "VALUE_" + WORDS[random.nextInt(WORDS.length)].toUpperCase() + "_" + value);
+            out.append(indent).append("    ").append(valueName).append(" = ").append(value).append(";\n");
+        }
+        out.append(indent).append("}\n");
+    }
+
+    private void appendFieldType(StringBuilder out, List<String> nestedTypes) {
+        double r = random.nextDouble();
+        if (r < 0.5) {
+            out.append(SCALAR_TYPES[random.nextInt(SCALAR_TYPES.length)]);
+        } else if (r < 0.58) {
+            out.append("repeated ").append(SCALAR_TYPES[random.nextInt(SCALAR_TYPES.length)]);
+        } else if (r < 0.66) {
+            out.append("repeated ").append(referencedName());
+        } else if (r < 0.71) {
+            out.append("map<uint32, ").append(referencedName()).append('>');
+        } else if (r < 0.75 && !nestedTypes.isEmpty()) {
+            out.append(nestedTypes.get(random.nextInt(nestedTypes.size())));
+        } else {
+            out.append(referencedName());
+        }
+    }
+
+    /**
+     * 字段引用的顶层定义: 按 backEdgeRatio 指向之后附近的定义, 其余指向之前的定义, 一半在附近 (相关定义通常相邻),
+     * 一半在所有之前的定义中均匀选取; 第一个定义没有可引用的之前定义时也指向之后
+     */
+    private String referencedName() {
+        int after = names.length - current - 1;
+        if (after > 0 && (current == 0 || random.nextDouble() < spec.getBackEdgeRatio())) {
+            return names[current + 1 + random.nextInt(Math.min(REFERENCE_WINDOW, after))];
+        }
+        if (current == 0) {
+            return names[0];
+        }
+        if (random.nextBoolean()) {
+            return names[current - 1 - random.nextInt(Math.min(REFERENCE_WINDOW, current))];
+        }
+        return names[random.nextInt(current)];
+    }
+
+    /**
+     * 大部分字段名为混淆名称, 其余为未混淆的下划线名称
+     */
+    private void appendFieldName(StringBuilder out, Appendable mapping) {
+        if (random.nextDouble() < 0.2) {
+            out.append(fieldName());
+            return;
+        }
+        String name = nextObfuscatedName();
+        mapName(mapping, name, fieldName());
+        out.append(name);
+    }
+
+    /**
+     * 格式: (VALUE op1 operand1) op2 operand2 / (VALUE op2' operand2) op1' operand1
+     */
+    private void appendXorComment(StringBuilder out) {
+        char[] operators = XOR_OPERATORS[random.nextInt(XOR_OPERATORS.length)];
+        String hex = "0X" + Integer.toHexString(1 + random.nextInt(0xFFFF)).toUpperCase();
+        String decimal = String.valueOf(1 + random.nextInt(99999));
+        String operand1 = operators[0] == '^' ? hex : decimal;
+        String operand2 = operators[0] == '^' ? decimal : hex;
+        // 斜杠后为逆运算
+        out.append(" // CUSTOM_ENCRYPT: (VALUE ").append(operators[0]).append(' ').append(operand1).append(") ")
+                .append(operators[1]).append(' ').append(operand2)
+                .append(" / (VALUE ").append(inverse(operators[1])).append(' ').append(operand2).append(") ")
+                .append(inverse(operators[0])).append(' ').append(operand1);
+    }
+
+    private static char inverse(char operator) {
+        return switch (operator) {
+            case '+' -> '-';
+            case '-' -> '+';
+            default -> operator;
+        };
+    }
+
+    private void appendBlacklist(Appendable blacklist) {
+        int total = Math.min(spec.getBlacklist(), protocolNames.size());
+        List<String> candidates = new ArrayList<>(protocolNames);
+        Collections.shuffle(candidates, random);
+        List<String> selected = new ArrayList<>(candidates.subList(0, total));
+        Collections.sort(selected);
+
+        StringBuilder json = new StringBuilder("{\n");
+        for (String name : selected) {
+            json.append("  \"").append(name).append("\": true,\n");
+        }
+        // 值为 false 的键不生效
+        json.append("  \"").append(candidates.isEmpty() ? "Unused" : candidates.getLast()).append("\": false\n}\n");
+        append(blacklist, json);
+    }
+
+    /**
+     * 按比例写入映射
+     * @return 替换后的名称
+     */
+    private String mapName(Appendable mapping, String obfuscated, String deobfuscated) {
+        if (random.nextDouble() >= spec.getMappedRatio()) {
+            return obfuscated;
+        }
+        append(mapping, obfuscated + "\t" + deobfuscated + "\n");
+        return deobfuscated;
+    }
+
+    /**
+     * 协议名以 Req/Rsp/Notify 结尾, 其它为 Info/Data 等; 重名时追加序号
+     */
+    private String messageName(boolean protocol) {
+        String suffix = protocol
+                ? PROTOCOL_SUFFIXES[random.nextInt(PROTOCOL_SUFFIXES.length)]
+                : DATA_SUFFIXES[random.nextInt(DATA_SUFFIXES.length)];
+        return typeName(suffix);
+    }
+
+    private String typeName(String suffix) {
+        String base = WORDS[random.nextInt(WORDS.length)] + WORDS[random.nextInt(WORDS.length)];
+        String name = base + suffix;
+        int used = usedDeobfuscatedNames.merge(name, 1, Integer::sum);
+        return used == 1 ? name : base + used + suffix;
+    }
+
+    private String fieldName() {
+        String word = WORDS[random.nextInt(WORDS.length)].toLowerCase();
+        String suffix = FIELD_SUFFIXES[random.nextInt(FIELD_SUFFIXES.length)];
+        return suffix.isEmpty() ? word : word + "_" + suffix;
+    }
+
+    /**
+     * 计数器经过 乘奇数 + 偏移 (模 2^44) 与 xorshift 两个可逆变换后按 16 进制写成 A-P, 保证唯一
+     */
+    private String nextObfuscatedName() {
+        long x = (nameCounter++ * nameMultiplier + nameOffset) & (NAME_SPACE - 1);
+        x ^= x >>> 22;
+        char[] name = new char[11];
+        for (int i = name.length - 1; i >= 0; i--) {
+            name[i] = (char) ('A' + (x & 0xF));
+            x >>>= 4;
+        }
+        return new String(name);
+    }
+
+    private static void append(Appendable out, CharSequence text) {
+        try {
+            out.append(text);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
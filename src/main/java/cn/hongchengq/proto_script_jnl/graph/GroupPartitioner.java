@@ -0,0 +1,201 @@
+package cn.hongchengq.proto_script_jnl.graph;
+
+import java.util.*;
+
+/**
+ * 把顶层定义分配到固定数量的文件中, 按权重 (行数) 均衡
+ * <p>
+ * 1. 依赖图的弱连通分量 (互相引用的一簇 message) 不超过平均大小时整体放入同一个文件,
+ *    按权重从大到小依次放入当前最轻的文件 (LPT)
+ * 2. 超过平均大小的分量无法整体放入, 按强连通分量缩点后的拓扑序 (被依赖的在前) 依次填满连续的文件,
+ *    强连通分量 (循环引用) 不拆分
+ * <p>
+ * 跨文件的依赖只会从编号大的文件指向编号小的文件, 文件之间的 import 不会形成环
+ */
+public class GroupPartitioner {
+    private GroupPartitioner() {
+    }
+
+    /**
+     * @param graph 依赖图
+     * @param selected 参与分组的编号, 只考虑两端都被选中的边
+     * @param weights 每个编号的权重
+     * @param groupCount 文件数
+     * @return 每个编号所在的文件, 未选中的为 -1
+     */
+    public static int[] partition(TypeGraph graph, BitSet selected, int[] weights, int groupCount) {
+        int size = graph.size();
+        int[] groups = new int[size];
+        Arrays.fill(groups, -1);
+        if (groupCount <= 1) {
+            for (int i = selected.nextSetBit(0); i >= 0; i = selected.nextSetBit(i + 1)) {
+                groups[i] = 0;
+            }
+            return groups;
+        }
+
+        int[][] edges = selectedEdges(graph, selected);
+
+        // 弱连通分量
+        int[] parent = new int[size];
+        for (int i = 0; i < size; i++) {
+            parent[i] = i;
+        }
+        for (int i = selected.nextSetBit(0); i >= 0; i = selected.nextSetBit(i + 1)) {
+            for (int target : edges[i]) {
+                union(parent, i, target);
+            }
+        }
+
+        long totalWeight = 0;
+        long[] clusterWeights = new long[size];
+        for (int i = selected.nextSetBit(0); i >= 0; i = selected.nextSetBit(i + 1)) {
+            totalWeight += weights[i];
+            clusterWeights[find(parent, i)] += weights[i];
+        }
+        long target = (totalWeight + groupCount - 1) / groupCount;
+        long[] groupWeights = new long[groupCount];
+
+        // 超过平均大小的分量: 按拓扑序填满连续的文件
+        int current = 0;
+        for (int[] component : stronglyConnectedComponents(edges, selected, size)) {
+            int cluster = find(parent, component[0]);
+            if (clusterWeights[cluster] <= target) {
+                continue;
+            }
+            for (int index : component) {
+                groups[index] = current;
+                groupWeights[current] += weights[index];
+            }
+            if (groupWeights[current] >= target && current < groupCount - 1) {
+                current++;
+            }
+        }
+
+        // 其余分量整体放入当前最轻的文件, 权重相同时按根编号 (分量内最小编号) 排序保证结果确定
+        List<Integer> clusters = new ArrayList<>();
+        for (int i = selected.nextSetBit(0); i >= 0; i = selected.nextSetBit(i + 1)) {
+            if (find(parent, i) == i && clusterWeights[i] <= target) {
+                clusters.add(i);
+            }
+        }
+        clusters.sort(Comparator.<Integer>comparingLong(cluster -> -clusterWeights[cluster])
+                .thenComparingInt(cluster -> cluster));
+
+        int[] clusterGroups = new int[size];
+        for (int cluster : clusters) {
+            int lightest = 0;
+            for (int g = 1; g < groupCount; g++) {
+                if (groupWeights[g] < groupWeights[lightest]) {
+                    lightest = g;
+                }
+            }
+            clusterGroups[cluster] = lightest;
+            groupWeights[lightest] += clusterWeights[cluster];
+        }
+        for (int i = selected.nextSetBit(0); i >= 0; i = selected.nextSetBit(i + 1)) {
+            if (groups[i] < 0) {
+                groups[i] = clusterGroups[find(parent, i)];
+            }
+        }
+        return groups;
+    }
+
+    /**
+     * 只保留两端都被选中的边
+     */
+    private static int[][] selectedEdges(TypeGraph graph, BitSet selected) {
+        int[][] edges = new int[graph.size()][];
+        for (int i = 0; i < edges.length; i++) {
+            if (!selected.get(i)) {
+                edges[i] = new int[0];
+                continue;
+            }
+            edges[i] = Arrays.stream(graph.getDependencies(i)).filter(selected::get).toArray();
+        }
+        return edges;
+    }
+
+    /**
+     * Tarjan 强连通分量 (迭代实现)
+     * @return 强连通分量列表, 被依赖的分量排在依赖它的分量之前
+     */
+    private static List<int[]> stronglyConnectedComponents(int[][] edges, BitSet selected, int size) {
+        List<int[]> components = new ArrayList<>();
+        int[] order = new int[size];
+        int[] lowLink = new int[size];
+        Arrays.fill(order, -1);
+        boolean[] onStack = new boolean[size];
+        int[] stack = new int[size];
+        int stackSize = 0;
+        int[] callStack = new int[size];
+        int[] edgeCursor = new int[size];
+        int counter = 0;
+
+        for (int root = selected.nextSetBit(0); root >= 0; root = selected.nextSetBit(root + 1)) {
+            if (order[root] >= 0) {
+                continue;
+            }
+
+            int depth = 0;
+            callStack[depth++] = root;
+            order[root] = lowLink[root] = counter++;
+            stack[stackSize++] = root;
+            onStack[root] = true;
+
+            while (depth > 0) {
+                int node = callStack[depth - 1];
+                if (edgeCursor[node] < edges[node].length) {
+                    int next = edges[node][edgeCursor[node]++];
+                    if (order[next] < 0) {
+                        order[next] = lowLink[next] = counter++;
+                        stack[stackSize++] = next;
+                        onStack[next] = true;
+                        callStack[depth++] = next;
+                    } else if (onStack[next]) {
+                        lowLink[node] = Math.min(lowLink[node], order[next]);
+                    }
+                    continue;
+                }
+
+                // node 的出边处理完毕
+                depth--;
+                if (depth > 0) {
+                    int caller = callStack[depth - 1];
+                    lowLink[caller] = Math.min(lowLink[caller], lowLink[node]);
+                }
+                if (lowLink[node] == order[node]) {
+                    int start = stackSize;
+                    do {
+                        start--;
+                        onStack[stack[start]] = false;
+                    } while (stack[start] != node);
+                    int[] component = Arrays.copyOfRange(stack, start, stackSize);
+                    Arrays.sort(component);
+                    components.add(component);
+                    stackSize = start;
+                }
+            }
+        }
+        return components;
+    }
+
+    private static int find(int[] parent, int i) {
+        while (parent[i] != i) {
+            parent[i] = parent[parent[i]];
+            i = parent[i];
+        }
+        return i;
+    }
+
+    private static void union(int[] parent, int a, int b) {
+        int rootA = find(parent, a);
+        int rootB = find(parent, b);
+        // 以较小编号为根, 保证结果与遍历顺序无关
+        if (rootA < rootB) {
+            parent[rootB] = rootA;
+        } else if (rootB < rootA) {
+            parent[rootA] = rootB;
+        }
+    }
+}
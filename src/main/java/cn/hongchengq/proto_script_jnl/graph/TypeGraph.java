@@ -0,0 +1,192 @@
+package cn.hongchengq.proto_script_jnl.graph;
+
+import cn.hongchengq.proto_script_jnl.parser.ProtoMessage;
+
+import java.util.*;
+
+/**
+ * 顶层类型的符号表与依赖图
+ * <p>
+ * 顶层定义按出现顺序编号; 符号表为 名称 -> 编号 的哈希索引 (同名定义以最后出现的为准, 与写出时的覆盖结果一致);
+ * 边 a -> b 表示 a 需要 import b, 正反向邻接表都以 int 数组存放
+ * <p>
+ * 每个顶层定义的 import 列表为引用类型去重后排除自身嵌套类型的结果, 保持首次出现的顺序;
+ * 未定义为顶层类型的引用仍然保留在 import 列表中, 但不会成为图中的边
+ */
+public class TypeGraph {
+    private static final int[] EMPTY = new int[0];
+
+    private final String[] names;
+    private final int[] cmdIds;
+    private final Map<String, Integer> indexByName;
+    private final List<List<String>> imports;
+    private final int[][] dependencies;         // 正向边: 依赖的顶层类型
+    private final int[][] dependents;           // 反向边: 被哪些顶层类型依赖
+    private final Set<String> referencedNames;  // 被任意顶层定义引用过的名称 (排除嵌套类型之前)
+
+    private TypeGraph(String[] names, int[] cmdIds, Map<String, Integer> indexByName, List<List<String>> imports,
+                      int[][] dependencies, int[][] dependents, Set<String> referencedNames) {
+        this.names = names;
+        this.cmdIds = cmdIds;
+        this.indexByName = indexByName;
+        this.imports = imports;
+        this.dependencies = dependencies;
+        this.dependents = dependents;
+        this.referencedNames = referencedNames;
+    }
+
+    /**
+     * 根据解析出的顶层定义构建
+     */
+    public static TypeGraph build(List<ProtoMessage> messages) {
+        int size = messages.size();
+        String[] names = new String[size];
+        int[] cmdIds = new int[size];
+        Map<String, Integer> indexByName = new HashMap<>(size * 2);
+        Set<String> referencedNames = new HashSet<>();
+
+        for (int i = 0; i < size; i++) {
+            ProtoMessage message = messages.get(i);
+            names[i] = message.getName();
+            cmdIds[i] = message.getCmdId();
+            indexByName.put(message.getName(), i);
+            referencedNames.addAll(message.getReferencedTypes());
+        }
+
+        // import 列表与正向边
+        List<List<String>> imports = new ArrayList<>(size);
+        int[][] dependencies = new int[size][];
+        int[] dependentCounts = new int[size];
+        for (int i = 0; i < size; i++) {
+            ProtoMessage message = messages.get(i);
+            Set<String> importNames = new LinkedHashSet<>(message.getReferencedTypes());
+            message.getNestedNames().forEach(importNames::remove);
+            imports.add(List.copyOf(importNames));
+
+            int[] edges = new int[importNames.size()];
+            int edgeCount = 0;
+            for (String importName : importNames) {
+                Integer target = indexByName.get(importName);
+                if (target != null) {
+                    edges[edgeCount++] = target;
+                    dependentCounts[target]++;
+                }
+            }
+            dependencies[i] = edgeCount == 0 ? EMPTY : Arrays.copyOf(edges, edgeCount);
+        }
+
+        // 反向边
+        int[][] dependents = new int[size][];
+        for (int i = 0; i < size; i++) {
+            dependents[i] = dependentCounts[i] == 0 ? EMPTY : new int[dependentCounts[i]];
+        }
+        int[] fill = new int[size];
+        for (int i = 0; i < size; i++) {
+            for (int target : dependencies[i]) {
+                dependents[target][fill[target]++] = i;
+            }
+        }
+
+        return new TypeGraph(names, cmdIds, indexByName, imports, dependencies, dependents, referencedNames);
+    }
+
+    /**
+     * 顶层定义数量
+     */
+    public int size() {
+        return names.length;
+    }
+
+    /**
+     * @return 名称对应的编号, 不存在时返回 -1
+     */
+    public int indexOf(String name) {
+        Integer index = indexByName.get(name);
+        return index == null ? -1 : index;
+    }
+
+    public String getName(int index) {
+        return names[index];
+    }
+
+    public int getCmdId(int index) {
+        return cmdIds[index];
+    }
+
+    /**
+     * 需要 import 的名称 (已去重并排除嵌套类型)
+     */
+    public List<String> getImports(int index) {
+        return imports.get(index);
+    }
+
+    /**
+     * 直接依赖的顶层类型编号
+     */
+    public int[] getDependencies(int index) {
+        return dependencies[index].clone();
+    }
+
+    /**
+     * 直接依赖该类型的顶层类型编号
+     */
+    public int[] getDependents(int index) {
+        return dependents[index].clone();
+    }
+
+    /**
+     * 名称是否被任意顶层定义引用过
+     */
+    public boolean isReferenced(String name) {
+        return referencedNames.contains(name);
+    }
+
+    /**
+     * 从 roots 出发沿依赖边可以到达的所有顶层类型 (包含 roots 本身)
+     */
+    public BitSet reachableFrom(BitSet roots) {
+        BitSet visited = (BitSet) roots.clone();
+        int[] stack = new int[Math.max(16, roots.cardinality())];
+        int top = 0;
+        for (int i = roots.nextSetBit(0); i >= 0; i = roots.nextSetBit(i + 1)) {
+            stack[top++] = i;
+        }
+
+        while (top > 0) {
+            int current = stack[--top];
+            for (int target : dependencies[current]) {
+                if (!visited.get(target)) {
+                    visited.set(target);
+                    if (top == stack.length) {
+                        stack = Arrays.copyOf(stack, top * 2);
+                    }
+                    stack[top++] = target;
+                }
+            }
+        }
+        return visited;
+    }
+
+    /**
+     * 传递依赖: name 直接或间接 import 的所有顶层类型 (不含自身, 除非存在循环依赖), 按编号排序
+     * @return name 不存在时返回空列表
+     */
+    public List<String> getTransitiveDependencies(String name) {
+        int index = indexOf(name);
+        if (index < 0) {
+            return List.of();
+        }
+
+        BitSet roots = new BitSet(size());
+        for (int target : dependencies[index]) {
+            roots.set(target);
+        }
+        BitSet reachable = reachableFrom(roots);
+
+        List<String> result = new ArrayList<>(reachable.cardinality());
+        for (int i = reachable.nextSetBit(0); i >= 0; i = reachable.nextSetBit(i + 1)) {
+            result.add(names[i]);
+        }
+        return result;
+    }
+}
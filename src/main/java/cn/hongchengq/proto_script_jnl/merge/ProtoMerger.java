@@ -0,0 +1,292 @@
+package cn.hongchengq.proto_script_jnl.merge;
+
+import cn.hongchengq.proto_script_jnl.Config;
+import cn.hongchengq.proto_script_jnl.ConstProtoType;
+import cn.hongchengq.proto_script_jnl.Main;
+import cn.hongchengq.proto_script_jnl.parser.ProtoDefinition;
+import cn.hongchengq.proto_script_jnl.parser.ProtoFile;
+import cn.hongchengq.proto_script_jnl.parser.ProtoMessage;
+import cn.hongchengq.proto_script_jnl.parser.ProtoParser;
+import cn.hongchengq.proto_script_jnl.report.RunReport;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.stream.Stream;
+
+/**
+ * 合并分割后的 proto 文件 (bootMode 10/11)
+ * <p>
+ * 按文件名顺序读取目录中的所有 .proto, 去掉 Split 生成的文件头、import 和 enum CmdId,
+ * 在每个协议前还原 "// CmdId: N" 注释, 写出为一个大 proto
+ * <p>
+ * 1. 先并行解析每个文件, 汇总去重后的 syntax/package/option 以及外部文件的 import;
+ *    只去掉 Split 生成的 import (目录中的文件、目录中定义的 message, 以及被引用但被黑名单或过滤规则排除的 message),
+ *    其它 import (如 "common.proto") 原样保留
+ * 2. 再在 fork-join 线程池中并行解析各文件, 按文件名顺序写出; 同时在途的文件数有上限, 内存占用与文件总数无关
+ * <p>
+ * 同名 message 只保留第一个 (按文件名顺序), 其余跳过并警告
+ */
+@Slf4j
+public class ProtoMerger {
+    private static final String GAME_VERSION_PREFIX = "// Game Version:";
+
+    /**
+     * 入口方法
+     * @param report 本次运行的报告
+     */
+    public static void start(RunReport report) {
+        Config.ConfigBean.MergeOptional optional = Config.getConfig().getMergeOptional();
+        Path inputDirectory = Paths.get(optional.getInputDirectory());
+        Path outputFile = Paths.get(optional.getOutputFilePath());
+
+        try {
+            Path outputDirectory = outputFile.toAbsolutePath().getParent();
+            if (outputDirectory != null) {
+                Files.createDirectories(outputDirectory);
+            }
+
+            String stamp = "// " + Main.PROJECT_ADDRESS + "\n" + "// usedTime: " + Main.usedTime + "\n" + System.lineSeparator();
+            report.time("merge", () -> merge(inputDirectory, outputFile, stamp, optional.getParallelism(), report));
+            log.info("Proto文件合并完成，输出文件: {}", outputFile);
+        } catch (IOException e) {
+            log.error("合并 {} 时出错", inputDirectory, e);
+        }
+    }
+
+    /**
+     * 合并目录中的所有 proto 文件
+     * @param inputDirectory 分割后的 proto 目录 (不递归)
+     * @param outputFile 输出文件, 会被覆盖
+     * @param stamp 写在输出文件最前面的内容
+     * @param parallelism 并行度, 小于等于 0 时使用 CPU 核心数
+     * @param report 记录文件数、message 数与重复数
+     * @return 写出的 message 数
+     */
+    public static int merge(Path inputDirectory, Path outputFile, String stamp, int parallelism,
+                            RunReport report) throws IOException {
+        List<Path> files;
+        try (Stream<Path> paths = Files.list(inputDirectory)) {
+            files = paths.filter(Files::isRegularFile)
+                    .filter(path -> path.getFileName().toString().endsWith(".proto"))
+                    .sorted(Comparator.comparing(path -> path.getFileName().toString()))
+                    .toList();
+        }
+        Set<String> fileNames = new HashSet<>();
+        files.forEach(path -> fileNames.add(path.getFileName().toString()));
+
+        int threads = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+        String newLine = System.lineSeparator();
+        Set<String> writtenMessages = new HashSet<>();
+        int duplicateCount = 0;
+
+        try (ForkJoinPool pool = new ForkJoinPool(threads);
+             Writer writer = Files.newBufferedWriter(outputFile)) {
+
+            // 汇总文件头
+            List<Preamble> preambles = join(pool.submit(() -> files.parallelStream()
+                    .map(ProtoMerger::readPreamble)
+                    .toList()));
+            Set<String> generatedImports = generatedImports(preambles, fileNames);
+            Set<String> headerLines = new LinkedHashSet<>();
+            for (Preamble preamble : preambles) {
+                for (String headerLine : preamble.headerLines()) {
+                    if (!headerLine.startsWith("import ") || !generatedImports.contains(importFile(headerLine))) {
+                        headerLines.add(headerLine);
+                    }
+                }
+            }
+
+            writer.write(stamp);
+            for (String headerLine : headerLines) {
+                writer.write(headerLine);
+                writer.write(newLine);
+            }
+            writer.write(newLine);
+
+            // 按文件名顺序写出 message
+            Deque<ForkJoinTask<List<MergedMessage>>> inFlight = new ArrayDeque<>();
+            int maxInFlight = threads * 4;
+            Iterator<Path> iterator = files.iterator();
+            while (iterator.hasNext() || !inFlight.isEmpty()) {
+                while (iterator.hasNext() && inFlight.size() < maxInFlight) {
+                    Path path = iterator.next();
+                    inFlight.addLast(pool.submit(() -> readMessages(path)));
+                }
+
+                for (MergedMessage message : join(inFlight.removeFirst())) {
+                    if (!writtenMessages.add(message.name())) {
+                        log.warn("{} 中的 message {} 已在之前的文件中出现，跳过", message.file().getFileName(), message.name());
+                        duplicateCount++;
+                        continue;
+                    }
+                    writer.write(message.text());
+                }
+            }
+        }
+
+        report.count("merge.files", files.size());
+        report.count("merge.messages", writtenMessages.size());
+        report.count("merge.duplicates", duplicateCount);
+        log.info("合并了 {} 个文件，共 {} 个 message，跳过重复 {} 个，并行度 {}",
+                files.size(), writtenMessages.size(), duplicateCount, threads);
+        return writtenMessages.size();
+    }
+
+    /**
+     * 解析文件, 返回第一个定义之前需要保留的文件头 (含所有 import), 以及文件中定义与引用的顶层类型
+     */
+    private static Preamble readPreamble(Path path) {
+        ProtoFile protoFile;
+        try {
+            protoFile = ProtoParser.parse(path);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        List<String> headerLines = new ArrayList<>();
+        for (int lineIndex = 0; lineIndex < protoFile.getLineCount(); lineIndex++) {
+            String trimmedLine = protoFile.line(lineIndex).trim();
+            if (isDefinitionStart(trimmedLine)) {
+                break;
+            }
+            if (trimmedLine.startsWith("import ") || trimmedLine.startsWith("syntax") || trimmedLine.startsWith("package") ||
+                    trimmedLine.startsWith("option") || trimmedLine.startsWith(GAME_VERSION_PREFIX)) {
+                headerLines.add(trimmedLine);
+            }
+        }
+
+        Set<String> definedNames = new HashSet<>();
+        Set<String> referencedTypes = new HashSet<>();
+        for (ProtoMessage message : protoFile.getMessages()) {
+            definedNames.add(message.getName());
+            referencedTypes.addAll(message.getReferencedTypes());
+        }
+        return new Preamble(headerLines, definedNames, referencedTypes);
+    }
+
+    /**
+     * Split 生成的 import 为被引用的顶层类型名 + ".proto", 合并后都不再需要:
+     * 目录中的文件、目录中定义的类型, 以及被引用但目录中没有定义的类型 (被黑名单或过滤规则排除, Split 仍然写出了 import)
+     */
+    private static Set<String> generatedImports(List<Preamble> preambles, Set<String> fileNames) {
+        Set<String> definedNames = new HashSet<>();
+        Set<String> referencedTypes = new HashSet<>();
+        for (Preamble preamble : preambles) {
+            definedNames.addAll(preamble.definedNames());
+            referencedTypes.addAll(preamble.referencedTypes());
+        }
+
+        Set<String> generatedImports = new HashSet<>(fileNames);
+        for (String name : definedNames) {
+            generatedImports.add(name + ".proto");
+        }
+        for (String name : referencedTypes) {
+            generatedImports.add(name + ".proto");
+        }
+        return generatedImports;
+    }
+
+    /**
+     * import 行中引号内的文件名
+     */
+    private static String importFile(String importLine) {
+        int start = importLine.indexOf('"');
+        int end = importLine.lastIndexOf('"');
+        return start >= 0 && end > start ? importLine.substring(start + 1, end) : "";
+    }
+
+    private static boolean isDefinitionStart(String trimmedLine) {
+        for (String nestingType : ConstProtoType.getConstNestingType()) {
+            if (trimmedLine.startsWith(nestingType + " ")) {
+                return true;
+            }
+        }
+        return trimmedLine.startsWith("service ");
+    }
+
+    /**
+     * 解析一个文件中的所有顶层定义, 还原为合并前的文本
+     */
+    private static List<MergedMessage> readMessages(Path path) {
+        ProtoFile protoFile;
+        try {
+            protoFile = ProtoParser.parse(path);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        String newLine = System.lineSeparator();
+        String cmdIdPrefix = ConstProtoType.getDumpedCmdId() + " ";
+        List<ProtoMessage> messages = protoFile.getMessages();
+        List<MergedMessage> result = new ArrayList<>(messages.size());
+
+        for (int i = 0; i < messages.size(); i++) {
+            ProtoMessage message = messages.get(i);
+            int endLine = i + 1 < messages.size() ? messages.get(i + 1).getFirstLine() : protoFile.getLineCount();
+
+            // Split 在 message 第一行之后插入的 enum CmdId
+            int cmdId = message.getCmdId();
+            int skipFirst = -1;
+            int skipLast = -1;
+            ProtoMessage cmdIdEnum = generatedCmdIdEnum(message);
+            if (cmdIdEnum != null) {
+                cmdId = ProtoDefinition.cmdIdValue(cmdIdEnum);
+                skipFirst = cmdIdEnum.getFirstLine();
+                skipLast = cmdIdEnum.getLastLine();
+            }
+
+            StringBuilder text = new StringBuilder();
+            if (cmdId != 0) {
+                text.append(cmdIdPrefix).append(cmdId).append(newLine);
+            }
+            for (int lineIndex = message.getFirstLine(); lineIndex < endLine; lineIndex++) {
+                if (lineIndex >= skipFirst && lineIndex <= skipLast) {
+                    continue;
+                }
+                String line = protoFile.line(lineIndex);
+                if (line.trim().startsWith(cmdIdPrefix)) {
+                    continue;
+                }
+                text.append(line).append(newLine);
+            }
+            result.add(new MergedMessage(path, message.getName(), text.toString()));
+        }
+        return result;
+    }
+
+    /**
+     * 紧跟在 message 第一行之后的 enum CmdId 视为 Split 生成的 (识别规则见 ProtoDefinition#cmdIdEnum)
+     */
+    private static ProtoMessage generatedCmdIdEnum(ProtoMessage message) {
+        ProtoMessage cmdIdEnum = ProtoDefinition.cmdIdEnum(message);
+        return cmdIdEnum != null && cmdIdEnum.getFirstLine() == message.getFirstLine() + 1 ? cmdIdEnum : null;
+    }
+
+    /**
+     * 等待任务结束, 还原工作线程中包装的 IO 异常
+     */
+    private static <T> T join(ForkJoinTask<T> task) throws IOException {
+        try {
+            return task.join();
+        } catch (RuntimeException e) {
+            for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+                if (cause instanceof IOException ioException) {
+                    throw ioException;
+                }
+            }
+            throw e;
+        }
+    }
+
+    private record MergedMessage(Path file, String name, String text) {
+    }
+
+    private record Preamble(List<String> headerLines, Set<String> definedNames, Set<String> referencedTypes) {
+    }
+}
@@ -0,0 +1,596 @@
+package cn.hongchengq.proto_script_jnl.migrate;
+
+import cn.hongchengq.proto_script_jnl.Config;
+import cn.hongchengq.proto_script_jnl.ConstProtoType;
+import cn.hongchengq.proto_script_jnl.parser.*;
+import cn.hongchengq.proto_script_jnl.replace.MappingLoader;
+import cn.hongchengq.proto_script_jnl.report.RunReport;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.ToLongFunction;
+
+/**
+ * mapping 迁移 (bootMode 21)
+ * <p>
+ * 游戏更新后混淆名全部改变, 但 message 的结构基本不变. 比较新旧两个版本的原始 all_in_one.proto,
+ * 按结构配对 message/enum, 把旧版本 mapping.tsv 中的混淆名换成新版本中对应的混淆名
+ * <p>
+ * 1. 两个文件并行解析, 所有 message/enum (含嵌套) 以全限定名登记, 自底向上计算 64 位结构指纹:
+ *    <pre>
+ *    shape   字段编号、标号、map、标量类型 (自定义类型不区分)、oneof 包含的编号、嵌套定义的 shape; enum 为值
+ *    deep    shape + 每个自定义类型字段所引用定义的 shape
+ *    </pre>
+ * 2. 配对只使用哈希索引 (某个键在两边都唯一时配对), 不做两两比较:
+ *    同名 → cmdId → 沿已配对定义中编号相同的字段类型与嵌套定义传播 → deep 唯一 → shape 唯一,
+ *    后三步交替进行直到没有新的配对. 每对的置信度由配对方式与两边 shape 是否相同决定, 传播时逐级衰减
+ * 3. 已配对的定义按字段编号对齐字段名, enum 值按数值对齐, oneof 按包含的字段编号对齐, 得到新旧混淆名的对应关系;
+ *    同一个旧混淆名有多个候选时取置信度之和最大者, 置信度按候选间的一致程度折算
+ * <p>
+ * 输出与 mapping.tsv 格式相同 (可以直接作为 replaceMappingFilePath 使用), 第三列为置信度, 第四列为旧混淆名
+ */
+@Slf4j
+public class MappingMigration {
+    // 旧混淆名在新版本中原样出现, 但没有结构配对支持时的置信度
+    private static final double UNCHANGED_NAME_CONFIDENCE = 0.6;
+    // 配对时两边 shape 不同的折算系数
+    private static final double SHAPE_CHANGED_FACTOR = 0.8;
+    // 传播一级的衰减系数
+    private static final double PROPAGATION_FACTOR = 0.95;
+
+    /**
+     * 配对方式与基础置信度
+     */
+    private enum Tier {
+        NAME(1.0),              // 全限定名相同 (未重新混淆的名称)
+        CMD_ID(1.0),            // cmdId 相同
+        FIELD_TYPE(1.0),        // 已配对定义中编号相同字段的类型, 置信度继承自外层并衰减
+        NESTED(1.0),            // 已配对定义中结构唯一对应的嵌套定义, 置信度继承自外层并衰减
+        DEEP(0.9),              // deep 指纹唯一
+        SHAPE(0.7);             // shape 指纹唯一
+
+        final double confidence;
+
+        Tier(double confidence) {
+            this.confidence = confidence;
+        }
+    }
+
+    /**
+     * 入口方法
+     * @param report 本次运行的报告
+     */
+    public static void start(RunReport report) {
+        Config.ConfigBean.MigrateMappingOptional optional = Config.getConfig().getMigrateMappingOptional();
+        try {
+            migrate(Paths.get(optional.getOldInputFilePath()), Paths.get(optional.getOldMappingFilePath()),
+                    Paths.get(optional.getNewInputFilePath()), Paths.get(optional.getOutputTsvPath()),
+                    optional.getMinConfidence(), report);
+        } catch (IOException e) {
+            log.error("迁移 mapping 时出错", e);
+        }
+    }
+
+    /**
+     * 迁移 mapping
+     * @param oldInputFile 旧版本的原始 proto
+     * @param oldMappingFile 旧版本的 mapping.tsv
+     * @param newInputFile 新版本的原始 proto
+     * @param outputTsvFile 迁移后的 mapping.tsv
+     * @param minConfidence 低于该置信度的映射不写出
+     * @param report 记录各阶段耗时与迁移结果
+     * @return 写出的映射数
+     */
+    public static int migrate(Path oldInputFile, Path oldMappingFile, Path newInputFile, Path outputTsvFile,
+                              double minConfidence, RunReport report) throws IOException {
+        // 两个版本的定义在后台解析, 同时加载旧 mapping; 三段耗时都计入 parse 阶段
+        CompletableFuture<Registry> oldFuture = CompletableFuture.supplyAsync(() -> Registry.parse(oldInputFile));
+        CompletableFuture<Registry> newFuture = CompletableFuture.supplyAsync(() -> Registry.parse(newInputFile));
+        Map<String, String> oldMapping = report.time("parse", () -> MappingLoader.load(oldMappingFile, report));
+        Registry oldDefinitions = report.time("parse", () -> join(oldFuture));
+        Registry newDefinitions = report.time("parse", () -> join(newFuture));
+
+        Matcher matcher = new Matcher(oldDefinitions, newDefinitions);
+        report.time("match", matcher::match);
+
+        List<Row> rows = report.time("migrate",
+                () -> migrateMapping(oldMapping, tokenVotes(oldDefinitions), newDefinitions.names(), report));
+
+        Path outputDirectory = outputTsvFile.toAbsolutePath().getParent();
+        if (outputDirectory != null) {
+            Files.createDirectories(outputDirectory);
+        }
+        int written = report.time("emit", () -> {
+            int count = 0;
+            try (BufferedWriter writer = Files.newBufferedWriter(outputTsvFile)) {
+                writer.write("obf\tdeobf\tconfidence\toldObf");
+                writer.newLine();
+                for (Row row : rows) {
+                    if (row.confidence() < minConfidence) {
+                        continue;
+                    }
+                    writer.write(row.newName() + "\t" + row.deobfuscated() + "\t" +
+                            formatConfidence(row.confidence()) + "\t" + row.oldName());
+                    writer.newLine();
+                    count++;
+                }
+            }
+            return count;
+        });
+
+        report.count("migrate.oldDefinitions", oldDefinitions.getDefinitions().size());
+        report.count("migrate.newDefinitions", newDefinitions.getDefinitions().size());
+        report.count("migrate.pairedDefinitions", matcher.pairCount);
+        report.count("migrate.oldEntries", oldMapping.size());
+        report.count("migrate.rows", written);
+        report.count("migrate.lowConfidence", rows.size() - written);
+        log.info("定义配对 {}/{} 个 (新版本 {} 个)，方式: {}", matcher.pairCount, oldDefinitions.getDefinitions().size(),
+                newDefinitions.getDefinitions().size(), matcher.tierCounts);
+        log.info("旧 mapping {} 条，迁移 {} 条，其中 {} 条低于置信度 {} 未写出，输出: {}", oldMapping.size(), rows.size(),
+                rows.size() - written, minConfidence, outputTsvFile);
+        return written;
+    }
+
+    /**
+     * 保留三位小数, 如 0.905
+     */
+    private static String formatConfidence(double confidence) {
+        long thousandths = Math.round(confidence * 1000);
+        String fraction = String.valueOf(1000 + thousandths % 1000).substring(1);
+        return thousandths / 1000 + "." + fraction;
+    }
+
+    /**
+     * 一条迁移后的映射
+     */
+    private record Row(String newName, String deobfuscated, double confidence, String oldName) {
+    }
+
+    /**
+     * 旧混淆名的一个候选新名称
+     */
+    private static final class Vote {
+        double total;           // 置信度之和
+        double max;             // 最高置信度
+    }
+
+    /**
+     * 根据配对结果收集 旧名称 -> 新名称 的候选
+     */
+    private static Map<String, Map<String, Vote>> tokenVotes(Registry oldDefinitions) {
+        Map<String, Map<String, Vote>> votes = new HashMap<>();
+        for (Definition definition : oldDefinitions.getDefinitions()) {
+            Definition match = definition.match;
+            if (match == null) {
+                continue;
+            }
+            ProtoMessage message = definition.getMessage();
+            double confidence = definition.confidence;
+            vote(votes, message.getName(), match.getMessage().getName(), confidence);
+
+            if (message.isEnum()) {
+                Map<Integer, ProtoEnumValue> newValues = new HashMap<>();
+                for (ProtoEnumValue value : match.getMessage().getEnumValues()) {
+                    newValues.putIfAbsent(value.getNumber(), value);
+                }
+                for (ProtoEnumValue value : message.getEnumValues()) {
+                    ProtoEnumValue newValue = newValues.get(value.getNumber());
+                    if (newValue != null) {
+                        vote(votes, value.getName(), newValue.getName(), confidence);
+                    }
+                }
+                continue;
+            }
+
+            Map<Integer, ProtoField> newFields = match.fieldsByNumber();
+            for (ProtoField field : definition.allFields()) {
+                ProtoField newField = newFields.get(field.getNumber());
+                if (newField != null && ProtoDefinition.isCompatible(field, newField)) {
+                    vote(votes, field.getName(), newField.getName(), confidence);
+                }
+            }
+            for (ProtoOneof oneof : message.getOneofs()) {
+                Set<Integer> numbers = ProtoDefinition.fieldNumbers(oneof);
+                for (ProtoOneof newOneof : match.getMessage().getOneofs()) {
+                    if (numbers.equals(ProtoDefinition.fieldNumbers(newOneof))) {
+                        vote(votes, oneof.getName(), newOneof.getName(), confidence);
+                        break;
+                    }
+                }
+            }
+        }
+        return votes;
+    }
+
+    private static void vote(Map<String, Map<String, Vote>> votes, String oldName, String newName, double confidence) {
+        Vote vote = votes.computeIfAbsent(oldName, key -> new HashMap<>(2)).computeIfAbsent(newName, key -> new Vote());
+        vote.total += confidence;
+        vote.max = Math.max(vote.max, confidence);
+    }
+
+    /**
+     * 把旧 mapping 中的每个混淆名换成新名称; 多个旧名称对应同一个新名称时保留置信度最高的
+     * @param newNames 新版本中出现的所有名称
+     * @return 按新名称排序
+     */
+    private static List<Row> migrateMapping(Map<String, String> oldMapping, Map<String, Map<String, Vote>> votes,
+                                            Set<String> newNames, RunReport report) {
+        Map<String, Row> rows = new TreeMap<>();
+        int missing = 0;
+        int conflicts = 0;
+        for (Map.Entry<String, String> entry : new TreeMap<>(oldMapping).entrySet()) {
+            String oldName = entry.getKey();
+            Row row = null;
+
+            Map<String, Vote> candidates = votes.get(oldName);
+            if (candidates != null) {
+                String bestName = null;
+                Vote best = null;
+                double total = 0;
+                for (Map.Entry<String, Vote> candidate : candidates.entrySet()) {
+                    Vote vote = candidate.getValue();
+                    total += vote.total;
+                    // 置信度之和相同时取名称较小的, 保证结果稳定
+                    if (best == null || vote.total > best.total ||
+                            (vote.total == best.total && candidate.getKey().compareTo(bestName) < 0)) {
+                        bestName = candidate.getKey();
+                        best = vote;
+                    }
+                }
+                // 候选之间不一致时按最佳候选所占比例折算
+                row = new Row(bestName, entry.getValue(), best.max * best.total / total, oldName);
+            } else if (newNames.contains(oldName)) {
+                row = new Row(oldName, entry.getValue(), UNCHANGED_NAME_CONFIDENCE, oldName);
+            }
+
+            if (row == null) {
+                missing++;
+                continue;
+            }
+            Row existing = rows.get(row.newName());
+            if (existing != null) {
+                conflicts++;
+                if (existing.confidence() >= row.confidence()) {
+                    continue;
+                }
+            }
+            rows.put(row.newName(), row);
+        }
+
+        report.count("migrate.missing", missing);
+        report.count("migrate.conflicts", conflicts);
+        if (conflicts > 0) {
+            log.warn("{} 个新混淆名对应多个旧混淆名，保留置信度最高的", conflicts);
+        }
+        return new ArrayList<>(rows.values());
+    }
+
+    /**
+     * 等待解析结束, 还原包装的 IO 异常
+     */
+    private static Registry join(CompletableFuture<Registry> future) throws IOException {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof UncheckedIOException uncheckedIOException) {
+                throw uncheckedIOException.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * 一个 message/enum 定义
+     */
+    private static final class Definition extends ProtoDefinition<Definition> {
+        long shape;                         // 结构指纹 (含嵌套定义)
+        long deep;                          // 结构指纹 + 引用定义的结构指纹
+        Definition match;                   // 配对的定义
+        double confidence;
+
+        Definition(ProtoMessage message, Definition parent) {
+            super(message, parent);
+        }
+    }
+
+    /**
+     * 一个版本中所有 message/enum 的登记表
+     */
+    private static final class Registry extends ProtoDefinitionRegistry<Definition> {
+        Registry() {
+            super(Definition::new);
+        }
+
+        /**
+         * 解析文件并计算结构指纹
+         */
+        static Registry parse(Path file) {
+            ProtoFile protoFile;
+            try {
+                protoFile = ProtoParser.parseMapped(file);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            Registry registry = new Registry();
+            for (ProtoMessage message : protoFile.getMessages()) {
+                registry.register(message);
+            }
+            // 登记顺序为外层在前, 逆序遍历保证嵌套定义的 shape 先算好
+            List<Definition> definitions = registry.getDefinitions();
+            for (int i = definitions.size() - 1; i >= 0; i--) {
+                Definition definition = definitions.get(i);
+                definition.shape = Fingerprints.shape(definition);
+            }
+            for (Definition definition : definitions) {
+                definition.deep = Fingerprints.deep(definition, registry);
+            }
+            log.info("{} 中共 {} 个 message/enum", file, definitions.size());
+            return registry;
+        }
+
+        /**
+         * 定义、字段、enum 值与 oneof 的所有名称
+         */
+        Set<String> names() {
+            Set<String> names = new HashSet<>();
+            for (Definition definition : getDefinitions()) {
+                ProtoMessage message = definition.getMessage();
+                names.add(message.getName());
+                definition.allFields().forEach(field -> names.add(field.getName()));
+                message.getEnumValues().forEach(value -> names.add(value.getName()));
+                message.getOneofs().forEach(oneof -> names.add(oneof.getName()));
+            }
+            return names;
+        }
+    }
+
+    /**
+     * 64 位结构指纹, 与名称无关
+     */
+    private static final class Fingerprints {
+        private static final long MESSAGE_SEED = 0x6D657373616765L;
+        private static final long ENUM_SEED = 0x656E756DL;
+        private static final long CUSTOM_TYPE = 0x637573746F6DL;
+        private static final long ONEOF_MARK = 0x6F6E656F66L;
+        private static final long NESTED_MARK = 0x6E6573746564L;
+        private static final long REFERENCE_MARK = 0x726566L;
+
+        static long shape(Definition definition) {
+            ProtoMessage message = definition.getMessage();
+            if (message.isEnum()) {
+                long hash = ENUM_SEED;
+                int[] numbers = message.getEnumValues().stream().mapToInt(ProtoEnumValue::getNumber).sorted().toArray();
+                for (int number : numbers) {
+                    hash = mix(hash, number);
+                }
+                return finish(hash, numbers.length);
+            }
+
+            long hash = MESSAGE_SEED;
+            List<ProtoField> fields = definition.sortedFields();
+            for (ProtoField field : fields) {
+                hash = mix(hash, field.getNumber());
+                hash = mix(hash, labelCode(field.getLabel()));
+                hash = mix(hash, field.isMap() ? typeCode(field.getKeyType()) : 0);
+                hash = mix(hash, typeCode(field.getType()));
+            }
+
+            long[] oneofs = new long[message.getOneofs().size()];
+            for (int i = 0; i < oneofs.length; i++) {
+                long oneofHash = ONEOF_MARK;
+                int[] numbers = message.getOneofs().get(i).getFields().stream().mapToInt(ProtoField::getNumber).sorted().toArray();
+                for (int number : numbers) {
+                    oneofHash = mix(oneofHash, number);
+                }
+                oneofs[i] = finish(oneofHash, numbers.length);
+            }
+            hash = mixSorted(hash, oneofs);
+
+            long[] nested = definition.getChildren().stream().mapToLong(child -> child.shape).toArray();
+            hash = mix(hash, NESTED_MARK);
+            hash = mixSorted(hash, nested);
+            return finish(hash, fields.size());
+        }
+
+        /**
+         * shape + 按字段编号依次混入引用定义的 shape (找不到时为 0)
+         */
+        static long deep(Definition definition, Registry registry) {
+            long hash = mix(definition.shape, REFERENCE_MARK);
+            if (definition.getMessage().isEnum()) {
+                return finish(hash, 0);
+            }
+            int references = 0;
+            for (ProtoField field : definition.sortedFields()) {
+                if (ConstProtoType.isScalarType(field.getType())) {
+                    continue;
+                }
+                Definition type = registry.resolve(definition, field.getType());
+                hash = mix(hash, field.getNumber());
+                hash = mix(hash, type == null ? 0 : type.shape);
+                references++;
+            }
+            return finish(hash, references);
+        }
+
+        private static long labelCode(String label) {
+            if (label == null) {
+                return 0;
+            }
+            return switch (label) {
+                case "repeated" -> 1;
+                case "optional" -> 2;
+                case "required" -> 3;
+                default -> 4;
+            };
+        }
+
+        private static long typeCode(String type) {
+            if (type == null) {
+                return 0;
+            }
+            return ConstProtoType.isScalarType(type) ? type.hashCode() : CUSTOM_TYPE;
+        }
+
+        private static long mixSorted(long hash, long[] values) {
+            Arrays.sort(values);
+            for (long value : values) {
+                hash = mix(hash, value);
+            }
+            return mix(hash, values.length);
+        }
+
+        private static long mix(long hash, long value) {
+            return (hash ^ fmix(value)) * 0x9E3779B97F4A7C15L + 0x632BE59BD9B4E019L;
+        }
+
+        private static long finish(long hash, long length) {
+            return fmix(hash ^ length);
+        }
+
+        /**
+         * MurmurHash3 的 64 位终结函数
+         */
+        private static long fmix(long value) {
+            value ^= value >>> 33;
+            value *= 0xFF51AFD7ED558CCDL;
+            value ^= value >>> 33;
+            value *= 0xC4CEB9FE1A85EC53L;
+            value ^= value >>> 33;
+            return value;
+        }
+    }
+
+    /**
+     * 定义配对
+     */
+    private static final class Matcher {
+        final Registry oldDefinitions;
+        final Registry newDefinitions;
+        final Deque<Definition> queue = new ArrayDeque<>();    // 待传播的旧定义
+        final Map<Tier, Integer> tierCounts = new EnumMap<>(Tier.class);
+        int pairCount = 0;
+
+        Matcher(Registry oldDefinitions, Registry newDefinitions) {
+            this.oldDefinitions = oldDefinitions;
+            this.newDefinitions = newDefinitions;
+        }
+
+        void match() {
+            // 同名
+            for (Definition definition : oldDefinitions.getDefinitions()) {
+                Definition candidate = newDefinitions.get(definition.getFullName());
+                if (candidate != null) {
+                    pair(definition, candidate, Tier.NAME.confidence, Tier.NAME);
+                }
+            }
+
+            // 相同 cmdId (cmdId 不会被混淆)
+            matchUnique(definition -> definition.getCmdId() == 0 ? NO_KEY : definition.getCmdId(), Tier.CMD_ID);
+
+            // 传播与指纹交替进行, 直到没有新的配对
+            int paired;
+            do {
+                propagate();
+                paired = matchUnique(definition -> definition.deep, Tier.DEEP);
+                propagate();
+                paired += matchUnique(definition -> definition.shape, Tier.SHAPE);
+            } while (paired > 0);
+        }
+
+        // matchUnique 的键函数返回该值时不参与配对
+        private static final long NO_KEY = Long.MIN_VALUE;
+
+        /**
+         * 未配对的定义中, 键在两边都唯一时配对
+         * @return 新配对数
+         */
+        private int matchUnique(ToLongFunction<Definition> key, Tier tier) {
+            Map<Long, Definition> oldIndex = unpairedIndex(oldDefinitions, key);
+            Map<Long, Definition> newIndex = unpairedIndex(newDefinitions, key);
+            int count = 0;
+            for (Map.Entry<Long, Definition> entry : oldIndex.entrySet()) {
+                Definition candidate = newIndex.get(entry.getKey());
+                if (candidate != null && pair(entry.getValue(), candidate, tier.confidence, tier)) {
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        /**
+         * 未配对且有键的定义中, 键唯一的
+         */
+        private static Map<Long, Definition> unpairedIndex(Registry registry, ToLongFunction<Definition> key) {
+            List<Definition> unpaired = registry.getDefinitions().stream()
+                    .filter(definition -> definition.match == null && key.applyAsLong(definition) != NO_KEY)
+                    .toList();
+            return ProtoDefinitionRegistry.uniqueIndex(unpaired, key::applyAsLong);
+        }
+
+        /**
+         * 已配对定义中编号相同的字段引用的定义、以及结构唯一对应的嵌套定义, 也应该配对
+         */
+        private void propagate() {
+            while (!queue.isEmpty()) {
+                Definition definition = queue.removeFirst();
+                Definition match = definition.match;
+                double confidence = definition.confidence * PROPAGATION_FACTOR;
+                if (definition.getMessage().isEnum()) {
+                    continue;
+                }
+
+                Map<Integer, ProtoField> newFields = match.fieldsByNumber();
+                for (ProtoField field : definition.sortedFields()) {
+                    ProtoField newField = newFields.get(field.getNumber());
+                    if (newField == null || ConstProtoType.isScalarType(field.getType()) ||
+                            ConstProtoType.isScalarType(newField.getType())) {
+                        continue;
+                    }
+                    Definition fieldType = oldDefinitions.resolve(definition, field.getType());
+                    Definition newFieldType = newDefinitions.resolve(match, newField.getType());
+                    if (fieldType != null && newFieldType != null) {
+                        pair(fieldType, newFieldType, confidence, Tier.FIELD_TYPE);
+                    }
+                }
+
+                // 嵌套定义中 shape 在两边都唯一的
+                Map<Long, Definition> children = uniqueChildren(definition);
+                Map<Long, Definition> newChildren = uniqueChildren(match);
+                for (Map.Entry<Long, Definition> entry : children.entrySet()) {
+                    Definition candidate = newChildren.get(entry.getKey());
+                    if (candidate != null) {
+                        pair(entry.getValue(), candidate, confidence, Tier.NESTED);
+                    }
+                }
+            }
+        }
+
+        private static Map<Long, Definition> uniqueChildren(Definition definition) {
+            List<Definition> unpaired = definition.getChildren().stream().filter(child -> child.match == null).toList();
+            return ProtoDefinitionRegistry.uniqueIndex(unpaired, child -> child.shape);
+        }
+
+        private boolean pair(Definition definition, Definition candidate, double confidence, Tier tier) {
+            if (definition.match != null || candidate.match != null ||
+                    definition.getMessage().isEnum() != candidate.getMessage().isEnum()) {
+                return false;
+            }
+            definition.match = candidate;
+            candidate.match = definition;
+            definition.confidence = definition.shape == candidate.shape ? confidence : confidence * SHAPE_CHANGED_FACTOR;
+            queue.addLast(definition);
+            tierCounts.merge(tier, 1, Integer::sum);
+            pairCount++;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,249 @@
+package cn.hongchengq.proto_script_jnl.opcodes;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * 生成 cmdId 查找表类 (与 PacketOpcodes.java 一同输出)
+ * <p>
+ * 生成的类不依赖反射和其它类, 提供 cmdId -> 名称、名称 -> cmdId、cmdId -> 是否含 XOR 字段 的常数时间查找, 查找时不创建对象:
+ * <pre>
+ * cmdId 分布紧凑   以 cmdId - MIN_CMD_ID 为下标的数组
+ * 否则            开放寻址哈希表 (线性探测, 装载率不超过 1/2)
+ * 名称            开放寻址哈希表, 使用 String#hashCode (字符串自带缓存)
+ * </pre>
+ * 协议数据以字符串常量分块写入, 在类初始化时解析一次, 避免数组初始化代码超出单个方法 64KB 的限制
+ */
+@Slf4j
+public class OpcodeTableWriter {
+    // 每个字符串常量的最大字符数, 常量池中单个字符串不能超过 65535 字节
+    private static final int DATA_CHUNK_CHARS = 16 * 1024;
+    // cmdId 跨度不超过 max(协议数 * 4, 65536) 时使用数组
+    private static final int DENSE_MIN_RANGE = 65536;
+    private static final int DENSE_RANGE_FACTOR = 4;
+
+    /**
+     * 一个协议
+     * @param xor 是否包含带 CUSTOM_ENCRYPT 的字段
+     */
+    public record Entry(int cmdId, String name, boolean xor) {
+    }
+
+    /**
+     * 写出查找表类
+     * @param file 输出文件, 文件名应与 className 一致
+     * @param packageHeader 文件第一行 (package 声明)
+     * @param className 类名
+     * @param entries 协议, 按出现顺序; 同名或同 cmdId 时以后出现的为准
+     * @return 写入的协议数
+     */
+    public static int write(Path file, String packageHeader, String className, List<Entry> entries) throws IOException {
+        List<Entry> table = distinct(entries);
+
+        int minCmdId = table.stream().mapToInt(Entry::cmdId).min().orElse(0);
+        int maxCmdId = table.stream().mapToInt(Entry::cmdId).max().orElse(0);
+        long range = table.isEmpty() ? 0 : (long) maxCmdId - minCmdId + 1;
+        boolean dense = range <= Math.max((long) table.size() * DENSE_RANGE_FACTOR, DENSE_MIN_RANGE);
+        int idSlots = dense ? (int) range : hashTableSize(table.size());
+
+        try (BufferedWriter writer = Files.newBufferedWriter(file)) {
+            writer.write(TEMPLATE.formatted(packageHeader, className, table.size(), minCmdId, maxCmdId,
+                    dataChunks(table), dense, idSlots, hashTableSize(table.size()), className));
+        }
+        log.info("{} 已生成完毕，共 {} 个协议，cmdId 查找方式: {}", file, table.size(), dense ? "数组" : "哈希表");
+        return table.size();
+    }
+
+    /**
+     * 去掉重复的名称与 cmdId, 保留后出现的, 结果按出现顺序排列
+     */
+    private static List<Entry> distinct(List<Entry> entries) {
+        Map<String, Entry> byName = new LinkedHashMap<>();
+        for (Entry entry : entries) {
+            byName.remove(entry.name());
+            byName.put(entry.name(), entry);
+        }
+
+        Map<Integer, Entry> byCmdId = new LinkedHashMap<>();
+        for (Entry entry : byName.values()) {
+            Entry previous = byCmdId.remove(entry.cmdId());
+            if (previous != null) {
+                log.warn("cmdId {} 同时属于 {} 与 {}，查找表中使用 {}", entry.cmdId(), previous.name(), entry.name(), entry.name());
+            }
+            byCmdId.put(entry.cmdId(), entry);
+        }
+        return new ArrayList<>(byCmdId.values());
+    }
+
+    /**
+     * 不小于 2 * size 的 2 的幂, 保证至少有一个空槽位
+     */
+    private static int hashTableSize(int size) {
+        return Integer.highestOneBit(Math.max(1, size * 2 - 1)) << 1;
+    }
+
+    /**
+     * 协议数据的字符串常量, 每项为 "cmdId 名称 0/1\n"
+     */
+    private static String dataChunks(List<Entry> table) {
+        StringBuilder chunks = new StringBuilder();
+        StringBuilder chunk = new StringBuilder();
+        for (Entry entry : table) {
+            String item = entry.cmdId() + " " + entry.name() + " " + (entry.xor() ? 1 : 0);
+            if (chunk.length() + item.length() + 2 > DATA_CHUNK_CHARS) {
+                chunks.append("            \"").append(chunk).append("\",\n");
+                chunk.setLength(0);
+            }
+            // 名称为标识符, 不需要转义
+            chunk.append(item).append("\\n");
+        }
+        if (!chunk.isEmpty()) {
+            chunks.append("            \"").append(chunk).append("\",\n");
+        }
+        return chunks.toString();
+    }
+
+    private static final String TEMPLATE = """
+            %s
+
+            /**
+             * cmdId 与 message 名称的查找表, 由 proto_script_jnl 生成 (与 PacketOpcodes 使用相同的数据), 请勿手动修改
+             * <p>
+             * 不使用反射, 查找均为常数时间且不创建对象. 每个协议另有从 0 开始的连续编号 (index),
+             * 可以直接作为处理器数组的下标
+             */
+            public final class %s {
+                /** 协议数量 */
+                public static final int SIZE = %d;
+                public static final int MIN_CMD_ID = %d;
+                public static final int MAX_CMD_ID = %d;
+
+                // 每项为 "cmdId 名称 是否含XOR字段(0/1)" 并以换行结尾, 分块存放以避开单个字符串常量的长度限制
+                private static final String[] DATA = {
+            %s    };
+
+                // true 时 ID_SLOTS 以 cmdId - MIN_CMD_ID 为下标, 否则为开放寻址哈希表
+                private static final boolean DENSE = %b;
+
+                private static final int[] CMD_IDS = new int[SIZE];
+                private static final String[] NAMES = new String[SIZE];
+                private static final boolean[] XOR = new boolean[SIZE];
+                // 值为 index + 1, 0 表示空
+                private static final int[] ID_SLOTS = new int[%d];
+                private static final int[] NAME_SLOTS = new int[%d];
+
+                static {
+                    int index = 0;
+                    for (String chunk : DATA) {
+                        int position = 0;
+                        while (position < chunk.length()) {
+                            int nameStart = chunk.indexOf(' ', position) + 1;
+                            int flagStart = chunk.indexOf(' ', nameStart) + 1;
+                            CMD_IDS[index] = Integer.parseInt(chunk, position, nameStart - 1, 10);
+                            NAMES[index] = chunk.substring(nameStart, flagStart - 1);
+                            XOR[index] = chunk.charAt(flagStart) == '1';
+                            position = flagStart + 2;
+                            index++;
+                        }
+                    }
+
+                    for (int i = 0; i < SIZE; i++) {
+                        if (DENSE) {
+                            ID_SLOTS[CMD_IDS[i] - MIN_CMD_ID] = i + 1;
+                        } else {
+                            ID_SLOTS[emptySlot(ID_SLOTS, mix(CMD_IDS[i]))] = i + 1;
+                        }
+                        NAME_SLOTS[emptySlot(NAME_SLOTS, mix(NAMES[i].hashCode()))] = i + 1;
+                    }
+                }
+
+                private %s() {
+                }
+
+                /**
+                 * cmdId 对应的编号, 未知时返回 -1
+                 */
+                public static int indexOf(int cmdId) {
+                    if (DENSE) {
+                        int offset = cmdId - MIN_CMD_ID;
+                        return offset >= 0 && offset < ID_SLOTS.length ? ID_SLOTS[offset] - 1 : -1;
+                    }
+                    int mask = ID_SLOTS.length - 1;
+                    for (int slot = mix(cmdId) & mask; ; slot = (slot + 1) & mask) {
+                        int entry = ID_SLOTS[slot];
+                        if (entry == 0 || CMD_IDS[entry - 1] == cmdId) {
+                            return entry - 1;
+                        }
+                    }
+                }
+
+                /**
+                 * 名称对应的编号, 未知时返回 -1
+                 */
+                public static int indexOf(String name) {
+                    int mask = NAME_SLOTS.length - 1;
+                    for (int slot = mix(name.hashCode()) & mask; ; slot = (slot + 1) & mask) {
+                        int entry = NAME_SLOTS[slot];
+                        if (entry == 0 || NAMES[entry - 1].equals(name)) {
+                            return entry - 1;
+                        }
+                    }
+                }
+
+                /**
+                 * cmdId 对应的名称, 未知时返回 null
+                 */
+                public static String nameOf(int cmdId) {
+                    int index = indexOf(cmdId);
+                    return index < 0 ? null : NAMES[index];
+                }
+
+                /**
+                 * 名称对应的 cmdId, 未知时返回 0
+                 */
+                public static int cmdIdOf(String name) {
+                    int index = indexOf(name);
+                    return index < 0 ? 0 : CMD_IDS[index];
+                }
+
+                /**
+                 * 是否包含带 CUSTOM_ENCRYPT 的字段 (即生成的 enum CmdId 中有 IS_XOR_VALUE_FIELDS), 未知时返回 false
+                 */
+                public static boolean isXor(int cmdId) {
+                    int index = indexOf(cmdId);
+                    return index >= 0 && XOR[index];
+                }
+
+                public static int cmdIdAt(int index) {
+                    return CMD_IDS[index];
+                }
+
+                public static String nameAt(int index) {
+                    return NAMES[index];
+                }
+
+                public static boolean isXorAt(int index) {
+                    return XOR[index];
+                }
+
+                private static int mix(int key) {
+                    int h = key * 0x9E3779B9;
+                    return h ^ (h >>> 16);
+                }
+
+                private static int emptySlot(int[] slots, int hash) {
+                    int mask = slots.length - 1;
+                    int slot = hash & mask;
+                    while (slots[slot] != 0) {
+                        slot = (slot + 1) & mask;
+                    }
+                    return slot;
+                }
+            }
+            """;
+}
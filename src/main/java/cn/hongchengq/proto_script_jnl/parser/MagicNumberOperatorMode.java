@@ -0,0 +1,12 @@
+package cn.hongchengq.proto_script_jnl.parser;
+
+/**
+ * CUSTOM_ENCRYPT 魔数运算模式
+ */
+public enum MagicNumberOperatorMode {
+    none,
+    xorAndAdder,        // 先xor再加
+    xorAndSubtract,     // 先xor再减
+    adderAndXor,        // 先加再xor
+    subtractAndXor      // 先减再xor
+}
@@ -0,0 +1,80 @@
+package cn.hongchengq.proto_script_jnl.parser;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * 内存映射的纯 ASCII 文件, 每个字节对应一个字符
+ * <p>
+ * 文件内容不占用堆内存, 解析后的行与 message 只记录位置, 输出时再从映射中读取
+ */
+final class MappedAsciiText implements CharSequence {
+    private final ByteBuffer buffer;
+
+    private MappedAsciiText(ByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    /**
+     * 映射文件
+     * @return 文件不是纯 ASCII 或超过 2GB 时返回 null
+     */
+    static MappedAsciiText map(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                return null;
+            }
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            return isAscii(buffer) ? new MappedAsciiText(buffer) : null;
+        }
+    }
+
+    /**
+     * 每次检查 8 个字节的最高位
+     */
+    private static boolean isAscii(ByteBuffer buffer) {
+        int size = buffer.limit();
+        int i = 0;
+        for (; i + Long.BYTES <= size; i += Long.BYTES) {
+            if ((buffer.getLong(i) & 0x8080808080808080L) != 0) {
+                return false;
+            }
+        }
+        for (; i < size; i++) {
+            if (buffer.get(i) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int length() {
+        return buffer.limit();
+    }
+
+    @Override
+    public char charAt(int index) {
+        return (char) buffer.get(index);
+    }
+
+    /**
+     * 返回 [start, end) 的内容, 结果为 String
+     */
+    @Override
+    public String subSequence(int start, int end) {
+        byte[] bytes = new byte[end - start];
+        buffer.get(start, bytes);
+        return new String(bytes, StandardCharsets.ISO_8859_1);
+    }
+
+    @Override
+    public String toString() {
+        return subSequence(0, length());
+    }
+}
@@ -0,0 +1,123 @@
+package cn.hongchengq.proto_script_jnl.parser;
+
+import cn.hongchengq.proto_script_jnl.ConstProtoType;
+import lombok.Getter;
+
+import java.util.*;
+
+/**
+ * 登记到 ProtoDefinitionRegistry 中的 message/enum 定义 (含嵌套), 记录外层、全限定名与 cmdId
+ * <p>
+ * 还原 (RevertMapping)、迁移 (MappingMigration) 与合并 (ProtoMerger) 共用这里的 cmdId 识别与字段对齐规则;
+ * 需要额外状态时继承本类, D 为子类自身
+ */
+@Getter
+public class ProtoDefinition<D extends ProtoDefinition<D>> {
+    // Split 在带 cmdId 的 message 第一行之后插入的 enum CmdId { CMD_ID = N; }
+    public static final String GENERATED_CMD_ID_ENUM = "CmdId";
+    public static final String GENERATED_CMD_ID_VALUE = "CMD_ID";
+
+    private final ProtoMessage message;
+    private final D parent;                         // 嵌套时的外层, 顶层为 null
+    private final String fullName;                  // Outer.Inner
+    private final int cmdId;
+    private final List<D> children = new ArrayList<>();
+
+    public ProtoDefinition(ProtoMessage message, D parent) {
+        this.message = message;
+        this.parent = parent;
+        this.fullName = parent == null ? message.getName() : parent.getFullName() + "." + message.getName();
+        this.cmdId = cmdIdOf(message);
+    }
+
+    /**
+     * 直接字段与 oneof 中的字段
+     */
+    public List<ProtoField> allFields() {
+        List<ProtoField> fields = new ArrayList<>(message.getFields());
+        for (ProtoOneof oneof : message.getOneofs()) {
+            fields.addAll(oneof.getFields());
+        }
+        return fields;
+    }
+
+    /**
+     * 按编号排序的字段
+     */
+    public List<ProtoField> sortedFields() {
+        List<ProtoField> fields = allFields();
+        fields.sort(Comparator.comparingInt(ProtoField::getNumber));
+        return fields;
+    }
+
+    /**
+     * 按编号索引字段, 编号重复时以第一个为准
+     */
+    public Map<Integer, ProtoField> fieldsByNumber() {
+        Map<Integer, ProtoField> fields = new HashMap<>();
+        for (ProtoField field : allFields()) {
+            fields.putIfAbsent(field.getNumber(), field);
+        }
+        return fields;
+    }
+
+    /**
+     * 顶层的 "// CmdId:" 注释, 或 Split 生成的 enum CmdId 中的 CMD_ID
+     */
+    public static int cmdIdOf(ProtoMessage message) {
+        if (message.getCmdId() != 0) {
+            return message.getCmdId();
+        }
+        ProtoMessage cmdIdEnum = cmdIdEnum(message);
+        return cmdIdEnum == null ? 0 : cmdIdValue(cmdIdEnum);
+    }
+
+    /**
+     * 嵌套定义中包含 CMD_ID 的 enum CmdId, 没有时返回 null
+     */
+    public static ProtoMessage cmdIdEnum(ProtoMessage message) {
+        for (ProtoMessage nested : message.getNestedMessages()) {
+            if (nested.isEnum() && nested.getName().equals(GENERATED_CMD_ID_ENUM) &&
+                    nested.getEnumValues().stream().anyMatch(value -> value.getName().equals(GENERATED_CMD_ID_VALUE))) {
+                return nested;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * enum CmdId 中 CMD_ID 的值
+     */
+    public static int cmdIdValue(ProtoMessage cmdIdEnum) {
+        for (ProtoEnumValue value : cmdIdEnum.getEnumValues()) {
+            if (value.getName().equals(GENERATED_CMD_ID_VALUE)) {
+                return value.getNumber();
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * 编号相同的两个字段类型是否兼容: 标号与 map 相同, 标量类型必须相同, 自定义类型只要求都是自定义类型
+     */
+    public static boolean isCompatible(ProtoField field, ProtoField other) {
+        if (field.isMap() != other.isMap() || field.isRepeated() != other.isRepeated()) {
+            return false;
+        }
+        boolean scalar = ConstProtoType.isScalarType(field.getType());
+        boolean otherScalar = ConstProtoType.isScalarType(other.getType());
+        if (scalar || otherScalar) {
+            return field.getType().equals(other.getType());
+        }
+        return true;
+    }
+
+    /**
+     * oneof 包含的字段编号, 用于对齐两边的 oneof
+     */
+    public static Set<Integer> fieldNumbers(ProtoOneof oneof) {
+        Set<Integer> numbers = new HashSet<>();
+        oneof.getFields().forEach(field -> numbers.add(field.getNumber()));
+        return numbers;
+    }
+}
@@ -0,0 +1,83 @@
+package cn.hongchengq.proto_script_jnl.parser;
+
+import lombok.Getter;
+
+import java.util.*;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * 一组 proto 中所有 message/enum (含嵌套) 的登记表, 按全限定名索引, 并按 protobuf 的作用域规则解析字段类型
+ * @param <D> 登记的定义类型
+ */
+public class ProtoDefinitionRegistry<D extends ProtoDefinition<D>> {
+    private final BiFunction<ProtoMessage, D, D> factory;  // (message, 外层) -> 定义
+    @Getter
+    private final List<D> definitions = new ArrayList<>(); // 外层在前, 按登记顺序
+    private final Map<String, D> byFullName = new HashMap<>();
+
+    public ProtoDefinitionRegistry(BiFunction<ProtoMessage, D, D> factory) {
+        this.factory = factory;
+    }
+
+    /**
+     * 登记顶层定义及其所有嵌套定义
+     */
+    public void register(ProtoMessage message) {
+        register(message, null);
+    }
+
+    private void register(ProtoMessage message, D parent) {
+        D definition = factory.apply(message, parent);
+        // 同名定义以第一个为准
+        if (byFullName.putIfAbsent(definition.getFullName(), definition) != null) {
+            return;
+        }
+        definitions.add(definition);
+        if (parent != null) {
+            parent.getChildren().add(definition);
+        }
+        for (ProtoMessage nested : message.getNestedMessages()) {
+            register(nested, definition);
+        }
+    }
+
+    public D get(String fullName) {
+        return byFullName.get(fullName);
+    }
+
+    /**
+     * 按 protobuf 的作用域规则解析字段类型: 从当前定义开始逐层向外查找
+     */
+    public D resolve(D scope, String type) {
+        if (type == null) {
+            return null;
+        }
+        if (type.startsWith(".")) {
+            return byFullName.get(type.substring(1));
+        }
+        for (D current = scope; current != null; current = current.getParent()) {
+            D found = byFullName.get(current.getFullName() + "." + type);
+            if (found != null) {
+                return found;
+            }
+        }
+        return byFullName.get(type);
+    }
+
+    /**
+     * 只保留 key 唯一的元素, 用于两边都唯一时配对
+     */
+    public static <K, T> Map<K, T> uniqueIndex(Collection<T> items, Function<T, K> key) {
+        Map<K, T> index = new HashMap<>();
+        Set<K> duplicates = new HashSet<>();
+        for (T item : items) {
+            K k = key.apply(item);
+            if (index.putIfAbsent(k, item) != null) {
+                duplicates.add(k);
+            }
+        }
+        duplicates.forEach(index::remove);
+        return index;
+    }
+}
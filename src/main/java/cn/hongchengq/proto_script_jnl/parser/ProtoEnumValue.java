@@ -0,0 +1,12 @@
+package cn.hongchengq.proto_script_jnl.parser;
+
+import lombok.Getter;
+
+/**
+ * enum 中的值
+ */
+@Getter
+public class ProtoEnumValue {
+    String name;
+    int number;
+}
@@ -0,0 +1,22 @@
+package cn.hongchengq.proto_script_jnl.parser;
+
+import lombok.Getter;
+
+/**
+ * message 中的字段
+ */
+@Getter
+public class ProtoField {
+    String label;           // repeated / optional / required, 没有时为 null
+    boolean map;            // 是否为 map<keyType, type>
+    String keyType;         // map 的键类型
+    String type;            // 字段类型, map 时为值类型
+    String name;            // 字段名
+    int number;             // 字段编号
+    int line;               // 所在行
+    ProtoXorField xor;      // CUSTOM_ENCRYPT 信息, 没有时为 null
+
+    public boolean isRepeated() {
+        return "repeated".equals(label);
+    }
+}
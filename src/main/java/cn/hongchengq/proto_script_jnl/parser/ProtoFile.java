@@ -0,0 +1,67 @@
+package cn.hongchengq.proto_script_jnl.parser;
+
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 解析后的 proto 文件
+ * 源码只保留一份, 每一行通过起止位置访问
+ */
+public class ProtoFile {
+    private final CharSequence source;
+    private final int[] lineStarts;
+    private final int[] lineEnds;
+
+    @Getter final List<String> headerLines = new ArrayList<>();      // 第一个定义之前的 syntax/package/import 行
+    @Getter final List<ProtoMessage> messages = new ArrayList<>();   // 顶层 message/enum, 按出现顺序
+    @Getter boolean complete = true;                                // 块与块注释都已闭合且没有多余的 '}' (解析片段时用于检查边界)
+
+    ProtoFile(CharSequence source, int[] lineStarts, int[] lineEnds) {
+        this.source = source;
+        this.lineStarts = lineStarts;
+        this.lineEnds = lineEnds;
+    }
+
+    public int getLineCount() {
+        return lineStarts.length;
+    }
+
+    /**
+     * 第 index 行的内容 (不含换行符)
+     */
+    public String line(int index) {
+        return source.subSequence(lineStarts[index], lineEnds[index]).toString();
+    }
+
+    /**
+     * 把第 index 行的内容 (不含换行符) 追加到 builder, 不创建字符串
+     */
+    public void appendLine(StringBuilder builder, int index) {
+        builder.append(source, lineStarts[index], lineEnds[index]);
+    }
+
+    /**
+     * 第 index 行去掉首尾空白后是否以 prefix 开头, 与 line(index).trim().startsWith(prefix) 相同, 不创建字符串
+     */
+    public boolean lineStartsWith(int index, String prefix) {
+        int start = lineStarts[index];
+        int end = lineEnds[index];
+        while (start < end && source.charAt(start) <= ' ') {
+            start++;
+        }
+        while (end > start && source.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        if (end - start < prefix.length()) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i++) {
+            if (source.charAt(start + i) != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
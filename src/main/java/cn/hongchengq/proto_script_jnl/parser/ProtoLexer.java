@@ -0,0 +1,225 @@
+package cn.hongchengq.proto_script_jnl.parser;
+
+import java.util.Arrays;
+
+/**
+ * proto 词法分析器
+ * <p>
+ * 游标式实现, 不创建 token 对象: 每次 next() 后通过 type/start/end/line 读取当前 token;
+ * 行注释作为 COMMENT token 返回 (CmdId 和 CUSTOM_ENCRYPT 都写在行注释里), 块注释直接跳过.
+ * 扫描过程中同时记录每一行的起止位置, 行的划分与 Files#readAllLines 一致 (\n、\r、\r\n)
+ */
+final class ProtoLexer {
+    static final int EOF = 0;
+    static final int IDENT = 1;     // 标识符, 包含 '.' 分隔的全限定名
+    static final int NUMBER = 2;
+    static final int STRING = 3;
+    static final int SYMBOL = 4;    // 单个符号 { } < > , ; = ( ) [ ] - 等
+    static final int COMMENT = 5;   // 行注释 (含 //)
+
+    private final CharSequence source;
+    private final int length;
+    private int position = 0;
+
+    // 行信息
+    private int[] lineStarts = new int[1024];
+    private int[] lineEnds = new int[1024];
+    private int lineCount = 0;
+    private int currentLineStart = 0;
+
+    // 当前 token
+    int type = EOF;
+    int start;
+    int end;
+    int line;
+    boolean firstOnLine;    // 是否为所在行的第一个 token
+    boolean unterminatedComment;    // 是否有直到文件末尾都没有结束的块注释
+    private int lastTokenLine = -1;
+
+    ProtoLexer(CharSequence source) {
+        this.source = source;
+        this.length = source.length();
+    }
+
+    /**
+     * 读取下一个 token
+     * @return 是否读到了 token (false 表示 EOF)
+     */
+    boolean next() {
+        skipWhitespaceAndBlockComments();
+
+        if (position >= length) {
+            type = EOF;
+            start = end = length;
+            line = lineCount;
+            return false;
+        }
+
+        start = position;
+        line = lineCount;
+        char c = source.charAt(position);
+
+        if (c == '/' && position + 1 < length && source.charAt(position + 1) == '/') {
+            type = COMMENT;
+            while (position < length && !isLineBreak(source.charAt(position))) {
+                position++;
+            }
+        } else if (isIdentifierStart(c) || (c == '.' && position + 1 < length && isIdentifierStart(source.charAt(position + 1)))) {
+            type = IDENT;
+            position++;
+            while (position < length && (isIdentifierPart(source.charAt(position)) || source.charAt(position) == '.')) {
+                position++;
+            }
+        } else if (c >= '0' && c <= '9') {
+            type = NUMBER;
+            position++;
+            while (position < length && (isIdentifierPart(source.charAt(position)) || source.charAt(position) == '.')) {
+                position++;
+            }
+        } else if (c == '"' || c == '\'') {
+            type = STRING;
+            position++;
+            while (position < length) {
+                char s = source.charAt(position);
+                if (s == '\\' && position + 1 < length && !isLineBreak(source.charAt(position + 1))) {
+                    position += 2;
+                } else if (s == c) {
+                    position++;
+                    break;
+                } else if (isLineBreak(s)) {
+                    // 未闭合的字符串在行尾结束
+                    break;
+                } else {
+                    position++;
+                }
+            }
+        } else {
+            type = SYMBOL;
+            position++;
+        }
+
+        end = position;
+        firstOnLine = lastTokenLine != line;
+        lastTokenLine = line;
+        return true;
+    }
+
+    /**
+     * 当前符号 token 的字符
+     */
+    char symbol() {
+        return source.charAt(start);
+    }
+
+    boolean isSymbol(char c) {
+        return type == SYMBOL && source.charAt(start) == c;
+    }
+
+    String text() {
+        return source.subSequence(start, end).toString();
+    }
+
+    /**
+     * 比较 [start, end) 与 text 是否相同, 不创建字符串
+     */
+    boolean regionEquals(int regionStart, int regionEnd, String text) {
+        if (regionEnd - regionStart != text.length()) {
+            return false;
+        }
+        for (int i = 0; i < text.length(); i++) {
+            if (source.charAt(regionStart + i) != text.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    CharSequence source() {
+        return source;
+    }
+
+    /**
+     * 扫描结束后的行起点, 长度为 lineCount
+     */
+    int[] lineStarts() {
+        finishLines();
+        return Arrays.copyOf(lineStarts, lineCount);
+    }
+
+    /**
+     * 扫描结束后的行终点 (不含换行符), 长度为 lineCount
+     */
+    int[] lineEnds() {
+        finishLines();
+        return Arrays.copyOf(lineEnds, lineCount);
+    }
+
+    private void skipWhitespaceAndBlockComments() {
+        while (position < length) {
+            char c = source.charAt(position);
+            if (isLineBreak(c)) {
+                consumeLineBreak();
+            } else if (c == ' ' || c == '\t' || c == '\f' || c == 0x0B) {
+                position++;
+            } else if (c == '/' && position + 1 < length && source.charAt(position + 1) == '*') {
+                position += 2;
+                unterminatedComment = true;
+                while (position < length) {
+                    char b = source.charAt(position);
+                    if (b == '*' && position + 1 < length && source.charAt(position + 1) == '/') {
+                        position += 2;
+                        unterminatedComment = false;
+                        break;
+                    }
+                    if (isLineBreak(b)) {
+                        consumeLineBreak();
+                    } else {
+                        position++;
+                    }
+                }
+            } else {
+                return;
+            }
+        }
+    }
+
+    private void consumeLineBreak() {
+        int lineEnd = position;
+        if (source.charAt(position) == '\r' && position + 1 < length && source.charAt(position + 1) == '\n') {
+            position++;
+        }
+        position++;
+        addLine(currentLineStart, lineEnd);
+        currentLineStart = position;
+    }
+
+    private void finishLines() {
+        // 最后一行没有换行符时同样算作一行
+        if (position >= length && currentLineStart < length) {
+            addLine(currentLineStart, length);
+            currentLineStart = length;
+        }
+    }
+
+    private void addLine(int lineStart, int lineEnd) {
+        if (lineCount == lineStarts.length) {
+            lineStarts = Arrays.copyOf(lineStarts, lineCount * 2);
+            lineEnds = Arrays.copyOf(lineEnds, lineCount * 2);
+        }
+        lineStarts[lineCount] = lineStart;
+        lineEnds[lineCount] = lineEnd;
+        lineCount++;
+    }
+
+    private static boolean isLineBreak(char c) {
+        return c == '\n' || c == '\r';
+    }
+
+    private static boolean isIdentifierStart(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_';
+    }
+
+    private static boolean isIdentifierPart(char c) {
+        return isIdentifierStart(c) || (c >= '0' && c <= '9');
+    }
+}
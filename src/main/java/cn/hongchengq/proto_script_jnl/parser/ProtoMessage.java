@@ -0,0 +1,38 @@
+package cn.hongchengq.proto_script_jnl.parser;
+
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * message 或 enum 定义
+ * 顶层定义额外记录 cmdId、源码行范围, 以及整棵嵌套树按源码顺序汇总的引用类型、嵌套名称和 xor 字段
+ */
+@Getter
+public class ProtoMessage {
+    public enum Kind {
+        MESSAGE,
+        ENUM
+    }
+
+    Kind kind;
+    String name;
+    int cmdId = 0;                                          // 顶层定义前的 // CmdId: 注释, 没有时为 0
+    int firstLine;                                          // 定义开始的行
+    int lastLine;                                           // 定义结束 "}" 所在的行
+
+    List<ProtoField> fields = new ArrayList<>();            // 直接字段 (不含 oneof 内字段)
+    List<ProtoOneof> oneofs = new ArrayList<>();
+    List<ProtoMessage> nestedMessages = new ArrayList<>();  // 嵌套的 message/enum
+    List<ProtoEnumValue> enumValues = new ArrayList<>();    // kind 为 ENUM 时的值
+
+    // 以下仅顶层定义记录, 包含所有嵌套层级
+    List<String> referencedTypes = new ArrayList<>();       // 引用的自定义类型 (取全限定名第一段), 按出现顺序, 可能重复
+    List<String> nestedNames = new ArrayList<>();           // 嵌套的 message/enum/oneof 名称
+    List<ProtoXorField> xorFields = new ArrayList<>();      // 带 CUSTOM_ENCRYPT 的字段, 按出现顺序
+
+    public boolean isEnum() {
+        return kind == Kind.ENUM;
+    }
+}
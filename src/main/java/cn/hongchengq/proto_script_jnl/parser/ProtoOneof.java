@@ -0,0 +1,15 @@
+package cn.hongchengq.proto_script_jnl.parser;
+
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * message 中的 oneof
+ */
+@Getter
+public class ProtoOneof {
+    String name;
+    List<ProtoField> fields = new ArrayList<>();
+}
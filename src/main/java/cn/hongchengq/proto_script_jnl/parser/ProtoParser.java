@@ -0,0 +1,569 @@
+package cn.hongchengq.proto_script_jnl.parser;
+
+import cn.hongchengq.proto_script_jnl.ConstProtoType;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * proto 语法分析器
+ * <p>
+ * 单次扫描 ProtoLexer 产生的 token, 构建 message/enum/oneof/字段 的结构化模型;
+ * 以 ';' '{' '}' 为界收集语句, 对替换后名称中夹带空格等不规范写法保持宽松
+ * <p>
+ * 支持的子集: message、enum、oneof、repeated/optional/map 字段、文件头 syntax/package/import、
+ * 顶层定义前的 "// CmdId: N" 注释、字段行尾的 "// CUSTOM_ENCRYPT: (VALUE op a) op b" 注释
+ */
+@Slf4j
+public class ProtoParser {
+    private static final String CUSTOM_ENCRYPT = "CUSTOM_ENCRYPT:";
+
+    // 块类型
+    private static final int FRAME_MESSAGE = 0;
+    private static final int FRAME_ENUM = 1;
+    private static final int FRAME_ONEOF = 2;
+    private static final int FRAME_OTHER = 3;   // service 等不关心的块
+
+    private final ProtoLexer lexer;
+    private final List<ProtoMessage> messages = new ArrayList<>();
+    private final List<Integer> headerLineIndexes = new ArrayList<>();
+
+    // 块栈
+    private int[] frameKinds = new int[16];
+    private Object[] frameOwners = new Object[16];     // ProtoMessage 或 ProtoOneof
+    private int depth = 0;
+
+    // 当前语句的 token
+    private int[] tokenTypes = new int[32];
+    private int[] tokenStarts = new int[32];
+    private int[] tokenEnds = new int[32];
+    private int[] tokenLines = new int[32];
+    private int tokenCount = 0;
+
+    private ProtoMessage top;           // 当前所在的顶层定义
+    private int pendingCmdId = 0;       // 最后一次读取的 cmdId, 由下一个顶层定义使用
+    private ProtoField lastField;       // 最近解析的字段, 用于关联同一行的 CUSTOM_ENCRYPT 注释
+    private int lastFieldLine = -1;
+    private boolean complete = true;    // 没有多余的 '}'
+
+    private ProtoParser(CharSequence source) {
+        this.lexer = new ProtoLexer(source);
+    }
+
+    /**
+     * 解析 proto 文件
+     */
+    public static ProtoFile parse(Path path) throws IOException {
+        return parse(Files.readString(path));
+    }
+
+    /**
+     * 解析 proto 文件, 纯 ASCII 文件以内存映射方式读取, 源码不占用堆内存
+     * 映射在 ProtoFile 不再被引用后才会释放, 期间不应改写该文件; 含非 ASCII 字符时与 parse(Path) 相同
+     */
+    public static ProtoFile parseMapped(Path path) throws IOException {
+        MappedAsciiText text = MappedAsciiText.map(path);
+        if (text == null) {
+            return parse(path);
+        }
+        return parse(text);
+    }
+
+    /**
+     * 解析 proto 源码
+     */
+    public static ProtoFile parse(CharSequence source) {
+        return new ProtoParser(source).parseFile();
+    }
+
+    private ProtoFile parseFile() {
+        while (lexer.next()) {
+            if (lexer.type == ProtoLexer.COMMENT) {
+                comment();
+                continue;
+            }
+
+            if (lexer.type == ProtoLexer.SYMBOL) {
+                char c = lexer.symbol();
+                if (c == '{') {
+                    openBlock();
+                    tokenCount = 0;
+                    continue;
+                }
+                if (c == ';') {
+                    statement(lexer.line);
+                    tokenCount = 0;
+                    continue;
+                }
+                if (c == '}') {
+                    // 缺少 ';' 的最后一条语句
+                    statement(lexer.line);
+                    tokenCount = 0;
+                    closeBlock(lexer.line);
+                    continue;
+                }
+            }
+            pushToken();
+        }
+
+        // 未闭合的块在文件末尾结束
+        if (depth > 0 || lexer.unterminatedComment) {
+            complete = false;
+        }
+        while (depth > 0) {
+            closeBlock(Math.max(0, lexer.line - 1));
+        }
+
+        ProtoFile file = new ProtoFile(lexer.source(), lexer.lineStarts(), lexer.lineEnds());
+        for (int index : headerLineIndexes) {
+            file.headerLines.add(file.line(index));
+        }
+        file.messages.addAll(messages);
+        file.complete = complete;
+        return file;
+    }
+
+    private void pushToken() {
+        if (tokenCount == tokenTypes.length) {
+            int capacity = tokenCount * 2;
+            tokenTypes = Arrays.copyOf(tokenTypes, capacity);
+            tokenStarts = Arrays.copyOf(tokenStarts, capacity);
+            tokenEnds = Arrays.copyOf(tokenEnds, capacity);
+            tokenLines = Arrays.copyOf(tokenLines, capacity);
+        }
+        tokenTypes[tokenCount] = lexer.type;
+        tokenStarts[tokenCount] = lexer.start;
+        tokenEnds[tokenCount] = lexer.end;
+        tokenLines[tokenCount] = lexer.line;
+        tokenCount++;
+    }
+
+    /**
+     * '{' - 进入 message/enum/oneof 或其它块
+     */
+    private void openBlock() {
+        // 定义关键字后面紧跟名称, 名称之后到 '{' 之间的内容忽略 (替换后的名称可能带空格)
+        int keyword = -1;
+        for (int i = 0; i + 1 < tokenCount; i++) {
+            if (tokenTypes[i] == ProtoLexer.IDENT && tokenTypes[i + 1] == ProtoLexer.IDENT && isNestingKeyword(i)) {
+                keyword = i;
+                break;
+            }
+        }
+
+        if (keyword < 0) {
+            pushFrame(FRAME_OTHER, null);
+            return;
+        }
+
+        boolean isOneof = tokenIs(keyword, "oneof");
+        String name = tokenText(keyword + 1);
+        Object parent = depth > 0 ? frameOwners[depth - 1] : null;
+
+        if (depth == 0) {
+            if (isOneof) {
+                pushFrame(FRAME_OTHER, null);
+                return;
+            }
+            ProtoMessage message = newMessage(keyword, name);
+            message.cmdId = pendingCmdId;
+            message.firstLine = tokenLines[keyword];
+            pendingCmdId = 0;
+            messages.add(message);
+            top = message;
+            pushFrame(message.isEnum() ? FRAME_ENUM : FRAME_MESSAGE, message);
+            return;
+        }
+
+        if (top != null) {
+            top.nestedNames.add(name);
+        }
+
+        if (isOneof) {
+            ProtoOneof oneof = new ProtoOneof();
+            oneof.name = name;
+            if (parent instanceof ProtoMessage parentMessage && frameKinds[depth - 1] == FRAME_MESSAGE) {
+                parentMessage.oneofs.add(oneof);
+            }
+            pushFrame(FRAME_ONEOF, oneof);
+        } else {
+            ProtoMessage message = newMessage(keyword, name);
+            message.firstLine = tokenLines[keyword];
+            if (parent instanceof ProtoMessage parentMessage && frameKinds[depth - 1] == FRAME_MESSAGE) {
+                parentMessage.nestedMessages.add(message);
+            }
+            pushFrame(message.isEnum() ? FRAME_ENUM : FRAME_MESSAGE, message);
+        }
+    }
+
+    private ProtoMessage newMessage(int keyword, String name) {
+        ProtoMessage message = new ProtoMessage();
+        message.kind = tokenIs(keyword, "enum") ? ProtoMessage.Kind.ENUM : ProtoMessage.Kind.MESSAGE;
+        message.name = name;
+        return message;
+    }
+
+    private void pushFrame(int kind, Object owner) {
+        if (depth == frameKinds.length) {
+            frameKinds = Arrays.copyOf(frameKinds, depth * 2);
+            frameOwners = Arrays.copyOf(frameOwners, depth * 2);
+        }
+        frameKinds[depth] = kind;
+        frameOwners[depth] = owner;
+        depth++;
+    }
+
+    /**
+     * '}' - 离开当前块, 多余的 '}' 忽略
+     */
+    private void closeBlock(int line) {
+        if (depth == 0) {
+            complete = false;
+            return;
+        }
+        depth--;
+        if (frameOwners[depth] instanceof ProtoMessage message) {
+            message.lastLine = line;
+        }
+        frameOwners[depth] = null;
+    }
+
+    /**
+     * 以 ';' (或块结尾) 结束的语句
+     * @param endLine 语句结束所在行
+     */
+    private void statement(int endLine) {
+        if (tokenCount == 0) {
+            return;
+        }
+
+        if (depth == 0) {
+            // 第一个定义之前的文件头
+            if (messages.isEmpty() && tokenTypes[0] == ProtoLexer.IDENT &&
+                    (tokenIs(0, "syntax") || tokenIs(0, "package") || tokenIs(0, "import"))) {
+                int line = tokenLines[0];
+                if (headerLineIndexes.isEmpty() || headerLineIndexes.getLast() != line) {
+                    headerLineIndexes.add(line);
+                }
+            }
+            return;
+        }
+
+        switch (frameKinds[depth - 1]) {
+            case FRAME_MESSAGE, FRAME_ONEOF -> field(endLine);
+            case FRAME_ENUM -> enumValue();
+            default -> {
+            }
+        }
+    }
+
+    /**
+     * 字段: [label] type name = number [options];  或  map<K, V> name = number;
+     */
+    private void field(int endLine) {
+        if (tokenTypes[0] != ProtoLexer.IDENT || tokenIs(0, "option") || tokenIs(0, "reserved") ||
+                tokenIs(0, "extensions") || tokenIs(0, "import") || tokenIs(0, "package") || tokenIs(0, "syntax")) {
+            return;
+        }
+
+        ProtoField field = new ProtoField();
+        int i = 0;
+        if (tokenIs(0, ConstProtoType.getRepeatedType()) || tokenIs(0, "optional") || tokenIs(0, "required")) {
+            field.label = tokenText(0);
+            i++;
+        }
+
+        if (i + 1 < tokenCount && tokenIs(i, ConstProtoType.getMapType()) && isSymbol(i + 1, '<')) {
+            // map<K, V>
+            field.map = true;
+            i += 2;
+            if (i < tokenCount && tokenTypes[i] == ProtoLexer.IDENT) {
+                field.keyType = tokenText(i);
+            }
+            while (i < tokenCount && !isSymbol(i, ',')) {
+                i++;
+            }
+            i++;
+            if (i < tokenCount && tokenTypes[i] == ProtoLexer.IDENT) {
+                field.type = tokenText(i);
+            }
+            while (i < tokenCount && !isSymbol(i, '>')) {
+                i++;
+            }
+            i++;
+        } else if (i < tokenCount && tokenTypes[i] == ProtoLexer.IDENT) {
+            field.type = tokenText(i);
+            i++;
+        }
+
+        if (field.type == null || i >= tokenCount || tokenTypes[i] != ProtoLexer.IDENT) {
+            return;
+        }
+        field.name = tokenText(i);
+        field.line = tokenLines[0];
+
+        // 名称之后第一个 '=' 后面的数字为字段编号
+        for (int j = i + 1; j + 1 < tokenCount; j++) {
+            if (isSymbol(j, '=')) {
+                field.number = parseNumber(j + 1);
+                break;
+            }
+        }
+
+        Object owner = frameOwners[depth - 1];
+        if (owner instanceof ProtoMessage message) {
+            message.fields.add(field);
+        } else if (owner instanceof ProtoOneof oneof) {
+            oneof.fields.add(field);
+        }
+
+        // 记录需要导入的自定义类型 (只取全限定名的第一段, google.protobuf.* 不需要导入)
+        if (top != null && !ConstProtoType.isScalarType(field.type)) {
+            String type = field.type.startsWith(".") ? field.type.substring(1) : field.type;
+            int dot = type.indexOf('.');
+            String importName = dot < 0 ? type : type.substring(0, dot);
+            if (!importName.equals("google")) {
+                top.referencedTypes.add(importName);
+            }
+        }
+
+        lastField = field;
+        lastFieldLine = endLine;
+    }
+
+    /**
+     * enum 值: NAME = [-]number;
+     */
+    private void enumValue() {
+        if (tokenCount < 3 || tokenTypes[0] != ProtoLexer.IDENT || tokenIs(0, "option") ||
+                tokenIs(0, "reserved") || !isSymbol(1, '=')) {
+            return;
+        }
+
+        ProtoEnumValue value = new ProtoEnumValue();
+        value.name = tokenText(0);
+        if (isSymbol(2, '-')) {
+            value.number = tokenCount > 3 ? -parseNumber(3) : 0;
+        } else {
+            value.number = parseNumber(2);
+        }
+        if (frameOwners[depth - 1] instanceof ProtoMessage message) {
+            message.enumValues.add(value);
+        }
+    }
+
+    /**
+     * 行注释: CmdId 与 CUSTOM_ENCRYPT
+     */
+    private void comment() {
+        CharSequence source = lexer.source();
+        String cmdIdPrefix = ConstProtoType.getDumpedCmdId() + " ";
+
+        // 独占一行的 "// CmdId: N", 由下一个顶层定义使用
+        if (lexer.firstOnLine && lexer.regionEquals(lexer.start,
+                Math.min(lexer.end, lexer.start + cmdIdPrefix.length()), cmdIdPrefix)) {
+            pendingCmdId = parseCmdId(source, lexer.start + ConstProtoType.getDumpedCmdId().length(), lexer.end);
+            return;
+        }
+
+        int index = indexOf(source, lexer.start, lexer.end, CUSTOM_ENCRYPT);
+        if (index < 0 || lastField == null || lastFieldLine != lexer.line || top == null) {
+            return;
+        }
+
+        ProtoXorField xor = parseXor(source, index + CUSTOM_ENCRYPT.length(), lexer.end, lastField.number);
+        if (xor != null) {
+            lastField.xor = xor;
+            top.xorFields.add(xor);
+        }
+    }
+
+    /**
+     * 解析 "// CmdId: 46" 中的数字, 解析失败时为 0
+     * @param position "// CmdId:" 之后的位置
+     */
+    private static int parseCmdId(CharSequence source, int position, int end) {
+        int digitsStart = skipWhitespace(source, position, end);
+
+        long value = 0;
+        int i = digitsStart;
+        while (i < end && source.charAt(i) >= '0' && source.charAt(i) <= '9') {
+            value = value * 10 + (source.charAt(i) - '0');
+            if (value > Integer.MAX_VALUE) {
+                return 0;
+            }
+            i++;
+        }
+        return i == digitsStart ? 0 : (int) value;
+    }
+
+    /**
+     * 解析 CUSTOM_ENCRYPT 后面的两个魔数以及运算模式
+     * 格式: (VALUE op1 operand1) op2 operand2, op1 为 ^ + -, op2 为 ^ + - /
+     */
+    private static ProtoXorField parseXor(CharSequence source, int position, int end, int fieldNumber) {
+        position = skipWhitespace(source, position, end);
+        if (!startsWith(source, position, end, "(VALUE")) {
+            return null;
+        }
+        position = skipWhitespace(source, position + "(VALUE".length(), end);
+
+        if (position >= end || "+-^".indexOf(source.charAt(position)) < 0) {
+            return null;
+        }
+        char operator1 = source.charAt(position);
+        position = skipWhitespace(source, position + 1, end);
+
+        int operand1End = operandEnd(source, position, end);
+        if (operand1End < 0 || operand1End >= end || source.charAt(operand1End) != ')') {
+            return null;
+        }
+        String operand1 = source.subSequence(position, operand1End).toString();
+        position = skipWhitespace(source, operand1End + 1, end);
+
+        if (position >= end || "+-^/".indexOf(source.charAt(position)) < 0) {
+            return null;
+        }
+        char operator2 = source.charAt(position);
+        position = skipWhitespace(source, position + 1, end);
+
+        int operand2End = operandEnd(source, position, end);
+        if (operand2End < 0) {
+            return null;
+        }
+        String operand2 = source.subSequence(position, operand2End).toString();
+
+        if (fieldNumber == 0) {
+            log.error("提取xor字段魔数时发生错误，关键字段为0或null");
+            return null;
+        }
+
+        ProtoXorField xor = new ProtoXorField();
+        xor.fieldNumber = fieldNumber;
+        xor.magicNumber1 = operand1.toUpperCase();
+        xor.magicNumber2 = operand2.toUpperCase();
+
+        // 根据运算符确定模式
+        if (operator1 == '^' && operator2 == '+') {
+            xor.mode = MagicNumberOperatorMode.xorAndAdder;
+        } else if (operator1 == '^' && operator2 == '-') {
+            xor.mode = MagicNumberOperatorMode.xorAndSubtract;
+        } else if (operator1 == '+' && operator2 == '^') {
+            xor.mode = MagicNumberOperatorMode.adderAndXor;
+        } else if (operator1 == '-' && operator2 == '^') {
+            xor.mode = MagicNumberOperatorMode.subtractAndXor;
+        } else {
+            // 未知模式
+            log.error("提取xor字段魔数时发生错误，未知模式");
+            xor.mode = MagicNumberOperatorMode.none;
+        }
+        return xor;
+    }
+
+    /**
+     * 魔数: 0X 开头的十六进制或十进制数字
+     * @return 魔数结束位置, 不是魔数时返回 -1
+     */
+    private static int operandEnd(CharSequence source, int position, int end) {
+        if (position + 2 < end && source.charAt(position) == '0' &&
+                (source.charAt(position + 1) == 'x' || source.charAt(position + 1) == 'X') &&
+                Character.digit(source.charAt(position + 2), 16) >= 0) {
+            int i = position + 2;
+            while (i < end && Character.digit(source.charAt(i), 16) >= 0 && source.charAt(i) < 0x80) {
+                i++;
+            }
+            return i;
+        }
+
+        int i = position;
+        while (i < end && source.charAt(i) >= '0' && source.charAt(i) <= '9') {
+            i++;
+        }
+        return i == position ? -1 : i;
+    }
+
+    /**
+     * 解析数字 token (十进制/十六进制/八进制), 失败时为 0
+     */
+    private int parseNumber(int token) {
+        if (token >= tokenCount || tokenTypes[token] != ProtoLexer.NUMBER) {
+            return 0;
+        }
+
+        CharSequence source = lexer.source();
+        int start = tokenStarts[token];
+        int end = tokenEnds[token];
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            char c = source.charAt(i);
+            if (c < '0' || c > '9') {
+                // 非十进制数字较少见, 交给 Long.decode
+                try {
+                    long decoded = Long.decode(source.subSequence(start, end).toString());
+                    return decoded > Integer.MAX_VALUE ? 0 : (int) decoded;
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+            value = value * 10 + (c - '0');
+            if (value > Integer.MAX_VALUE) {
+                return 0;
+            }
+        }
+        return (int) value;
+    }
+
+    private boolean isNestingKeyword(int token) {
+        for (String nestingType : ConstProtoType.getConstNestingType()) {
+            if (tokenIs(token, nestingType)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean tokenIs(int token, String text) {
+        return lexer.regionEquals(tokenStarts[token], tokenEnds[token], text);
+    }
+
+    private boolean isSymbol(int token, char c) {
+        return tokenTypes[token] == ProtoLexer.SYMBOL && lexer.source().charAt(tokenStarts[token]) == c;
+    }
+
+    private String tokenText(int token) {
+        return lexer.source().subSequence(tokenStarts[token], tokenEnds[token]).toString();
+    }
+
+    private static int skipWhitespace(CharSequence source, int position, int end) {
+        while (position < end && Character.isWhitespace(source.charAt(position))) {
+            position++;
+        }
+        return position;
+    }
+
+    private static boolean startsWith(CharSequence source, int position, int end, String text) {
+        if (end - position < text.length()) {
+            return false;
+        }
+        for (int i = 0; i < text.length(); i++) {
+            if (source.charAt(position + i) != text.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int indexOf(CharSequence source, int start, int end, String text) {
+        for (int i = start; i + text.length() <= end; i++) {
+            if (startsWith(source, i, end, text)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,15 @@
+package cn.hongchengq.proto_script_jnl.parser;
+
+import lombok.Getter;
+
+/**
+ * 带 CUSTOM_ENCRYPT 注释的字段
+ * 如: uint32 awdad = 8; // CUSTOM_ENCRYPT: (VALUE ^ 0X88AA) - 60361
+ */
+@Getter
+public class ProtoXorField {
+    int fieldNumber;                // 字段编号
+    String magicNumber1;            // 第一个魔数 (大写)
+    String magicNumber2;            // 第二个魔数 (大写)
+    MagicNumberOperatorMode mode;   // 运算模式
+}
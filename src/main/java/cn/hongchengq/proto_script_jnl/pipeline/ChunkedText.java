@@ -0,0 +1,98 @@
+package cn.hongchengq.proto_script_jnl.pipeline;
+
+import java.util.Arrays;
+
+/**
+ * 分块存储的只追加文本
+ * <p>
+ * 按固定大小的块保存内容, 写满的块转为 String, 追加时不会整体扩容复制 (不会像 StringBuilder 扩容时新旧数组同时存在);
+ * 全部内容仍保存在内存中, 占用与文本本身相当;
+ * 块大小为 2 的幂, charAt 只需一次移位和一次掩码, 可以直接交给 ProtoParser 解析
+ */
+public final class ChunkedText implements CharSequence {
+    private static final int BLOCK_BITS = 16;
+    private static final int BLOCK_SIZE = 1 << BLOCK_BITS;
+    private static final int BLOCK_MASK = BLOCK_SIZE - 1;
+
+    private String[] blocks = new String[16];     // 已写满的块
+    private int blockCount = 0;
+    private final StringBuilder tail = new StringBuilder(BLOCK_SIZE);    // 未写满的最后一块
+    private int length = 0;
+
+    /**
+     * 追加文本
+     */
+    public void append(CharSequence text) {
+        int offset = 0;
+        int remaining = text.length();
+        while (remaining > 0) {
+            int count = Math.min(remaining, BLOCK_SIZE - tail.length());
+            tail.append(text, offset, offset + count);
+            offset += count;
+            remaining -= count;
+            length += count;
+            if (tail.length() == BLOCK_SIZE) {
+                sealTail();
+            }
+        }
+    }
+
+    private void sealTail() {
+        if (blockCount == blocks.length) {
+            blocks = Arrays.copyOf(blocks, blockCount * 2);
+        }
+        blocks[blockCount++] = tail.toString();
+        tail.setLength(0);
+    }
+
+    private CharSequence block(int index) {
+        return index < blockCount ? blocks[index] : tail;
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index < 0 || index >= length) {
+            throw new IndexOutOfBoundsException("index " + index + ", length " + length);
+        }
+        int block = index >>> BLOCK_BITS;
+        return block < blockCount ? blocks[block].charAt(index & BLOCK_MASK) : tail.charAt(index & BLOCK_MASK);
+    }
+
+    /**
+     * 返回 [start, end) 的内容, 结果为 String
+     */
+    @Override
+    public String subSequence(int start, int end) {
+        if (start < 0 || end > length || start > end) {
+            throw new IndexOutOfBoundsException("start " + start + ", end " + end + ", length " + length);
+        }
+        if (start == end) {
+            return "";
+        }
+        if (start >>> BLOCK_BITS == (end - 1) >>> BLOCK_BITS) {
+            // 同一块内, 不需要拼接
+            int blockOffset = start & BLOCK_MASK;
+            return block(start >>> BLOCK_BITS).subSequence(blockOffset, blockOffset + end - start).toString();
+        }
+
+        StringBuilder result = new StringBuilder(end - start);
+        int position = start;
+        while (position < end) {
+            int blockOffset = position & BLOCK_MASK;
+            int count = Math.min(end - position, BLOCK_SIZE - blockOffset);
+            result.append(block(position >>> BLOCK_BITS), blockOffset, blockOffset + count);
+            position += count;
+        }
+        return result.toString();
+    }
+
+    @Override
+    public String toString() {
+        return subSequence(0, length);
+    }
+}
@@ -0,0 +1,194 @@
+package cn.hongchengq.proto_script_jnl.pipeline;
+
+import cn.hongchengq.proto_script_jnl.Config;
+import cn.hongchengq.proto_script_jnl.Replace;
+import cn.hongchengq.proto_script_jnl.Split;
+import cn.hongchengq.proto_script_jnl.replace.LineReplacer;
+import cn.hongchengq.proto_script_jnl.replace.ParallelReplace;
+import cn.hongchengq.proto_script_jnl.report.RunReport;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 融合流水线 (bootMode 0/1 且启用 fusedPipelineOptional 时)
+ * <p>
+ * 替换线程读取输入文件并逐块替换 (顺序或并行替换), 替换结果经有界队列交给调用线程,
+ * 调用线程把每块追加到分块文本中 (可选同时写出 replace_output.proto), 结束后直接交给分割解析,
+ * 不再写出并重新读取中间文件. 队列容量只限制两个线程之间在途的块数, 替换比追加快时替换线程会阻塞
+ * <p>
+ * 这种模式只省去中间文件的写出、重新读取与 UTF-8 解码, 不降低峰值内存: 分割的解析结果按行引用原文,
+ * 渲染输出时仍需要原文, 整个替换结果在分割结束前都保留在内存中 (与普通模式读入 replace_output.proto 后相同);
+ * 解析也要等替换全部完成后才开始, 不与替换重叠
+ * <p>
+ * 交给分割的内容与 replace_output.proto 完全相同, 输出与 Replace + Split 逐字节相同
+ */
+@Slf4j
+public class FusedPipeline {
+    // 顺序替换时每块的目标字符数
+    private static final int SEQUENTIAL_CHUNK_CHARS = 64 * 1024;
+    // 队列结束标记, 按引用比较
+    private static final String END_OF_STREAM = new String();
+
+    /**
+     * 入口方法
+     * @param report 本次运行的报告, 替换与分割共用
+     */
+    public static void start(RunReport report) {
+        CharSequence replacedSource;
+        try {
+            replacedSource = replace(report);
+        } catch (IOException e) {
+            log.error("替换时出错:", e);
+            return;
+        }
+
+        new Split(Config.getConfig(), report).run(replacedSource);
+    }
+
+    /**
+     * 加载 mapping 并替换输入文件
+     * @return 替换后的完整内容, 与 replace_output.proto 相同
+     */
+    public static ChunkedText replace(RunReport report) throws IOException {
+        Config.ConfigBean config = Config.getConfig();
+        Config.ConfigBean.FusedPipelineOptional optional = config.getFusedPipelineOptional();
+
+        // 加载 mapping 并构建替换引擎用于匹配
+        LineReplacer replacer = Replace.countReplacements(
+                Replace.loadReplacer(Paths.get(config.getReplaceMappingFilePath()), report), report);
+        Path inputFile = Paths.get(config.getInputFilePath());
+        Path sideOutputFile = optional.isWriteIntermediateFile() ? Replace.prepareOutputFile() : null;
+
+        ChunkedText text = report.time("replace",
+                () -> transfer(inputFile, replacer, sideOutputFile, Math.max(1, optional.getQueueCapacity()), report));
+        report.count("pipeline.chars", text.length());
+
+        if (sideOutputFile != null) {
+            log.info("mapping 应用完成，共 {} 个字符，旁路输出文件: {}", text.length(), sideOutputFile);
+        } else {
+            log.info("mapping 应用完成，共 {} 个字符，未写出中间文件", text.length());
+        }
+        return text;
+    }
+
+    /**
+     * 启动替换线程, 在调用线程中接收替换结果
+     */
+    private static ChunkedText transfer(Path inputFile, LineReplacer replacer, Path sideOutputFile,
+                                        int queueCapacity, RunReport report) throws IOException {
+        BlockingQueue<String> queue = new ArrayBlockingQueue<>(queueCapacity);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        AtomicLong lineCount = new AtomicLong();
+
+        Thread producer = Thread.ofPlatform().name("fused-replace").start(() -> {
+            try {
+                lineCount.set(produce(inputFile, replacer, chunk -> put(queue, chunk)));
+            } catch (Throwable e) {
+                failure.set(e);
+            } finally {
+                try {
+                    queue.put(END_OF_STREAM);
+                } catch (InterruptedException e) {
+                    // 调用线程已放弃接收
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+
+        ChunkedText text = new ChunkedText();
+        long chunkCount = 0;
+        try (Writer writer = sideOutputFile != null ? Files.newBufferedWriter(sideOutputFile) : Writer.nullWriter()) {
+            String header = Replace.outputHeader();
+            text.append(header);
+            writer.write(header);
+
+            String chunk;
+            while ((chunk = queue.take()) != END_OF_STREAM) {
+                text.append(chunk);
+                writer.write(chunk);
+                chunkCount++;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("等待替换结果时被中断");
+        } finally {
+            // 出错时替换线程可能阻塞在已满的队列上
+            producer.interrupt();
+            joinQuietly(producer);
+        }
+
+        Throwable error = failure.get();
+        if (error instanceof IOException ioException) {
+            throw ioException;
+        } else if (error instanceof RuntimeException runtimeException) {
+            throw runtimeException;
+        } else if (error != null) {
+            throw new IOException("替换线程出错", error);
+        }
+
+        report.count("replace.lines", lineCount.get());
+        report.count("pipeline.chunks", chunkCount);
+        return text;
+    }
+
+    /**
+     * 替换输入文件, 每块结果按顺序交给 sink
+     * @return 处理的行数
+     */
+    private static long produce(Path inputFile, LineReplacer replacer,
+                                ParallelReplace.ChunkSink<String> sink) throws IOException {
+        Config.ConfigBean.ParallelReplaceOptional parallelOptional = Config.getConfig().getParallelReplaceOptional();
+        if (parallelOptional != null && parallelOptional.isEnableParallelReplace()) {
+            return ParallelReplace.replaceChunks(inputFile, replacer,
+                    parallelOptional.getChunkSizeKb() * 1024, parallelOptional.getParallelism(), sink);
+        }
+
+        // 与 Replace 的顺序替换相同: 逐行替换, 行尾统一为系统换行符
+        String lineSeparator = System.lineSeparator();
+        StringBuilder chunk = new StringBuilder(SEQUENTIAL_CHUNK_CHARS + 1024);
+        long lineCount = 0;
+        try (BufferedReader reader = Files.newBufferedReader(inputFile)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                chunk.append(replacer.replace(line)).append(lineSeparator);
+                lineCount++;
+                if (chunk.length() >= SEQUENTIAL_CHUNK_CHARS) {
+                    sink.accept(chunk.toString());
+                    chunk.setLength(0);
+                }
+            }
+        }
+        if (!chunk.isEmpty()) {
+            sink.accept(chunk.toString());
+        }
+        return lineCount;
+    }
+
+    private static void put(BlockingQueue<String> queue, String chunk) throws InterruptedIOException {
+        try {
+            queue.put(chunk);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("替换结果交接被中断");
+        }
+    }
+
+    private static void joinQuietly(Thread thread) {
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,343 @@
+package cn.hongchengq.proto_script_jnl.replace;
+
+import lombok.Getter;
+
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 紧凑数组实现的 Aho-Corasick 自动机
+ * <p>
+ * 状态按 BFS 顺序编号, 所有数据都存放在原始类型缓冲区中:
+ * 状态 s 的出边按字符升序连续存放在 edgeChars/edgeTargets 的 [edgeStart[s], edgeStart[s + 1]) 区间内, 查找时二分;
+ * 根节点额外使用一张稠密跳转表; 所有 key/value 拼接存放在 keyChars/valueChars 中, 以 offsets 区分
+ * <p>
+ * 缓冲区既可以是刚构建出的堆内数组, 也可以是 MappingSnapshot 内存映射的快照文件
+ * <p>
+ * 替换语义与 Replace 中的 Trie 树完全一致: 从左到右扫描, 每个位置取以该位置开头的最长匹配, 替换后跳过匹配部分
+ */
+public final class AhoCorasickAutomaton implements LineReplacer {
+    static final int ROOT = 0;
+    static final int NONE = -1;
+
+    // 每行匹配时复用的缓冲区: 以该位置开头的最长 key 下标
+    private static final ThreadLocal<int[]> BEST_KEY_BUFFER = ThreadLocal.withInitial(() -> new int[256]);
+
+    final IntBuffer edgeStart;      // 状态出边区间起点, 长度为 状态数 + 1
+    final CharBuffer edgeChars;     // 出边字符
+    final IntBuffer edgeTargets;    // 出边目标状态
+    final IntBuffer fail;           // 失败指针
+    final IntBuffer output;         // 终止状态对应的 key 下标, 非终止状态为 NONE
+    final IntBuffer dictLink;       // 沿失败链最近的终止状态, 没有时为 ROOT
+    final IntBuffer keyOffsets;     // 第 k 个 key 为 keyChars[keyOffsets[k], keyOffsets[k + 1])
+    final CharBuffer keyChars;      // 按字典序拼接的混淆字段
+    final IntBuffer valueOffsets;   // 第 k 个 value 为 valueChars[valueOffsets[k], valueOffsets[k + 1])
+    final CharBuffer valueChars;    // 与 key 对应的解混淆字段
+    private final int[] rootNext;   // 根节点稠密跳转表 char -> state, 无出边时为 ROOT
+    private final LongAdder matches; // 匹配次数, 不统计时为 null
+
+    @Getter private final int stateCount;
+    @Getter private final int keyCount;
+
+    AhoCorasickAutomaton(IntBuffer edgeStart, CharBuffer edgeChars, IntBuffer edgeTargets,
+                         IntBuffer fail, IntBuffer output, IntBuffer dictLink,
+                         IntBuffer keyOffsets, CharBuffer keyChars, IntBuffer valueOffsets, CharBuffer valueChars) {
+        this.edgeStart = edgeStart;
+        this.edgeChars = edgeChars;
+        this.edgeTargets = edgeTargets;
+        this.fail = fail;
+        this.output = output;
+        this.dictLink = dictLink;
+        this.keyOffsets = keyOffsets;
+        this.keyChars = keyChars;
+        this.valueOffsets = valueOffsets;
+        this.valueChars = valueChars;
+        this.stateCount = fail.limit();
+        this.keyCount = keyOffsets.limit() - 1;
+
+        this.rootNext = new int[Character.MAX_VALUE + 1];
+        for (int e = edgeStart.get(ROOT); e < edgeStart.get(ROOT + 1); e++) {
+            rootNext[edgeChars.get(e)] = edgeTargets.get(e);
+        }
+        this.matches = null;
+    }
+
+    /**
+     * 共用 source 的所有数据 (包括根节点跳转表), 只替换计数器
+     */
+    private AhoCorasickAutomaton(AhoCorasickAutomaton source, LongAdder matches) {
+        this.edgeStart = source.edgeStart;
+        this.edgeChars = source.edgeChars;
+        this.edgeTargets = source.edgeTargets;
+        this.fail = source.fail;
+        this.output = source.output;
+        this.dictLink = source.dictLink;
+        this.keyOffsets = source.keyOffsets;
+        this.keyChars = source.keyChars;
+        this.valueOffsets = source.valueOffsets;
+        this.valueChars = source.valueChars;
+        this.stateCount = source.stateCount;
+        this.keyCount = source.keyCount;
+        this.rootNext = source.rootNext;
+        this.matches = matches;
+    }
+
+    @Override
+    public AhoCorasickAutomaton countingMatches(LongAdder matches) {
+        return new AhoCorasickAutomaton(this, matches);
+    }
+
+    /**
+     * 根据 mapping 构建自动机
+     * @param mapping 混淆字段 -> 解混淆字段 (空字符串 key 会被忽略, 与 Trie 树行为一致)
+     */
+    public static AhoCorasickAutomaton build(Map<String, String> mapping) {
+        String[] keys = mapping.keySet().stream()
+                .filter(key -> !key.isEmpty())
+                .sorted()
+                .toArray(String[]::new);
+        long totalLength = 0;
+        for (String key : keys) {
+            totalLength += key.length();
+        }
+        if (totalLength + 1 > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("mapping 过大, 状态数超出数组上限: " + totalLength);
+        }
+
+        // 状态数上限为所有 key 长度之和 + 1
+        int capacity = (int) totalLength + 1;
+        int[] rangeLow = new int[capacity];     // 状态对应的 key 区间 (构建期临时数据)
+        int[] rangeHigh = new int[capacity];
+        int[] depth = new int[capacity];
+        int[] edgeStart = new int[capacity + 1];
+        char[] edgeChars = new char[capacity - 1];
+        int[] edgeTargets = new int[capacity - 1];
+        int[] fail = new int[capacity];
+        int[] output = new int[capacity];
+        int[] dictLink = new int[capacity];
+
+        rangeHigh[ROOT] = keys.length;
+        output[ROOT] = NONE;
+        int stateCount = 1;
+        int edgeCount = 0;
+
+        // keys 已排序, 同一前缀的 key 必然连续, 因此每个状态可以用 key 区间表示, 子节点按首字符分组即可
+        for (int s = 0; s < stateCount; s++) {
+            edgeStart[s] = edgeCount;
+            int d = depth[s];
+            int i = rangeLow[s];
+            // 长度恰好为 d 的 key 排在区间最前面, 已在创建状态时记录为 output
+            if (i < rangeHigh[s] && keys[i].length() == d) {
+                i++;
+            }
+
+            while (i < rangeHigh[s]) {
+                char c = keys[i].charAt(d);
+                int j = i + 1;
+                while (j < rangeHigh[s] && keys[j].charAt(d) == c) {
+                    j++;
+                }
+
+                int t = stateCount++;
+                rangeLow[t] = i;
+                rangeHigh[t] = j;
+                depth[t] = d + 1;
+                output[t] = keys[i].length() == d + 1 ? i : NONE;
+                edgeChars[edgeCount] = c;
+                edgeTargets[edgeCount] = t;
+                edgeCount++;
+
+                // 失败指针: 沿父节点的失败链寻找同字符出边, 这些状态深度都更小, 出边已经构建完毕
+                if (s == ROOT) {
+                    fail[t] = ROOT;
+                } else {
+                    int f = fail[s];
+                    int g;
+                    while ((g = transition(edgeStart, edgeChars, edgeTargets, f, c)) == NONE && f != ROOT) {
+                        f = fail[f];
+                    }
+                    fail[t] = g == NONE ? ROOT : g;
+                }
+                dictLink[t] = output[fail[t]] != NONE ? fail[t] : dictLink[fail[t]];
+
+                i = j;
+            }
+            // 提前写入下一个状态的出边起点, 保证 transition 查询当前状态时区间完整
+            edgeStart[s + 1] = edgeCount;
+        }
+
+        // key/value 拼接存放
+        int[] keyOffsets = new int[keys.length + 1];
+        int[] valueOffsets = new int[keys.length + 1];
+        StringBuilder keyChars = new StringBuilder((int) totalLength);
+        StringBuilder valueChars = new StringBuilder();
+        for (int k = 0; k < keys.length; k++) {
+            keyChars.append(keys[k]);
+            valueChars.append(mapping.get(keys[k]));
+            keyOffsets[k + 1] = keyChars.length();
+            valueOffsets[k + 1] = valueChars.length();
+        }
+
+        return new AhoCorasickAutomaton(
+                IntBuffer.wrap(Arrays.copyOf(edgeStart, stateCount + 1)),
+                CharBuffer.wrap(Arrays.copyOf(edgeChars, edgeCount)),
+                IntBuffer.wrap(Arrays.copyOf(edgeTargets, edgeCount)),
+                IntBuffer.wrap(Arrays.copyOf(fail, stateCount)),
+                IntBuffer.wrap(Arrays.copyOf(output, stateCount)),
+                IntBuffer.wrap(Arrays.copyOf(dictLink, stateCount)),
+                IntBuffer.wrap(keyOffsets),
+                CharBuffer.wrap(keyChars.toString().toCharArray()),
+                IntBuffer.wrap(valueOffsets),
+                CharBuffer.wrap(valueChars.toString().toCharArray())
+        );
+    }
+
+    /**
+     * 构建期: 在状态 s 的出边中二分查找字符 c
+     * @return 目标状态, 不存在时返回 NONE
+     */
+    private static int transition(int[] edgeStart, char[] edgeChars, int[] edgeTargets, int s, char c) {
+        int low = edgeStart[s];
+        int high = edgeStart[s + 1] - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            char midChar = edgeChars[mid];
+            if (midChar < c) {
+                low = mid + 1;
+            } else if (midChar > c) {
+                high = mid - 1;
+            } else {
+                return edgeTargets[mid];
+            }
+        }
+        return NONE;
+    }
+
+    /**
+     * 自动机状态转移 (含失败跳转)
+     */
+    private int next(int state, char c) {
+        while (state != ROOT) {
+            int low = edgeStart.get(state);
+            int high = edgeStart.get(state + 1) - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                char midChar = edgeChars.get(mid);
+                if (midChar < c) {
+                    low = mid + 1;
+                } else if (midChar > c) {
+                    high = mid - 1;
+                } else {
+                    return edgeTargets.get(mid);
+                }
+            }
+            state = fail.get(state);
+        }
+        return rootNext[c];
+    }
+
+    private int keyLength(int key) {
+        return keyOffsets.get(key + 1) - keyOffsets.get(key);
+    }
+
+    private boolean keyEqualsValue(int key) {
+        int keyStart = keyOffsets.get(key);
+        int valueStart = valueOffsets.get(key);
+        int length = keyOffsets.get(key + 1) - keyStart;
+        if (valueOffsets.get(key + 1) - valueStart != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (keyChars.get(keyStart + i) != valueChars.get(valueStart + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String key(int key) {
+        return keyChars.subSequence(keyOffsets.get(key), keyOffsets.get(key + 1)).toString();
+    }
+
+    private String value(int key) {
+        return valueChars.subSequence(valueOffsets.get(key), valueOffsets.get(key + 1)).toString();
+    }
+
+    @Override
+    public String replace(String line) {
+        if (line.isEmpty()) {
+            return line;
+        }
+
+        int length = line.length();
+        int[] bestKey = bestKeyBuffer(length);
+        Arrays.fill(bestKey, 0, length, NONE);
+
+        // 单次扫描, 对每个匹配记录其起点上最长的 key
+        int state = ROOT;
+        for (int j = 0; j < length; j++) {
+            state = next(state, line.charAt(j));
+            int s = output.get(state) != NONE ? state : dictLink.get(state);
+            while (s != ROOT) {
+                int key = output.get(s);
+                int start = j + 1 - keyLength(key);
+                int current = bestKey[start];
+                if (current == NONE || keyLength(current) < keyLength(key)) {
+                    bestKey[start] = key;
+                }
+                s = dictLink.get(s);
+            }
+        }
+
+        StringBuilder result = null;
+        Map<String, String> replacements = null;
+        int matchCount = 0;
+        int copyFrom = 0;
+        int i = 0;
+        while (i < length) {
+            int key = bestKey[i];
+            if (key == NONE) {
+                i++;
+                continue;
+            }
+
+            if (result == null) {
+                result = new StringBuilder(length * 2);
+                replacements = new HashMap<>();
+            }
+            result.append(line, copyFrom, i)
+                    .append(valueChars, valueOffsets.get(key), valueOffsets.get(key + 1));
+            if (!keyEqualsValue(key)) {
+                replacements.put(key(key), value(key));
+            }
+            i += keyLength(key);
+            copyFrom = i;
+            matchCount++;
+        }
+
+        // 整行没有匹配时直接返回原行
+        if (result == null) {
+            return line;
+        }
+        if (matches != null) {
+            matches.add(matchCount);
+        }
+        result.append(line, copyFrom, length);
+        LineReplacer.appendAnnotation(result, replacements);
+
+        return result.toString();
+    }
+
+    private static int[] bestKeyBuffer(int length) {
+        int[] buffer = BEST_KEY_BUFFER.get();
+        if (buffer.length < length) {
+            buffer = new int[Math.max(length, buffer.length * 2)];
+            BEST_KEY_BUFFER.set(buffer);
+        }
+        return buffer;
+    }
+}
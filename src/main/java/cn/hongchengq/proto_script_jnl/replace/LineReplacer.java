@@ -0,0 +1,118 @@
+package cn.hongchengq.proto_script_jnl.replace;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 行替换器 - 对单行文本应用 mapping, 并在行尾追加替换记录注释
+ */
+public interface LineReplacer {
+    /**
+     * 替换一行
+     * @param line 原始行 (不含换行符)
+     * @return 替换后的行
+     */
+    String replace(String line);
+
+    /**
+     * 与当前替换器共用映射数据, 并把每一处匹配累加到 matches 的替换器
+     * 替换器可能在多个任务间共用, 每个任务取自己的计数视图, 计数互不影响
+     */
+    LineReplacer countingMatches(LongAdder matches);
+
+    /**
+     * 替换 chars[start, end) 中的一行并直接写出 (不含换行符)
+     * 默认实现经由 replace(String), 支持的替换器可以不创建中间字符串
+     * @return 是否发生了替换
+     */
+    default boolean replaceTo(char[] chars, int start, int end, Writer out) throws IOException {
+        String line = new String(chars, start, end - start);
+        String replaced = replace(line);
+        out.write(replaced);
+        return !replaced.equals(line);
+    }
+
+    /**
+     * 逐行替换整个输入, 行的切分方式与 BufferedReader#readLine 一致 (\n、\r 或 \r\n, 末尾不完整的行同样算作一行),
+     * 行尾统一写入系统换行符; 读取缓冲区在行之间复用, 每行交给 replaceTo 直接写出
+     * @return 处理的行数
+     */
+    static long replaceLines(Reader reader, Writer writer, LineReplacer replacer) throws IOException {
+        String lineSeparator = System.lineSeparator();
+        char[] buffer = new char[64 * 1024];
+        int length = 0;                 // 缓冲区开头未结束的行
+        boolean skipLineFeed = false;   // 上一次读取以 \r 结尾, 紧接着的 \n 属于同一个换行
+        long lineCount = 0;
+
+        int read;
+        while ((read = reader.read(buffer, length, buffer.length - length)) != -1) {
+            int end = length + read;
+            int lineStart = 0;
+            int i = length;
+            if (skipLineFeed && i < end) {
+                skipLineFeed = false;
+                if (buffer[i] == '\n') {
+                    lineStart = ++i;
+                }
+            }
+            for (; i < end; i++) {
+                char c = buffer[i];
+                if (c != '\n' && c != '\r') {
+                    continue;
+                }
+                replacer.replaceTo(buffer, lineStart, i, writer);
+                writer.write(lineSeparator);
+                lineCount++;
+                if (c == '\r') {
+                    if (i + 1 == end) {
+                        skipLineFeed = true;
+                    } else if (buffer[i + 1] == '\n') {
+                        i++;
+                    }
+                }
+                lineStart = i + 1;
+            }
+
+            // 未结束的行移到缓冲区开头, 一行超过缓冲区时扩容
+            length = end - lineStart;
+            System.arraycopy(buffer, lineStart, buffer, 0, length);
+            if (length == buffer.length) {
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            }
+        }
+        if (length > 0) {
+            replacer.replaceTo(buffer, 0, length, writer);
+            writer.write(lineSeparator);
+            lineCount++;
+        }
+        return lineCount;
+    }
+
+    /**
+     * 在行尾追加替换记录注释, 格式为 "混淆->解混淆" 以逗号分隔并包裹在块注释中
+     * @param result 当前行的输出
+     * @param replacements 本行发生的替换 (混淆 -> 解混淆)
+     */
+    static void appendAnnotation(StringBuilder result, Map<String, String> replacements) {
+        if (replacements.isEmpty()) {
+            return;
+        }
+
+        result.append(" /*[");
+        boolean first = true;
+        for (Map.Entry<String, String> replacement : replacements.entrySet()) {
+            if (!first) {
+                result.append(", ");
+            }
+            result.append(replacement.getKey())
+                    .append("->")
+                    .append(replacement.getValue());
+            first = false;
+        }
+        result.append("]*/");
+    }
+}
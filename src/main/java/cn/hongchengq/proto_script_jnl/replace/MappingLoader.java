@@ -0,0 +1,346 @@
+package cn.hongchengq.proto_script_jnl.replace;
+
+import cn.hongchengq.proto_script_jnl.report.RunReport;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVRecord;
+
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * mapping.tsv 加载器
+ * <p>
+ * 直接扫描内存映射的 tsv 文件, 按行切块后并行解析, 每块得到一张按首次出现顺序排列的统计表,
+ * 之后按文件顺序合并, 在一次合并中完成重复/冲突判定和空格清理
+ * <p>
+ * 解析规则与 commons-csv 的 TDF 格式一致 (首行为表头、忽略空行、去除字段首尾空白),
+ * 遇到以引号开头的字段时整体回退到 commons-csv, 保证结果和警告与原实现相同
+ */
+@Slf4j
+public class MappingLoader {
+    // 小于该大小的文件不再切块
+    private static final int MIN_CHUNK_SIZE = 1024 * 1024;
+
+    /**
+     * 加载并校验 mapping
+     * @param tsvFile mapping.tsv 路径
+     * @param report 记录条目数、重复、冲突与不完整的行
+     * @return 可直接用于替换的映射 (混淆 -> 解混淆)
+     */
+    public static Map<String, String> load(Path tsvFile, RunReport report) throws IOException {
+        List<Partition> partitions;
+        try {
+            partitions = scan(tsvFile);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        if (partitions.stream().anyMatch(partition -> partition.requiresCsvParser)) {
+            log.debug("{} 中存在引号字段，使用 commons-csv 解析", tsvFile);
+            partitions = List.of(parseWithCsv(tsvFile, report));
+        }
+
+        return resolve(partitions, report);
+    }
+
+    /**
+     * 切块并行扫描
+     */
+    private static List<Partition> scan(Path tsvFile) throws IOException {
+        try (FileChannel channel = FileChannel.open(tsvFile, StandardOpenOption.READ)) {
+            long size = channel.size();
+            int threads = Runtime.getRuntime().availableProcessors();
+            long chunkSize = Math.max(MIN_CHUNK_SIZE, size / (threads * 4L) + 1);
+
+            // 首个非空行是表头, 跳过它之后再开始切块
+            long start = skipHeader(channel, size);
+
+            List<long[]> ranges = new ArrayList<>();
+            while (start < size) {
+                long end = ParallelReplace.findChunkEnd(channel, Math.min(size, start + chunkSize), size);
+                ranges.add(new long[]{start, end});
+                start = end;
+            }
+
+            return ranges.parallelStream()
+                    .map(range -> {
+                        try {
+                            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, range[0], range[1] - range[0]);
+                            return parseChunk(buffer);
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    })
+                    .toList();
+        }
+    }
+
+    /**
+     * 返回表头行之后的位置
+     * 表头以单独的 \r 结束时, 紧随其后的 \n 会在解析时被当作空行忽略
+     */
+    private static long skipHeader(FileChannel channel, long size) throws IOException {
+        boolean inHeader = false;
+        long position = 0;
+        while (position < size) {
+            int windowSize = (int) Math.min(ParallelReplace.BOUNDARY_SCAN_WINDOW, size - position);
+            MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, windowSize);
+            for (int i = 0; i < windowSize; i++) {
+                byte b = window.get(i);
+                boolean lineBreak = b == '\n' || b == '\r';
+                if (!inHeader) {
+                    // 跳过表头之前的空行
+                    inHeader = !lineBreak;
+                } else if (lineBreak) {
+                    return position + i + 1;
+                }
+            }
+            position += windowSize;
+        }
+        return size;
+    }
+
+    /**
+     * 解析一块, 行结束符与 commons-csv 一致: \n、\r 或 \r\n
+     * UTF-8 的多字节字符中不会出现 \t \r \n 字节, 因此可以直接在字节上切分
+     */
+    private static Partition parseChunk(MappedByteBuffer buffer) {
+        Partition partition = new Partition();
+        byte[] scratch = new byte[256];
+        int limit = buffer.limit();
+        int position = 0;
+
+        while (position < limit) {
+            int lineStart = position;
+            byte b;
+            while (position < limit && (b = buffer.get(position)) != '\n' && b != '\r') {
+                position++;
+            }
+            int lineEnd = position;
+            if (position < limit) {
+                if (buffer.get(position) == '\r' && position + 1 < limit && buffer.get(position + 1) == '\n') {
+                    position++;
+                }
+                position++;
+            }
+
+            // 忽略空行
+            int lineLength = lineEnd - lineStart;
+            if (lineLength == 0) {
+                continue;
+            }
+
+            if (scratch.length < lineLength) {
+                scratch = new byte[Math.max(lineLength, scratch.length * 2)];
+            }
+            buffer.get(lineStart, scratch, 0, lineLength);
+            String line = new String(scratch, 0, lineLength, StandardCharsets.UTF_8);
+
+            if (line.indexOf('"') >= 0 && hasQuotedField(line)) {
+                partition.requiresCsvParser = true;
+                return partition;
+            }
+
+            int firstTab = line.indexOf('\t');
+            if (firstTab < 0) {
+                partition.shortRecords++;
+                continue;
+            }
+            int secondTab = line.indexOf('\t', firstTab + 1);
+            String obfuscated = line.substring(0, firstTab).strip();
+            String deobfuscated = line.substring(firstTab + 1, secondTab < 0 ? line.length() : secondTab).strip();
+            partition.record(obfuscated, deobfuscated);
+        }
+
+        return partition;
+    }
+
+    /**
+     * 是否存在以引号开头的字段 (commons-csv 会把它当作引号字段处理, 可能跨行)
+     */
+    private static boolean hasQuotedField(String line) {
+        int fieldStart = 0;
+        while (fieldStart <= line.length()) {
+            int fieldEnd = line.indexOf('\t', fieldStart);
+            if (fieldEnd < 0) {
+                fieldEnd = line.length();
+            }
+            String field = line.substring(fieldStart, fieldEnd).stripLeading();
+            if (field.startsWith("\"")) {
+                return true;
+            }
+            fieldStart = fieldEnd + 1;
+        }
+        return false;
+    }
+
+    /**
+     * 使用 commons-csv 解析 (处理引号字段)
+     */
+    private static Partition parseWithCsv(Path tsvFile, RunReport report) throws IOException {
+        Partition partition = new Partition();
+
+        try (
+                Reader reader = new FileReader(tsvFile.toFile());
+                CSVParser csvParser = CSVFormat.TDF.withFirstRecordAsHeader().parse(reader)
+        ) {
+            // 遍历TSV文件中的每一行
+            for (CSVRecord record : csvParser) {
+                log.debug(String.valueOf(record));
+
+                if (record.size() < 2 || record.get(0) == null || record.get(1) == null) {
+                    // 顺序解析时直接输出, 与解析中途出错时的日志顺序保持一致
+                    log.warn("tsv 文件中有一处元素小于 2，不进行记录");
+                    report.increment("mapping.shortRecords");
+                    continue;
+                }
+
+                partition.record(record.get(0), record.get(1));
+            }
+        }
+
+        return partition;
+    }
+
+    /**
+     * 按文件顺序合并各块的统计表, 并一次性完成冲突判定和空格清理
+     */
+    private static Map<String, String> resolve(List<Partition> partitions, RunReport report) {
+        // 统计表按首次出现顺序插入 HashMap, 遍历顺序与原实现的 count 表一致, 警告顺序也随之一致
+        Map<String, KeyStats> merged = new HashMap<>();
+        for (Partition partition : partitions) {
+            for (int i = 0; i < partition.shortRecords; i++) {
+                log.warn("tsv 文件中有一处元素小于 2，不进行记录");
+            }
+            report.count("mapping.shortRecords", partition.shortRecords);
+            for (Map.Entry<String, KeyStats> entry : partition.stats.entrySet()) {
+                KeyStats existing = merged.putIfAbsent(entry.getKey(), entry.getValue());
+                if (existing != null) {
+                    existing.merge(entry.getValue());
+                }
+            }
+        }
+
+        Map<String, String> validMapping = new HashMap<>();
+        boolean containsSpace = false;
+        // 没有重复与冲突时也登记为 0, 便于比较不同版本的运行报告
+        LongAdder duplicates = report.counter("mapping.duplicates");
+        LongAdder conflicts = report.counter("mapping.conflicts");
+
+        for (Map.Entry<String, KeyStats> entry : merged.entrySet()) {
+            String obfuscated = entry.getKey();
+            KeyStats stats = entry.getValue();
+
+            if (stats.count == 1) {
+                // 只出现一次的字段直接使用
+                validMapping.put(obfuscated, stats.firstValue);
+            } else if (stats.repeatedFirstValue) {
+                // 重复但映射一致的字段也使用
+                validMapping.put(obfuscated, stats.firstValue);
+                log.debug("混淆字段 '{}' 重复出现但映射一致，将进行替换", obfuscated);
+                duplicates.increment();
+            } else {
+                // 重复且映射不一致的字段不使用
+                log.warn("混淆字段 '{}' 出现了 {} 次且映射不一致，将不进行替换", obfuscated, stats.count);
+                conflicts.increment();
+                continue;
+            }
+            containsSpace |= obfuscated.indexOf(' ') >= 0;
+        }
+
+        report.count("mapping.entries", validMapping.size());
+
+        // 绝大多数 mapping 中没有带空格的 key, 直接返回
+        if (!containsSpace) {
+            return validMapping;
+        }
+
+        // 对validMapping中的key进行处理，如果包含空格则删除
+        Map<String, String> processedMapping = new HashMap<>();
+
+        for (Map.Entry<String, String> entry : validMapping.entrySet()) {
+            String obfuscated = entry.getKey();
+            String deobfuscated = entry.getValue();
+
+            if (obfuscated.contains(" ")) {
+                String cleanedObfuscated = obfuscated.replace(" ", "");
+                processedMapping.put(cleanedObfuscated, deobfuscated);
+                log.info("清理了混淆字段 '{}' 中的空格，清理后为 '{}'", obfuscated, cleanedObfuscated);
+            } else {
+                processedMapping.put(obfuscated, deobfuscated);
+            }
+        }
+
+        return processedMapping;
+    }
+
+    /**
+     * 一块 tsv 的解析结果
+     */
+    private static class Partition {
+        Map<String, KeyStats> stats = new LinkedHashMap<>();   // 按首次出现顺序
+        int shortRecords = 0;                                   // 元素小于 2 的行数
+        boolean requiresCsvParser = false;                      // 存在引号字段, 需要回退到 commons-csv
+
+        void record(String obfuscated, String deobfuscated) {
+            KeyStats keyStats = stats.get(obfuscated);
+            if (keyStats == null) {
+                stats.put(obfuscated, new KeyStats(deobfuscated));
+            } else {
+                keyStats.add(deobfuscated);
+            }
+        }
+    }
+
+    /**
+     * 单个混淆字段的出现统计
+     */
+    private static class KeyStats {
+        final String firstValue;            // 首次出现时的映射
+        int count = 1;                      // 出现次数
+        boolean repeatedFirstValue = false; // 之后是否再次出现过与首次一致的映射
+        Set<String> otherValues;            // 与首次不一致的映射, 用于跨块合并 (极少出现)
+
+        KeyStats(String firstValue) {
+            this.firstValue = firstValue;
+        }
+
+        void add(String value) {
+            count++;
+            addValue(value);
+        }
+
+        private void addValue(String value) {
+            if (firstValue.equals(value)) {
+                repeatedFirstValue = true;
+            } else {
+                if (otherValues == null) {
+                    otherValues = new HashSet<>();
+                }
+                otherValues.add(value);
+            }
+        }
+
+        /**
+         * 合并文件中更靠后的一块的统计
+         */
+        void merge(KeyStats later) {
+            count += later.count;
+            addValue(later.firstValue);
+            if (later.otherValues != null) {
+                later.otherValues.forEach(this::addValue);
+            }
+        }
+    }
+}
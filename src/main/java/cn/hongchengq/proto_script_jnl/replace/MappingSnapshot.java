@@ -0,0 +1,277 @@
+package cn.hongchengq.proto_script_jnl.replace;
+
+import cn.hongchengq.proto_script_jnl.report.RunReport;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.stream.Stream;
+
+/**
+ * mapping 编译缓存
+ * <p>
+ * 把构建好的 Aho-Corasick 自动机原样写入二进制快照, 文件名由 mapping.tsv 内容的 SHA-256 决定;
+ * 之后 mapping 未变化时直接内存映射快照并在其上匹配, 不再解析 tsv 和构建自动机
+ * <p>
+ * 文件格式 (小端序): 文件头 | int 区段 | char 区段
+ * <pre>
+ * int magic, int version, byte[32] tsvHash,
+ * int stateCount, int edgeCount, int keyCount, int keyCharCount, int valueCharCount,
+ * long[4] mappingCounters (构建时 mapping.entries / duplicates / conflicts / shortRecords)
+ * int[] edgeStart, edgeTargets, fail, output, dictLink, keyOffsets, valueOffsets
+ * char[] edgeChars, keyChars, valueChars
+ * </pre>
+ */
+@Slf4j
+public class MappingSnapshot {
+    private static final int MAGIC = 0x414A5350;       // "PSJA"
+    // 快照格式或 mapping 校验规则变化时递增, 旧快照自动失效
+    private static final int VERSION = 2;
+    private static final int HASH_LENGTH = 32;
+    // 写入快照的 mapping 计数器, 命中缓存时原样登记到运行报告
+    private static final String[] MAPPING_COUNTERS = {
+            "mapping.entries", "mapping.duplicates", "mapping.conflicts", "mapping.shortRecords"
+    };
+    private static final int HEADER_SIZE = 4 + 4 + HASH_LENGTH + 4 * 5 + 8 * MAPPING_COUNTERS.length;
+    private static final String FILE_PREFIX = "mapping-";
+    private static final String FILE_SUFFIX = ".acbin";
+
+    /**
+     * 优先从缓存加载自动机, 缓存不存在或失效时重新构建并写入缓存
+     * @param tsvFile mapping.tsv 路径
+     * @param cacheDirectory 缓存目录
+     * @param report 记录 mapping 计数器, 命中缓存时取快照中保存的构建时计数, 与重新构建时一致
+     */
+    public static AhoCorasickAutomaton loadOrBuild(Path tsvFile, Path cacheDirectory, RunReport report) throws IOException {
+        byte[] hash = hash(tsvFile);
+        Path snapshotFile = cacheDirectory.resolve(FILE_PREFIX + HexFormat.of().formatHex(hash, 0, 8) + FILE_SUFFIX);
+
+        if (Files.isRegularFile(snapshotFile)) {
+            try {
+                Snapshot snapshot = map(snapshotFile, hash);
+                if (snapshot != null) {
+                    log.info("使用 mapping 缓存: {}，共 {} 个状态", snapshotFile, snapshot.automaton().getStateCount());
+                    record(report, snapshot.counters());
+                    return snapshot.automaton();
+                }
+            } catch (IOException | RuntimeException e) {
+                log.warn("mapping 缓存 {} 无法读取，将重新构建", snapshotFile, e);
+            }
+        }
+
+        // 先记到独立的报告里, 以便把本次构建的计数写入快照
+        RunReport loadReport = new RunReport();
+        AhoCorasickAutomaton automaton = AhoCorasickAutomaton.build(MappingLoader.load(tsvFile, loadReport));
+        log.info("Aho-Corasick 自动机构建完成，共 {} 个状态", automaton.getStateCount());
+        long[] counters = new long[MAPPING_COUNTERS.length];
+        for (int i = 0; i < counters.length; i++) {
+            counters[i] = loadReport.get(MAPPING_COUNTERS[i]);
+        }
+        record(report, counters);
+
+        try {
+            write(snapshotFile, hash, automaton, counters);
+            log.info("mapping 缓存已写入: {}", snapshotFile);
+        } catch (IOException e) {
+            // 缓存写入失败不影响本次替换
+            log.warn("mapping 缓存 {} 写入失败", snapshotFile, e);
+        }
+        return automaton;
+    }
+
+    /**
+     * 登记 mapping 计数器, 为 0 时也登记, 便于比较命中与未命中缓存的运行报告
+     */
+    private static void record(RunReport report, long[] counters) {
+        for (int i = 0; i < counters.length; i++) {
+            report.count(MAPPING_COUNTERS[i], counters[i]);
+        }
+    }
+
+    /**
+     * 计算 tsv 内容的 SHA-256
+     */
+    static byte[] hash(Path tsvFile) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+
+        try (FileChannel channel = FileChannel.open(tsvFile, StandardOpenOption.READ)) {
+            long size = channel.size();
+            long position = 0;
+            while (position < size) {
+                long length = Math.min(Integer.MAX_VALUE, size - position);
+                digest.update(channel.map(FileChannel.MapMode.READ_ONLY, position, length));
+                position += length;
+            }
+        }
+        return digest.digest();
+    }
+
+    /**
+     * 内存映射快照文件
+     * @return 自动机及构建时的 mapping 计数器, 文件头与当前 tsv 不匹配时返回 null
+     */
+    static Snapshot map(Path snapshotFile, byte[] expectedHash) throws IOException {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(snapshotFile, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+        if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            return null;
+        }
+        byte[] hash = new byte[HASH_LENGTH];
+        buffer.get(8, hash);
+        if (!Arrays.equals(hash, expectedHash)) {
+            return null;
+        }
+
+        int position = 8 + HASH_LENGTH;
+        int stateCount = buffer.getInt(position);
+        int edgeCount = buffer.getInt(position + 4);
+        int keyCount = buffer.getInt(position + 8);
+        int keyCharCount = buffer.getInt(position + 12);
+        int valueCharCount = buffer.getInt(position + 16);
+        long[] counters = new long[MAPPING_COUNTERS.length];
+        for (int i = 0; i < counters.length; i++) {
+            counters[i] = buffer.getLong(position + 20 + 8 * i);
+        }
+
+        Sections sections = new Sections(buffer, HEADER_SIZE);
+        IntBuffer edgeStart = sections.ints(stateCount + 1);
+        IntBuffer edgeTargets = sections.ints(edgeCount);
+        IntBuffer fail = sections.ints(stateCount);
+        IntBuffer output = sections.ints(stateCount);
+        IntBuffer dictLink = sections.ints(stateCount);
+        IntBuffer keyOffsets = sections.ints(keyCount + 1);
+        IntBuffer valueOffsets = sections.ints(keyCount + 1);
+        CharBuffer edgeChars = sections.chars(edgeCount);
+        CharBuffer keyChars = sections.chars(keyCharCount);
+        CharBuffer valueChars = sections.chars(valueCharCount);
+        if (sections.position != buffer.limit()) {
+            throw new IOException("mapping 缓存长度不正确: " + snapshotFile);
+        }
+
+        return new Snapshot(new AhoCorasickAutomaton(edgeStart, edgeChars, edgeTargets, fail, output, dictLink,
+                keyOffsets, keyChars, valueOffsets, valueChars), counters);
+    }
+
+    /**
+     * 写入快照, 先写临时文件再原子替换, 并清理其它过期快照
+     */
+    static void write(Path snapshotFile, byte[] hash, AhoCorasickAutomaton automaton, long[] counters) throws IOException {
+        Path directory = snapshotFile.toAbsolutePath().getParent();
+        Files.createDirectories(directory);
+
+        IntBuffer[] intSections = {
+                automaton.edgeStart, automaton.edgeTargets, automaton.fail, automaton.output, automaton.dictLink,
+                automaton.keyOffsets, automaton.valueOffsets
+        };
+        CharBuffer[] charSections = {automaton.edgeChars, automaton.keyChars, automaton.valueChars};
+
+        long size = HEADER_SIZE;
+        for (IntBuffer section : intSections) {
+            size += 4L * section.limit();
+        }
+        for (CharBuffer section : charSections) {
+            size += 2L * section.limit();
+        }
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("mapping 过大，无法写入缓存: " + size + " bytes");
+        }
+
+        Path tempFile = Files.createTempFile(directory, FILE_PREFIX, ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(tempFile,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+                buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+                buffer.putInt(MAGIC).putInt(VERSION).put(hash);
+                buffer.putInt(automaton.getStateCount())
+                        .putInt(automaton.edgeTargets.limit())
+                        .putInt(automaton.getKeyCount())
+                        .putInt(automaton.keyChars.limit())
+                        .putInt(automaton.valueChars.limit());
+                for (long counter : counters) {
+                    buffer.putLong(counter);
+                }
+
+                Sections sections = new Sections(buffer, HEADER_SIZE);
+                for (IntBuffer section : intSections) {
+                    sections.ints(section.limit()).put(section.duplicate());
+                }
+                for (CharBuffer section : charSections) {
+                    sections.chars(section.limit()).put(section.duplicate());
+                }
+                buffer.force();
+            }
+            Files.move(tempFile, snapshotFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+
+        // 同一目录下其它 mapping 的快照已经过期
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : files.toList()) {
+                String name = file.getFileName().toString();
+                if (name.startsWith(FILE_PREFIX) && name.endsWith(FILE_SUFFIX) && !file.equals(snapshotFile.toAbsolutePath())) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+    }
+
+    /**
+     * 从快照映射出的自动机及其构建时的 mapping 计数器
+     */
+    record Snapshot(AhoCorasickAutomaton automaton, long[] counters) {
+    }
+
+    /**
+     * 顺序切分快照中的各个区段 (读写共用)
+     */
+    private static class Sections {
+        private final ByteBuffer buffer;
+        private int position;
+
+        Sections(ByteBuffer buffer, int position) {
+            this.buffer = buffer;
+            this.position = position;
+        }
+
+        IntBuffer ints(int count) throws IOException {
+            return slice(4, count).asIntBuffer();
+        }
+
+        CharBuffer chars(int count) throws IOException {
+            return slice(2, count).asCharBuffer();
+        }
+
+        private ByteBuffer slice(int elementSize, int count) throws IOException {
+            long length = (long) elementSize * count;
+            if (count < 0 || position + length > buffer.limit()) {
+                throw new IOException("mapping 缓存已损坏");
+            }
+            // slice 会重置字节序, 需要重新指定
+            ByteBuffer slice = buffer.slice(position, (int) length).order(ByteOrder.LITTLE_ENDIAN);
+            position += (int) length;
+            return slice;
+        }
+    }
+}
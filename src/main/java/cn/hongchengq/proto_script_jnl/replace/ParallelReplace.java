@@ -0,0 +1,196 @@
+package cn.hongchengq.proto_script_jnl.replace;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.CharArrayWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Function;
+
+/**
+ * 并行分块替换
+ * <p>
+ * 输入文件以内存映射方式读取, 按换行符切成若干块后交给 fork-join 线程池替换, 再按原顺序写回
+ * 行的切分方式与 BufferedReader#readLine 一致, 行尾统一写入系统换行符, 因此输出与顺序替换逐字节相同
+ */
+@Slf4j
+public class ParallelReplace {
+    // 查找块边界时每次映射的窗口大小
+    static final int BOUNDARY_SCAN_WINDOW = 64 * 1024;
+
+    /**
+     * 并行替换整个文件
+     * @param inputFile 输入文件 (UTF-8)
+     * @param outputFile 输出文件, 会被覆盖
+     * @param header 写在输出文件最前面的内容
+     * @param replacer 行替换器, 需要线程安全
+     * @param chunkSize 每块的目标字节数, 实际会延伸到下一个换行符
+     * @param parallelism 并行度, 小于等于 0 时使用 CPU 核心数
+     * @return 处理的行数
+     */
+    public static long replaceFile(Path inputFile, Path outputFile, String header, LineReplacer replacer,
+                                   int chunkSize, int parallelism) throws IOException {
+        try (OutputStream outputStream = Files.newOutputStream(outputFile)) {
+            outputStream.write(header.getBytes(StandardCharsets.UTF_8));
+            // 在工作线程中完成编码
+            return replaceChunks(inputFile, replacer, chunkSize, parallelism,
+                    text -> text.getBytes(StandardCharsets.UTF_8), outputStream::write);
+        }
+    }
+
+    /**
+     * 并行替换整个文件, 每块替换结果按原顺序交给 sink, 不写出文件
+     * 所有块依次拼接后与 replaceFile 写出的内容 (不含 header) 相同
+     * @param sink 在调用线程中按顺序接收每块的替换结果, 可以阻塞以限制上游速度
+     * @return 处理的行数
+     */
+    public static long replaceChunks(Path inputFile, LineReplacer replacer, int chunkSize, int parallelism,
+                                     ChunkSink<String> sink) throws IOException {
+        return replaceChunks(inputFile, replacer, chunkSize, parallelism, text -> text, sink);
+    }
+
+    private static <T> long replaceChunks(Path inputFile, LineReplacer replacer, int chunkSize, int parallelism,
+                                          Function<String, T> finisher, ChunkSink<T> sink) throws IOException {
+        int threads = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+        int targetChunkSize = Math.max(chunkSize, 1024);
+        long lineCount = 0;
+
+        try (FileChannel channel = FileChannel.open(inputFile, StandardOpenOption.READ);
+             ForkJoinPool pool = new ForkJoinPool(threads)) {
+
+            long size = channel.size();
+            // 同时在途的块数量有上限, 保证内存占用与文件大小无关
+            Deque<ForkJoinTask<ChunkResult<T>>> inFlight = new ArrayDeque<>();
+            int maxInFlight = threads * 2;
+            long start = 0;
+            int chunkCount = 0;
+
+            while (start < size) {
+                long end = findChunkEnd(channel, start + targetChunkSize, size);
+                MappedByteBuffer chunk = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+                inFlight.addLast(pool.submit(() -> replaceChunk(chunk, replacer, finisher)));
+                chunkCount++;
+                start = end;
+
+                if (inFlight.size() >= maxInFlight) {
+                    lineCount += writeResult(inFlight.removeFirst(), sink);
+                }
+            }
+            while (!inFlight.isEmpty()) {
+                lineCount += writeResult(inFlight.removeFirst(), sink);
+            }
+
+            log.info("并行替换完成，共 {} 块 {} 行，并行度 {}", chunkCount, lineCount, threads);
+        }
+
+        return lineCount;
+    }
+
+    /**
+     * 按顺序接收替换结果
+     */
+    @FunctionalInterface
+    public interface ChunkSink<T> {
+        void accept(T chunk) throws IOException;
+    }
+
+    private static <T> long writeResult(ForkJoinTask<ChunkResult<T>> task, ChunkSink<T> sink) throws IOException {
+        ChunkResult<T> result;
+        try {
+            result = task.join();
+        } catch (RuntimeException e) {
+            // 解码失败等 IO 异常在工作线程中被包装, 这里还原
+            for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+                if (cause instanceof IOException ioException) {
+                    throw ioException;
+                }
+            }
+            throw e;
+        }
+        sink.accept(result.value());
+        return result.lineCount();
+    }
+
+    /**
+     * 从 position 开始查找第一个换行符, 返回其后一个位置作为块结尾
+     * UTF-8 多字节字符中不会出现 '\n' 字节, 因此按字节切分是安全的
+     */
+    static long findChunkEnd(FileChannel channel, long position, long size) throws IOException {
+        while (position < size) {
+            int windowSize = (int) Math.min(BOUNDARY_SCAN_WINDOW, size - position);
+            MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, windowSize);
+            for (int i = 0; i < windowSize; i++) {
+                if (window.get(i) == '\n') {
+                    return position + i + 1;
+                }
+            }
+            position += windowSize;
+        }
+        return size;
+    }
+
+    /**
+     * 替换一个块
+     */
+    private static <T> ChunkResult<T> replaceChunk(ByteBuffer chunk, LineReplacer replacer, Function<String, T> finisher) {
+        CharBuffer chars;
+        try {
+            // 与 Files.newBufferedReader 一致, 非法 UTF-8 直接报错
+            chars = StandardCharsets.UTF_8.newDecoder().decode(chunk);
+        } catch (IOException e) {
+            throw new UncheckedIOException("输入文件不是合法的 UTF-8", e);
+        }
+
+        // 解码结果是堆内缓冲区, 各行直接在其数组上替换
+        char[] text = chars.array();
+        int offset = chars.arrayOffset() + chars.position();
+        int length = offset + chars.remaining();
+        String lineSeparator = System.lineSeparator();
+        CharArrayWriter output = new CharArrayWriter(chars.remaining() + chars.remaining() / 4);
+        long lineCount = 0;
+
+        // 与 BufferedReader#readLine 相同: 以 \n、\r 或 \r\n 结束一行, 末尾不完整的行同样算作一行
+        try {
+            int lineStart = offset;
+            int i = offset;
+            while (i < length) {
+                char c = text[i];
+                if (c == '\n' || c == '\r') {
+                    replacer.replaceTo(text, lineStart, i, output);
+                    output.write(lineSeparator);
+                    lineCount++;
+                    if (c == '\r' && i + 1 < length && text[i + 1] == '\n') {
+                        i++;
+                    }
+                    lineStart = i + 1;
+                }
+                i++;
+            }
+            if (lineStart < length) {
+                replacer.replaceTo(text, lineStart, length, output);
+                output.write(lineSeparator);
+                lineCount++;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        return new ChunkResult<>(finisher.apply(output.toString()), lineCount);
+    }
+
+    private record ChunkResult<T>(T value, long lineCount) {
+    }
+}
@@ -0,0 +1,293 @@
+package cn.hongchengq.proto_script_jnl.replace;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.CharArrayWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 按完整标识符匹配的替换器
+ * <p>
+ * 一行按标识符 ([A-Za-z0-9_] 的最长连续段) 切分, 只有整个标识符等于某个 key 时才替换,
+ * 不会像 Trie 树 / Aho-Corasick 那样替换更长标识符中的一部分 (如 key 为 ABC 时不会改动 ABCD 或 X_ABC)
+ * <p>
+ * key/value 拼接存放在字符数组中, 以开放寻址哈希表按字符区间查找, 匹配过程不创建字符串;
+ * 每个线程复用行缓冲区与本行的替换记录列表, replaceTo 直接写入输出 Writer, 替换一个大文件时几乎不产生垃圾
+ * <p>
+ * 不是合法标识符的 key (含空格、点号等) 在这种模式下永远不会匹配, 构建时忽略并记录警告
+ */
+@Slf4j
+public final class TokenReplacer implements LineReplacer {
+    private static final int EMPTY = -1;
+    private static final char[] ANNOTATION_START = " /*[".toCharArray();
+    private static final char[] ANNOTATION_SEPARATOR = ", ".toCharArray();
+    private static final char[] ANNOTATION_ARROW = "->".toCharArray();
+    private static final char[] ANNOTATION_END = "]*/".toCharArray();
+
+    // 每个线程复用的缓冲区
+    private static final ThreadLocal<Buffers> BUFFERS = ThreadLocal.withInitial(Buffers::new);
+
+    private final int[] table;              // 开放寻址哈希表, 存放 key 下标, 空槽为 EMPTY
+    private final int mask;
+    private final int[] hashes;             // 第 k 个 key 的哈希值
+    private final int[] keyOffsets;         // 第 k 个 key 为 keyChars[keyOffsets[k], keyOffsets[k + 1])
+    private final char[] keyChars;
+    private final int[] valueOffsets;       // 第 k 个 value 为 valueChars[valueOffsets[k], valueOffsets[k + 1])
+    private final char[] valueChars;
+    private final boolean[] unchanged;      // key 与 value 相同, 不记录到行尾注释
+    private final LongAdder matches;        // 匹配次数, 不统计时为 null
+
+    @Getter private final int keyCount;
+
+    private TokenReplacer(int[] table, int[] hashes, int[] keyOffsets, char[] keyChars,
+                          int[] valueOffsets, char[] valueChars, boolean[] unchanged, LongAdder matches) {
+        this.table = table;
+        this.mask = table.length - 1;
+        this.hashes = hashes;
+        this.keyOffsets = keyOffsets;
+        this.keyChars = keyChars;
+        this.valueOffsets = valueOffsets;
+        this.valueChars = valueChars;
+        this.unchanged = unchanged;
+        this.matches = matches;
+        this.keyCount = hashes.length;
+    }
+
+    @Override
+    public TokenReplacer countingMatches(LongAdder matches) {
+        return new TokenReplacer(table, hashes, keyOffsets, keyChars, valueOffsets, valueChars, unchanged, matches);
+    }
+
+    /**
+     * 根据 mapping 构建替换器
+     * @param mapping 混淆字段 -> 解混淆字段, 不是合法标识符的 key 会被忽略
+     */
+    public static TokenReplacer build(Map<String, String> mapping) {
+        int keyCount = 0;
+        int keyLength = 0;
+        int valueLength = 0;
+        int skipped = 0;
+        for (Map.Entry<String, String> entry : mapping.entrySet()) {
+            if (isIdentifier(entry.getKey())) {
+                keyCount++;
+                keyLength += entry.getKey().length();
+                valueLength += entry.getValue().length();
+            } else {
+                skipped++;
+            }
+        }
+        if (skipped > 0) {
+            log.warn("mapping 中有 {} 个 key 不是完整的标识符，按标识符替换时不会匹配", skipped);
+        }
+
+        // 装载因子不超过 0.5
+        int capacity = Integer.highestOneBit(Math.max(keyCount, 1) * 2 - 1) << 1;
+        int[] table = new int[capacity];
+        Arrays.fill(table, EMPTY);
+        int[] hashes = new int[keyCount];
+        int[] keyOffsets = new int[keyCount + 1];
+        char[] keyChars = new char[keyLength];
+        int[] valueOffsets = new int[keyCount + 1];
+        char[] valueChars = new char[valueLength];
+        boolean[] unchanged = new boolean[keyCount];
+
+        int k = 0;
+        for (Map.Entry<String, String> entry : mapping.entrySet()) {
+            String key = entry.getKey();
+            if (!isIdentifier(key)) {
+                continue;
+            }
+            String value = entry.getValue();
+            key.getChars(0, key.length(), keyChars, keyOffsets[k]);
+            keyOffsets[k + 1] = keyOffsets[k] + key.length();
+            value.getChars(0, value.length(), valueChars, valueOffsets[k]);
+            valueOffsets[k + 1] = valueOffsets[k] + value.length();
+            unchanged[k] = key.equals(value);
+
+            int hash = hash(keyChars, keyOffsets[k], keyOffsets[k + 1]);
+            hashes[k] = hash;
+            int slot = spread(hash) & (capacity - 1);
+            while (table[slot] != EMPTY) {
+                slot = (slot + 1) & (capacity - 1);
+            }
+            table[slot] = k;
+            k++;
+        }
+
+        return new TokenReplacer(table, hashes, keyOffsets, keyChars, valueOffsets, valueChars, unchanged, null);
+    }
+
+    @Override
+    public String replace(String line) {
+        if (line.isEmpty()) {
+            return line;
+        }
+        Buffers buffers = BUFFERS.get();
+        char[] chars = buffers.line(line.length());
+        line.getChars(0, line.length(), chars, 0);
+        CharArrayWriter out = buffers.output;
+        out.reset();
+        try {
+            // 整行没有替换时直接返回原行
+            return replaceTo(chars, 0, line.length(), out) ? out.toString() : line;
+        } catch (IOException e) {
+            // CharArrayWriter 不会抛出 IO 异常
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public boolean replaceTo(char[] chars, int start, int end, Writer out) throws IOException {
+        Annotations annotations = BUFFERS.get().annotations;
+        annotations.clear();
+
+        int matchCount = 0;
+        int copyFrom = start;
+        int i = start;
+        while (i < end) {
+            if (!isIdentifierChar(chars[i])) {
+                i++;
+                continue;
+            }
+
+            // 一个完整的标识符, 边计算哈希边扫描
+            int tokenStart = i;
+            int hash = 0;
+            while (i < end && isIdentifierChar(chars[i])) {
+                hash = 31 * hash + chars[i];
+                i++;
+            }
+            int key = find(chars, tokenStart, i, hash);
+            if (key == EMPTY) {
+                continue;
+            }
+
+            out.write(chars, copyFrom, tokenStart - copyFrom);
+            out.write(valueChars, valueOffsets[key], valueOffsets[key + 1] - valueOffsets[key]);
+            copyFrom = i;
+            matchCount++;
+            if (!unchanged[key]) {
+                annotations.add(key);
+            }
+        }
+        out.write(chars, copyFrom, end - copyFrom);
+        if (matches != null && matchCount > 0) {
+            matches.add(matchCount);
+        }
+
+        if (annotations.size > 0) {
+            out.write(ANNOTATION_START);
+            for (int a = 0; a < annotations.size; a++) {
+                int key = annotations.keys[a];
+                if (a > 0) {
+                    out.write(ANNOTATION_SEPARATOR);
+                }
+                out.write(keyChars, keyOffsets[key], keyOffsets[key + 1] - keyOffsets[key]);
+                out.write(ANNOTATION_ARROW);
+                out.write(valueChars, valueOffsets[key], valueOffsets[key + 1] - valueOffsets[key]);
+            }
+            out.write(ANNOTATION_END);
+        }
+        // 只命中 key 与 value 相同的映射时输出与原行相同
+        return annotations.size > 0;
+    }
+
+    /**
+     * 在哈希表中查找 chars[start, end)
+     * @return key 下标, 不存在时返回 EMPTY
+     */
+    private int find(char[] chars, int start, int end, int hash) {
+        int length = end - start;
+        for (int slot = spread(hash) & mask; ; slot = (slot + 1) & mask) {
+            int key = table[slot];
+            if (key == EMPTY) {
+                return EMPTY;
+            }
+            if (hashes[key] == hash && keyOffsets[key + 1] - keyOffsets[key] == length &&
+                    Arrays.equals(keyChars, keyOffsets[key], keyOffsets[key + 1], chars, start, end)) {
+                return key;
+            }
+        }
+    }
+
+    /**
+     * 与 String#hashCode 相同的多项式哈希
+     */
+    private static int hash(char[] chars, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + chars[i];
+        }
+        return hash;
+    }
+
+    /**
+     * 与 HashMap 相同, 把高位混入低位后再取槽位
+     */
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    private static boolean isIdentifier(String text) {
+        if (text.isEmpty()) {
+            return false;
+        }
+        for (int i = 0; i < text.length(); i++) {
+            if (!isIdentifierChar(text.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isIdentifierChar(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_';
+    }
+
+    /**
+     * 一个线程复用的缓冲区
+     */
+    private static final class Buffers {
+        char[] line = new char[256];                            // replace(String) 时复制行内容
+        final CharArrayWriter output = new CharArrayWriter(512); // replace(String) 时的输出
+        final Annotations annotations = new Annotations();
+
+        char[] line(int length) {
+            if (line.length < length) {
+                line = new char[Math.max(length, line.length * 2)];
+            }
+            return line;
+        }
+    }
+
+    /**
+     * 本行发生的替换 (key 下标), 按首次出现的顺序, 同一个 key 只记录一次
+     */
+    private static final class Annotations {
+        int[] keys = new int[16];
+        int size;
+
+        void clear() {
+            size = 0;
+        }
+
+        void add(int key) {
+            // 一行中的替换很少, 线性查重即可
+            for (int i = 0; i < size; i++) {
+                if (keys[i] == key) {
+                    return;
+                }
+            }
+            if (size == keys.length) {
+                keys = Arrays.copyOf(keys, size * 2);
+            }
+            keys[size++] = key;
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package cn.hongchengq.proto_script_jnl.report;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * 运行结束时每个计数器的最终值
+ */
+@Name("cn.hongchengq.proto_script_jnl.Counter")
+@Label("Counter")
+@Category("proto_script_jnl")
+@Description("运行结束时的计数器 (行数、写出文件数、字节数等)")
+@StackTrace(false)
+class CounterEvent extends Event {
+    @Label("Name")
+    String name;
+
+    @Label("Value")
+    long value;
+}
@@ -0,0 +1,166 @@
+package cn.hongchengq.proto_script_jnl.report;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 运行报告: 各阶段耗时与计数器
+ * <p>
+ * 阶段同时作为 JFR 事件 (cn.hongchengq.proto_script_jnl.Stage) 提交, 运行结束时每个计数器提交一个
+ * cn.hongchengq.proto_script_jnl.Counter 事件; 没有开启 JFR 记录时事件几乎没有开销
+ * <pre>
+ * long lineCount = report.time("replace", () -> replaceLines(...));
+ * report.count("replace.lines", lineCount);
+ * </pre>
+ * 计数器可以在任意线程中累加; 阶段按结束顺序记录, 同名阶段的耗时合并.
+ * 每次运行 (批量模式下每个任务) 使用自己的实例, 同时运行的任务互不影响
+ */
+@Slf4j
+public class RunReport {
+    private static final DateTimeFormatter FILE_TIME_FORMATTER = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
+
+    private final Map<String, Long> stageNanos = Collections.synchronizedMap(new LinkedHashMap<>());
+    private final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private long startNanos = System.nanoTime();
+
+    /**
+     * 执行一个阶段并记录耗时, 阶段抛出异常时同样记录
+     * @return 阶段的结果
+     */
+    public <T, E extends Exception> T time(String name, Task<T, E> task) throws E {
+        long start = System.nanoTime();
+        StageEvent event = new StageEvent();
+        event.begin();
+        try {
+            return task.call();
+        } finally {
+            long nanos = System.nanoTime() - start;
+            stageNanos.merge(name, nanos, Long::sum);
+            event.end();
+            if (event.shouldCommit()) {
+                event.stage = name;
+                event.commit();
+            }
+            log.debug("阶段 {} 耗时 {} ms", name, TimeUnit.NANOSECONDS.toMillis(nanos));
+        }
+    }
+
+    /**
+     * 执行一个没有结果的阶段并记录耗时
+     */
+    public <E extends Exception> void time(String name, Action<E> action) throws E {
+        time(name, () -> {
+            action.run();
+            return null;
+        });
+    }
+
+    /**
+     * 累加计数器
+     */
+    public void count(String name, long delta) {
+        counter(name).add(delta);
+    }
+
+    /**
+     * 计数器本身, 用于热点循环中避免重复查找
+     */
+    public LongAdder counter(String name) {
+        return counters.computeIfAbsent(name, key -> new LongAdder());
+    }
+
+    /**
+     * 计数器加一
+     */
+    public void increment(String name) {
+        count(name, 1);
+    }
+
+    /**
+     * @return 计数器当前值, 不存在时为 0
+     */
+    public long get(String name) {
+        LongAdder counter = counters.get(name);
+        return counter == null ? 0 : counter.sum();
+    }
+
+    /**
+     * 清空已记录的内容, 重新开始计时 (watch 模式每轮处理前)
+     * 之前通过 counter 取得的计数器不再计入报告
+     */
+    public void reset() {
+        stageNanos.clear();
+        counters.clear();
+        startNanos = System.nanoTime();
+    }
+
+    /**
+     * 提交计数器 JFR 事件并写出 JSON 报告
+     * @param directory 报告目录, 文件名为 run-report-游戏版本-时间.json
+     * @param summary 写在报告开头的运行信息 (游戏版本、bootMode 等)
+     * @return 报告文件
+     */
+    public Path write(Path directory, Map<String, Object> summary) throws IOException {
+        Map<String, Long> counterValues = new TreeMap<>();
+        counters.forEach((name, counter) -> counterValues.put(name, counter.sum()));
+        for (Map.Entry<String, Long> entry : counterValues.entrySet()) {
+            CounterEvent event = new CounterEvent();
+            if (event.shouldCommit()) {
+                event.name = entry.getKey();
+                event.value = entry.getValue();
+                event.commit();
+            }
+        }
+
+        Map<String, Object> report = new LinkedHashMap<>(summary);
+        report.put("totalMillis", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+        Map<String, Double> stages = new LinkedHashMap<>();
+        synchronized (stageNanos) {
+            stageNanos.forEach((name, nanos) -> stages.put(name, nanos / 1_000_000.0));
+        }
+        report.put("stagesMillis", stages);
+        report.put("counters", counterValues);
+
+        Runtime runtime = Runtime.getRuntime();
+        Map<String, Object> jvm = new LinkedHashMap<>();
+        jvm.put("javaVersion", Runtime.version().toString());
+        jvm.put("availableProcessors", runtime.availableProcessors());
+        jvm.put("maxHeapBytes", runtime.maxMemory());
+        jvm.put("usedHeapBytes", runtime.totalMemory() - runtime.freeMemory());
+        report.put("jvm", jvm);
+
+        Files.createDirectories(directory);
+        String version = String.valueOf(summary.getOrDefault("gameVersion", "unknown")).replaceAll("[^\\w.-]", "_");
+        Path file = directory.resolve("run-report-" + version + "-" + LocalDateTime.now().format(FILE_TIME_FORMATTER) + ".json");
+        new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT).writeValue(file.toFile(), report);
+        log.info("运行报告已生成: {}", file);
+        return file;
+    }
+
+    /**
+     * 有结果的阶段
+     */
+    @FunctionalInterface
+    public interface Task<T, E extends Exception> {
+        T call() throws E;
+    }
+
+    /**
+     * 没有结果的阶段
+     */
+    @FunctionalInterface
+    public interface Action<E extends Exception> {
+        void run() throws E;
+    }
+}
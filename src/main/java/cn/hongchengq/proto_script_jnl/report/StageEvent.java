@@ -0,0 +1,19 @@
+package cn.hongchengq.proto_script_jnl.report;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * 一个处理阶段, 持续时间即阶段耗时
+ */
+@Name("cn.hongchengq.proto_script_jnl.Stage")
+@Label("Stage")
+@Category("proto_script_jnl")
+@Description("处理阶段 (mapping 加载、替换、解析、写出等)")
+class StageEvent extends Event {
+    @Label("Stage")
+    String stage;
+}
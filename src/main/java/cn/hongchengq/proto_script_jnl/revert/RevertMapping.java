@@ -1,31 +1,57 @@
 package cn.hongchengq.proto_script_jnl.revert;
 
-import cn.hongchengq.proto_script_jnl.Main;
+import cn.hongchengq.proto_script_jnl.Config;
+import cn.hongchengq.proto_script_jnl.ConstProtoType;
+import cn.hongchengq.proto_script_jnl.parser.*;
+import cn.hongchengq.proto_script_jnl.report.RunReport;
 import lombok.extern.slf4j.Slf4j;
 
 import java.io.*;
 import java.nio.file.*;
 import java.util.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 import java.util.stream.Stream;
 
-// todo
+/**
+ * 映射还原 (bootMode 20)
+ * <p>
+ * 比较混淆的 proto 目录与已解混淆的 proto 目录, 还原出 mapping.tsv 格式的映射关系
+ * <p>
+ * 1. 两个目录中的文件并行解析, 所有 message/enum (含嵌套) 以全限定名登记
+ * 2. message 配对: 同名 → 相同 cmdId → 沿已配对 message 中编号相同的字段类型传播 → 结构指纹唯一,
+ *    后两步交替进行直到没有新的配对
+ * 3. 已配对的 message 按字段编号对齐 (而不是字段顺序), 类型兼容时输出字段名映射; enum 值按数值对齐
+ */
 @Slf4j
 public class RevertMapping {
 
+    /**
+     * 入口方法
+     * @param report 本次运行的报告
+     */
+    public static void start(RunReport report) {
+        Config.ConfigBean.RevertMappingOptional optional = Config.getConfig().getRevertMappingOptional();
+        generateMapping(optional.getOriginalProtoDirectory(), optional.getProcessedProtoDirectory(),
+                optional.getOutputTsvPath(), report);
+    }
+
     /**
      * 比较两个目录中的proto文件，生成字段映射关系
      *
      * @param originalProtoDir 原始proto文件目录
      * @param processedProtoDir 处理后的proto文件目录
      * @param outputTsvPath 输出TSV文件路径
+     * @param report 记录各阶段耗时与配对结果
      */
-    public static void generateMapping(String originalProtoDir, String processedProtoDir, String outputTsvPath) {
+    public static void generateMapping(String originalProtoDir, String processedProtoDir, String outputTsvPath,
+                                       RunReport report) {
         try {
             // 获取两个目录中的所有proto文件
-            Map<String, List<String>> originalMessages = parseProtoDirectory(originalProtoDir);
-            Map<String, List<String>> processedMessages = parseProtoDirectory(processedProtoDir);
+            ProtoDefinitionRegistry<MessageInfo> originalMessages = report.time("parse", () -> parseProtoDirectory(originalProtoDir));
+            ProtoDefinitionRegistry<MessageInfo> processedMessages = report.time("parse", () -> parseProtoDirectory(processedProtoDir));
+
+            // 配对 message
+            MessageMatcher matcher = new MessageMatcher(originalMessages, processedMessages);
+            report.time("match", matcher::match);
 
             // 创建输出目录
             Path outputPath = Paths.get(outputTsvPath).getParent();
@@ -34,15 +60,23 @@ public class RevertMapping {
             }
 
             // 写入TSV文件
-            try (BufferedWriter writer = Files.newBufferedWriter(Paths.get(outputTsvPath))) {
-                // 写入头部
-                writer.write("Obfuscated\tDeobfuscated\tMessage\tType");
-                writer.newLine();
+            int rowCount = report.time("emit", () -> {
+                try (BufferedWriter writer = Files.newBufferedWriter(Paths.get(outputTsvPath))) {
+                    // 写入头部
+                    writer.write("Obfuscated\tDeobfuscated\tMessage\tType");
+                    writer.newLine();
 
-                // 比较并生成映射关系
-                compareAndWriteMappings(writer, originalMessages, processedMessages);
-            }
+                    // 比较并生成映射关系
+                    return compareAndWriteMappings(writer, originalMessages, matcher.pairs);
+                }
+            });
 
+            report.count("revert.messages", originalMessages.getDefinitions().size());
+            report.count("revert.pairedMessages", matcher.pairs.size());
+            report.count("revert.rows", rowCount);
+            log.info("message 配对 {}/{} 个 (同名 {}，cmdId {}，字段传播 {}，结构匹配 {})，共 {} 条映射",
+                    matcher.pairs.size(), originalMessages.getDefinitions().size(), matcher.byName, matcher.byCmdId,
+                    matcher.byPropagation, matcher.byFingerprint, rowCount);
             log.info("映射文件已生成: {}", outputTsvPath);
         } catch (IOException e) {
             log.error("生成映射文件时出错", e);
@@ -50,133 +84,116 @@ public class RevertMapping {
     }
 
     /**
-     * 解析目录中的所有proto文件
+     * 并行解析目录中的所有proto文件
      *
      * @param protoDir proto文件目录路径
-     * @return 消息名称到字段列表的映射
+     * @return 所有 message/enum, 按文件路径和出现顺序排列
      * @throws IOException IO异常
      */
-    private static Map<String, List<String>> parseProtoDirectory(String protoDir) throws IOException {
-        Map<String, List<String>> messages = new HashMap<>();
-
+    private static ProtoDefinitionRegistry<MessageInfo> parseProtoDirectory(String protoDir) throws IOException {
+        List<Path> files;
         try (Stream<Path> paths = Files.walk(Paths.get(protoDir))) {
-            paths.filter(Files::isRegularFile)
+            files = paths.filter(Files::isRegularFile)
                     .filter(path -> path.toString().endsWith(".proto"))
-                    .forEach(path -> {
-                        try {
-                            Map<String, List<String>> fileMessages = parseProtoFile(path.toString());
-                            messages.putAll(fileMessages);
-                        } catch (IOException e) {
-                            log.error("解析文件 {} 时出错", path, e);
-                        }
-                    });
+                    .sorted()
+                    .toList();
         }
 
-        return messages;
-    }
-
-    /**
-     * 解析单个proto文件
-     *
-     * @param filePath proto文件路径
-     * @return 消息名称到字段列表的映射
-     * @throws IOException IO异常
-     */
-    private static Map<String, List<String>> parseProtoFile(String filePath) throws IOException {
-        Map<String, List<String>> messages = new LinkedHashMap<>();
-        List<String> lines = Files.readAllLines(Paths.get(filePath));
-
-        String currentMessage = null;
-        List<String> currentFields = new ArrayList<>();
-        int nestingLevel = 0;
-
-        for (String line : lines) {
-            String trimmedLine = line.trim();
-
-            // 处理message开始
-            if (trimmedLine.startsWith("message ")) {
-                if (nestingLevel == 0) {
-                    // 顶层message
-                    Matcher matcher = Pattern.compile("message\\s+([\\w_]+)").matcher(trimmedLine);
-                    if (matcher.find()) {
-                        currentMessage = matcher.group(1);
-                        currentFields = new ArrayList<>();
+        List<List<ProtoMessage>> parsed = files.parallelStream()
+                .map(path -> {
+                    try {
+                        return ProtoParser.parse(path).getMessages();
+                    } catch (IOException e) {
+                        log.error("解析文件 {} 时出错", path, e);
+                        return List.<ProtoMessage>of();
                     }
-                }
-                nestingLevel++;
-            }
-            // 处理message结束
-            else if (trimmedLine.equals("}")) {
-                nestingLevel--;
-                if (nestingLevel == 0 && currentMessage != null) {
-                    messages.put(currentMessage, currentFields);
-                    currentMessage = null;
-                }
-            }
-            // 处理字段定义
-            else if (currentMessage != null && nestingLevel == 1) {
-                // 匹配字段定义行 (类型 名称 = 编号;)
-                Matcher fieldMatcher = Pattern.compile("^\\s*[\\w.]+\\s+([\\w_]+)\\s*=").matcher(trimmedLine);
-                if (fieldMatcher.find()) {
-                    currentFields.add(fieldMatcher.group(1));
-                }
+                })
+                .toList();
+
+        ProtoDefinitionRegistry<MessageInfo> registry = new ProtoDefinitionRegistry<>(MessageInfo::new);
+        for (List<ProtoMessage> messages : parsed) {
+            for (ProtoMessage message : messages) {
+                registry.register(message);
             }
         }
-
-        return messages;
+        log.info("{} 中共 {} 个文件，{} 个 message/enum", protoDir, files.size(), registry.getDefinitions().size());
+        return registry;
     }
 
     /**
      * 比较原始和处理后的消息，写入映射关系
      *
      * @param writer TSV文件写入器
-     * @param originalMessages 原始消息映射
-     * @param processedMessages 处理后的消息映射
+     * @param originalMessages 原始消息
+     * @param pairs 已配对的消息 (原始 -> 处理后)
+     * @return 写入的行数
      * @throws IOException IO异常
      */
-    private static void compareAndWriteMappings(BufferedWriter writer,
-                                                Map<String, List<String>> originalMessages,
-                                                Map<String, List<String>> processedMessages) throws IOException {
-
-        for (Map.Entry<String, List<String>> entry : originalMessages.entrySet()) {
-            String messageName = entry.getKey();
-            List<String> originalFields = entry.getValue();
+    private static int compareAndWriteMappings(BufferedWriter writer, ProtoDefinitionRegistry<MessageInfo> originalMessages,
+                                               Map<MessageInfo, MessageInfo> pairs) throws IOException {
+        int rowCount = 0;
 
-            // 查找对应的处理后消息
-            List<String> processedFields = processedMessages.get(messageName);
-            if (processedFields == null) {
+        for (MessageInfo original : originalMessages.getDefinitions()) {
+            MessageInfo processed = pairs.get(original);
+            if (processed == null) {
                 continue;
             }
+            ProtoMessage originalMessage = original.getMessage();
+            ProtoMessage processedMessage = processed.getMessage();
 
-            // 比较字段
-            for (int i = 0; i < originalFields.size() && i < processedFields.size(); i++) {
-                String originalField = originalFields.get(i);
-                String processedField = processedFields.get(i);
+            // 消息名称
+            if (!originalMessage.getName().equals(processedMessage.getName()) &&
+                    isObfuscatedField(originalMessage.getName())) {
+                String parent = processed.getParent() == null ? "" : processed.getParent().getFullName();
+                writer.write(originalMessage.getName() + "\t" + processedMessage.getName() + "\t" + parent + "\tmessage");
+                writer.newLine();
+                rowCount++;
+            }
 
-                // 如果字段名不同，说明发生了映射
-                if (!originalField.equals(processedField)) {
-                    // 判断是否是混淆字段（全大写）
-                    if (isObfuscatedField(originalField)) {
-                        writer.write(originalField + "\t" + processedField + "\t" + messageName + "\tfield");
+            if (originalMessage.isEnum()) {
+                // enum 值按数值对齐
+                Map<Integer, ProtoEnumValue> processedValues = new HashMap<>();
+                for (ProtoEnumValue value : processedMessage.getEnumValues()) {
+                    processedValues.putIfAbsent(value.getNumber(), value);
+                }
+                for (ProtoEnumValue value : originalMessage.getEnumValues()) {
+                    ProtoEnumValue processedValue = processedValues.get(value.getNumber());
+                    if (processedValue != null && !value.getName().equals(processedValue.getName()) &&
+                            isObfuscatedField(value.getName())) {
+                        writer.write(value.getName() + "\t" + processedValue.getName() + "\t" + processed.getFullName() + "\tfield");
                         writer.newLine();
+                        rowCount++;
                     }
                 }
+                continue;
             }
 
-            // 检查消息名称本身是否被解混淆
-            String processedMessageName = messageName; // 默认使用原名称
-            if (processedMessages.containsKey(messageName)) {
-                // 如果处理后的消息存在，但名称不同，则可能是消息名被解混淆
-                // 这里假设消息名的映射关系需要通过其他方式确定
-                // 目前仅检查是否符合混淆特征
-                if (isObfuscatedField(messageName)) {
-                    // 在这种情况下，我们无法直接从processedMessages获取解混淆后的消息名
-                    // 因为key还是混淆的名称。实际应用中可能需要更复杂的映射逻辑
-                    writer.write(messageName + "\t" + messageName + "\t\tmessage");
+            // 字段按编号对齐
+            Map<Integer, ProtoField> processedFields = processed.fieldsByNumber();
+            for (ProtoField field : original.allFields()) {
+                ProtoField processedField = processedFields.get(field.getNumber());
+                if (processedField != null && ProtoDefinition.isCompatible(field, processedField) &&
+                        !field.getName().equals(processedField.getName()) && isObfuscatedField(field.getName())) {
+                    writer.write(field.getName() + "\t" + processedField.getName() + "\t" + processed.getFullName() + "\tfield");
                     writer.newLine();
+                    rowCount++;
+                }
+            }
+
+            // oneof 按包含的字段编号对齐
+            for (ProtoOneof oneof : originalMessage.getOneofs()) {
+                for (ProtoOneof processedOneof : processedMessage.getOneofs()) {
+                    if (ProtoDefinition.fieldNumbers(oneof).equals(ProtoDefinition.fieldNumbers(processedOneof)) &&
+                            !oneof.getName().equals(processedOneof.getName()) && isObfuscatedField(oneof.getName())) {
+                        writer.write(oneof.getName() + "\t" + processedOneof.getName() + "\t" + processed.getFullName() + "\toneof");
+                        writer.newLine();
+                        rowCount++;
+                        break;
+                    }
                 }
             }
         }
+        return rowCount;
     }
 
     /**
@@ -186,23 +203,165 @@ public class RevertMapping {
      * @return 是否是混淆字段
      */
     private static boolean isObfuscatedField(String fieldName) {
-        return fieldName != null &&
-                !fieldName.isEmpty() &&
-                fieldName.matches("^[A-Z]+$");
+        if (fieldName == null || fieldName.isEmpty()) {
+            return false;
+        }
+        for (int i = 0; i < fieldName.length(); i++) {
+            char c = fieldName.charAt(i);
+            if (c < 'A' || c > 'Z') {
+                return false;
+            }
+        }
+        return true;
     }
 
+    /**
+     * 解析出的 message/enum
+     */
+    private static class MessageInfo extends ProtoDefinition<MessageInfo> {
+        String fingerprint;             // 结构指纹, 延迟计算
+
+        MessageInfo(ProtoMessage message, MessageInfo parent) {
+            super(message, parent);
+        }
+
+        /**
+         * 结构指纹: 类型 + 按编号排序的字段 (标号、map、标量类型, 自定义类型统一记为 ?) + oneof 包含的编号;
+         * enum 为排序后的值
+         */
+        String fingerprint() {
+            if (fingerprint != null) {
+                return fingerprint;
+            }
+            ProtoMessage message = getMessage();
+            StringBuilder builder = new StringBuilder();
+            if (message.isEnum()) {
+                builder.append('E');
+                message.getEnumValues().stream().mapToInt(ProtoEnumValue::getNumber).sorted()
+                        .forEach(number -> builder.append(',').append(number));
+            } else {
+                builder.append('M');
+                sortedFields().forEach(field -> builder.append(',').append(field.getNumber())
+                        .append(field.isRepeated() ? "r" : "")
+                        .append(field.isMap() ? "m" : "")
+                        .append(ConstProtoType.isScalarType(field.getType()) ? field.getType() : "?"));
+                for (ProtoOneof oneof : message.getOneofs()) {
+                    builder.append("|o");
+                    oneof.getFields().stream().mapToInt(ProtoField::getNumber).sorted()
+                            .forEach(number -> builder.append(',').append(number));
+                }
+                builder.append("|n").append(message.getNestedMessages().size());
+            }
+            fingerprint = builder.toString();
+            return fingerprint;
+        }
+    }
 
     /**
-     * 主方法，用于测试和运行
-     *
-     * @param args 命令行参数
+     * message 配对
      */
-    public static void main(String[] args) {
-        // 示例用法
-        String originalProtoDir = "proto/original";
-        String processedProtoDir = "proto/processed";
-        String outputTsvPath = "proto/output/mapping.tsv";
+    private static class MessageMatcher {
+        final ProtoDefinitionRegistry<MessageInfo> original;
+        final ProtoDefinitionRegistry<MessageInfo> processed;
+        final Map<MessageInfo, MessageInfo> pairs = new IdentityHashMap<>();
+        final Set<MessageInfo> pairedProcessed = Collections.newSetFromMap(new IdentityHashMap<>());
+        final Deque<MessageInfo> queue = new ArrayDeque<>();  // 待传播的原始 message
+        int byName = 0;
+        int byCmdId = 0;
+        int byPropagation = 0;
+        int byFingerprint = 0;
+
+        MessageMatcher(ProtoDefinitionRegistry<MessageInfo> original, ProtoDefinitionRegistry<MessageInfo> processed) {
+            this.original = original;
+            this.processed = processed;
+        }
+
+        void match() {
+            // 同名
+            for (MessageInfo info : original.getDefinitions()) {
+                MessageInfo candidate = processed.get(info.getFullName());
+                if (candidate != null && pair(info, candidate)) {
+                    byName++;
+                }
+            }
+
+            // 相同 cmdId (cmdId 不会被混淆)
+            Map<Integer, MessageInfo> processedByCmdId = ProtoDefinitionRegistry.uniqueIndex(processed.getDefinitions(), MessageInfo::getCmdId);
+            Map<Integer, MessageInfo> originalByCmdId = ProtoDefinitionRegistry.uniqueIndex(original.getDefinitions(), MessageInfo::getCmdId);
+            for (Map.Entry<Integer, MessageInfo> entry : originalByCmdId.entrySet()) {
+                MessageInfo candidate = processedByCmdId.get(entry.getKey());
+                if (entry.getKey() != 0 && candidate != null && pair(entry.getValue(), candidate)) {
+                    byCmdId++;
+                }
+            }
 
-        generateMapping(originalProtoDir, processedProtoDir, outputTsvPath);
+            // 字段传播与结构指纹交替进行, 直到没有新的配对
+            do {
+                byPropagation += propagate();
+            } while (matchByFingerprint() > 0);
+        }
+
+        /**
+         * 已配对的 message 中编号相同的字段, 其自定义类型也应该配对
+         */
+        private int propagate() {
+            int count = 0;
+            while (!queue.isEmpty()) {
+                MessageInfo info = queue.removeFirst();
+                MessageInfo candidate = pairs.get(info);
+                if (info.getMessage().isEnum()) {
+                    continue;
+                }
+
+                Map<Integer, ProtoField> candidateFields = candidate.fieldsByNumber();
+                for (ProtoField field : info.allFields()) {
+                    ProtoField candidateField = candidateFields.get(field.getNumber());
+                    if (candidateField == null || ConstProtoType.isScalarType(field.getType()) ||
+                            ConstProtoType.isScalarType(candidateField.getType())) {
+                        continue;
+                    }
+                    MessageInfo fieldType = original.resolve(info, field.getType());
+                    MessageInfo candidateType = processed.resolve(candidate, candidateField.getType());
+                    if (fieldType != null && candidateType != null && pair(fieldType, candidateType)) {
+                        count++;
+                    }
+                }
+            }
+            return count;
+        }
+
+        /**
+         * 剩余 message 中结构指纹在两边都唯一时配对
+         */
+        private int matchByFingerprint() {
+            List<MessageInfo> originalRest = original.getDefinitions().stream().filter(info -> !pairs.containsKey(info)).toList();
+            List<MessageInfo> processedRest = processed.getDefinitions().stream().filter(info -> !pairedProcessed.contains(info)).toList();
+            Map<String, MessageInfo> processedByFingerprint = ProtoDefinitionRegistry.uniqueIndex(processedRest, MessageInfo::fingerprint);
+            Map<String, MessageInfo> originalByFingerprint = ProtoDefinitionRegistry.uniqueIndex(originalRest, MessageInfo::fingerprint);
+
+            int count = 0;
+            for (MessageInfo info : originalRest) {
+                if (originalByFingerprint.get(info.fingerprint()) != info) {
+                    continue;
+                }
+                MessageInfo candidate = processedByFingerprint.get(info.fingerprint());
+                if (candidate != null && pair(info, candidate)) {
+                    count++;
+                }
+            }
+            byFingerprint += count;
+            return count;
+        }
+
+        private boolean pair(MessageInfo info, MessageInfo candidate) {
+            if (pairs.containsKey(info) || pairedProcessed.contains(candidate) ||
+                    info.getMessage().isEnum() != candidate.getMessage().isEnum()) {
+                return false;
+            }
+            pairs.put(info, candidate);
+            pairedProcessed.add(candidate);
+            queue.addLast(info);
+            return true;
+        }
     }
 }
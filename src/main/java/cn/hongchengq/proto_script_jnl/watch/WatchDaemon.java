@@ -0,0 +1,361 @@
+package cn.hongchengq.proto_script_jnl.watch;
+
+import cn.hongchengq.proto_script_jnl.Config;
+import cn.hongchengq.proto_script_jnl.Main;
+import cn.hongchengq.proto_script_jnl.Replace;
+import cn.hongchengq.proto_script_jnl.Split;
+import cn.hongchengq.proto_script_jnl.pipeline.ChunkedText;
+import cn.hongchengq.proto_script_jnl.replace.LineReplacer;
+import cn.hongchengq.proto_script_jnl.replace.MappingLoader;
+import cn.hongchengq.proto_script_jnl.report.RunReport;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.*;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+/**
+ * watch 模式 (bootMode 0/1 且启用 watchOptional 时)
+ * <p>
+ * 常驻进程, 用 WatchService 监听 inputFilePath、replaceMappingFilePath 与黑名单文件,
+ * 编译好的 mapping、原始行与替换后的行常驻内存, 文件变化时只做增量处理:
+ * <pre>
+ * mapping 变化   与上次的 mapping 比较, 只把变化的条目增删到 Trie 树中 (ahoCorasick 引擎需要重建自动机),
+ *                只重新替换包含变化条目的行
+ * 输入文件变化   与上次的内容比较, 只重新替换首尾相同部分之间的行
+ * 黑名单变化     不需要重新替换
+ * </pre>
+ * 之后增量更新分割结果: 沿用上次解析的顶层定义, 只重新解析包含重新替换的行的定义,
+ * 只重新生成这些定义及依赖它们的定义所在的文件; 分割强制使用增量模式, 只重写内容变化的文件
+ * <p>
+ * 使用全局配置的副本, 强制增量分割不影响同一进程中的其它代码
+ */
+@Slf4j
+public class WatchDaemon {
+    // 变化的条目超过该数量时不再逐条查找受影响的行, 直接重新替换所有行
+    private static final int MAX_CHANGED_KEYS_TO_SCAN = 256;
+    private static final DateTimeFormatter USED_TIME_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    private final Config.ConfigBean config;
+    // 每轮处理前清空, 处理完成后写出
+    private final RunReport report = new RunReport();
+    private final Split split;
+
+    private final Path inputFile;
+    private final Path mappingFile;
+    private final Path blacklistFile;     // 未启用黑名单时为 null
+    private final Path outputFile;
+    private final long debounceMillis;
+
+    private Map<String, String> mapping;
+    private LineReplacer replacer;
+    private List<String> inputLines;
+    private List<String> outputLines;     // 与 inputLines 一一对应
+
+    // 本轮处理中重新替换的行 (outputLines 中的行号), 以及输入文件变化的区间 {起始行, 旧结束行, 新结束行}
+    private BitSet changedLines = new BitSet();
+    private int[] changedRegion;
+
+    private WatchDaemon(Config.ConfigBean config) {
+        this.config = config;
+        this.split = new Split(config, report);
+        inputFile = absolute(config.getInputFilePath());
+        mappingFile = absolute(config.getReplaceMappingFilePath());
+        Config.ConfigBean.GenerateMessageBlacklistOptional blacklistOptional = config.getGenerateMessageBlacklistOptional();
+        blacklistFile = blacklistOptional.isEnableBlacklist() ? absolute(blacklistOptional.getBlacklistFilePath()) : null;
+        outputFile = absolute(config.getReplaceOutputDirectory() + "/replace_output.proto");
+        debounceMillis = Math.max(0, config.getWatchOptional().getDebounceMillis());
+    }
+
+    /**
+     * 入口方法, 完整处理一次后持续监听, 直到进程被终止
+     */
+    public static void start() {
+        Config.ConfigBean config = new JsonMapper().convertValue(Config.getConfig(), Config.ConfigBean.class);
+        if (!config.getIncrementalSplitOptional().isEnableIncrementalSplit()) {
+            log.info("watch 模式下强制使用增量分割");
+            config.getIncrementalSplitOptional().setEnableIncrementalSplit(true);
+        }
+
+        WatchDaemon daemon = new WatchDaemon(config);
+        try {
+            daemon.initialize();
+            daemon.watch();
+        } catch (IOException e) {
+            log.error("watch 模式启动失败", e);
+        } catch (InterruptedException e) {
+            log.info("watch 模式已退出");
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static Path absolute(String path) {
+        return Paths.get(path).toAbsolutePath().normalize();
+    }
+
+    /**
+     * 首次完整替换与分割
+     */
+    private void initialize() throws IOException {
+        long startTime = System.nanoTime();
+        mapping = MappingLoader.load(mappingFile, report);
+        replacer = Replace.buildReplacer(mapping, config.getReplaceEngine());
+        inputLines = Files.readAllLines(inputFile);
+        outputLines = new ArrayList<>(inputLines);
+        replaceLines(IntStream.range(0, inputLines.size()).toArray());
+
+        Files.createDirectories(outputFile.getParent());
+        writeOutput(true);
+        log.info("首次处理完成，耗时 {} ms", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime));
+        Main.writeRunReport(report, config, Map.of());
+    }
+
+    private void watch() throws IOException, InterruptedException {
+        Set<Path> watchedFiles = new HashSet<>(List.of(inputFile, mappingFile));
+        if (blacklistFile != null) {
+            watchedFiles.add(blacklistFile);
+        }
+
+        try (WatchService watchService = FileSystems.getDefault().newWatchService()) {
+            // WatchService 只能监听目录, 编辑器保存时可能先写临时文件再重命名, 因此同时监听创建事件
+            Set<Path> directories = new HashSet<>();
+            watchedFiles.forEach(file -> directories.add(file.getParent()));
+            for (Path directory : directories) {
+                directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+            }
+            log.info("开始监听 {}", watchedFiles);
+
+            while (true) {
+                Set<Path> changedFiles = new HashSet<>();
+                collectEvents(watchService.take(), watchedFiles, changedFiles);
+
+                // 防抖: 合并短时间内的连续事件
+                WatchKey key;
+                while ((key = watchService.poll(debounceMillis, TimeUnit.MILLISECONDS)) != null) {
+                    collectEvents(key, watchedFiles, changedFiles);
+                }
+
+                if (!changedFiles.isEmpty()) {
+                    try {
+                        process(changedFiles);
+                    } catch (IOException e) {
+                        // 文件可能正在写入, 等待下一次变化
+                        log.error("处理 {} 的变化时出错", changedFiles, e);
+                    }
+                }
+            }
+        }
+    }
+
+    private static void collectEvents(WatchKey key, Set<Path> watchedFiles, Set<Path> changedFiles) {
+        Path directory = (Path) key.watchable();
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                // 事件丢失时按全部变化处理
+                changedFiles.addAll(watchedFiles);
+                continue;
+            }
+            Path file = directory.resolve((Path) event.context()).normalize();
+            if (watchedFiles.contains(file)) {
+                changedFiles.add(file);
+            }
+        }
+        key.reset();
+    }
+
+    /**
+     * 处理一批变化的文件
+     */
+    private void process(Set<Path> changedFiles) throws IOException {
+        long startTime = System.nanoTime();
+        Main.usedTime = LocalDateTime.now().format(USED_TIME_FORMATTER);
+        report.reset();
+
+        changedLines = new BitSet();
+        changedRegion = null;
+        int replacedLines = report.time("replace", () -> {
+            int lines = 0;
+            if (changedFiles.contains(mappingFile)) {
+                lines += applyMappingChange();
+            }
+            if (changedFiles.contains(inputFile)) {
+                lines += applyInputChange();
+            }
+            return lines;
+        });
+        report.count("replace.lines", replacedLines);
+        if (replacedLines == 0 && !changedFiles.contains(blacklistFile)) {
+            log.info("{} 的内容没有实际变化", changedFiles);
+            return;
+        }
+
+        writeOutput(false);
+        log.info("重新替换 {} 行，耗时 {} ms", replacedLines, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime));
+        Main.writeRunReport(report, config, Map.of());
+    }
+
+    /**
+     * @return 重新替换的行数
+     */
+    private int applyMappingChange() throws IOException {
+        Map<String, String> newMapping = MappingLoader.load(mappingFile, report);
+
+        // 新增、删除和修改的条目
+        Set<String> changedKeys = new HashSet<>();
+        for (Map.Entry<String, String> entry : newMapping.entrySet()) {
+            if (!entry.getValue().equals(mapping.get(entry.getKey()))) {
+                changedKeys.add(entry.getKey());
+            }
+        }
+        for (String key : mapping.keySet()) {
+            if (!newMapping.containsKey(key)) {
+                changedKeys.add(key);
+            }
+        }
+        if (changedKeys.isEmpty()) {
+            return 0;
+        }
+
+        if (replacer instanceof Replace.TrieReplacer trieReplacer) {
+            for (String key : changedKeys) {
+                String value = newMapping.get(key);
+                if (value == null) {
+                    trieReplacer.remove(key);
+                } else {
+                    trieReplacer.put(key, value);
+                }
+            }
+        } else {
+            replacer = Replace.buildReplacer(newMapping, config.getReplaceEngine());
+        }
+        mapping = newMapping;
+
+        // 替换结果只取决于行中出现的条目, 不包含任何变化条目的行不需要重新替换
+        int[] affected;
+        if (changedKeys.size() > MAX_CHANGED_KEYS_TO_SCAN) {
+            affected = IntStream.range(0, inputLines.size()).toArray();
+        } else {
+            affected = IntStream.range(0, inputLines.size()).parallel()
+                    .filter(i -> containsAny(inputLines.get(i), changedKeys))
+                    .toArray();
+        }
+        log.info("mapping 变化 {} 条，影响 {} 行", changedKeys.size(), affected.length);
+        replaceLines(affected);
+        for (int line : affected) {
+            changedLines.set(line);
+        }
+        return affected.length;
+    }
+
+    private static boolean containsAny(String line, Set<String> keys) {
+        for (String key : keys) {
+            if (line.contains(key)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return 重新替换的行数
+     */
+    private int applyInputChange() throws IOException {
+        List<String> newLines = Files.readAllLines(inputFile);
+
+        // 首尾相同的行沿用上次的结果
+        int prefix = 0;
+        int maxPrefix = Math.min(inputLines.size(), newLines.size());
+        while (prefix < maxPrefix && inputLines.get(prefix).equals(newLines.get(prefix))) {
+            prefix++;
+        }
+        int suffix = 0;
+        int maxSuffix = maxPrefix - prefix;
+        while (suffix < maxSuffix &&
+                inputLines.get(inputLines.size() - 1 - suffix).equals(newLines.get(newLines.size() - 1 - suffix))) {
+            suffix++;
+        }
+        if (prefix == newLines.size() && newLines.size() == inputLines.size()) {
+            return 0;
+        }
+
+        List<String> newOutputLines = new ArrayList<>(newLines.size());
+        newOutputLines.addAll(outputLines.subList(0, prefix));
+        newOutputLines.addAll(newLines.subList(prefix, newLines.size() - suffix));
+        newOutputLines.addAll(outputLines.subList(outputLines.size() - suffix, outputLines.size()));
+        // 之前记录的变化行移动到新的位置, 区间内的行由区间代替
+        int oldRegionEnd = inputLines.size() - suffix;
+        int newRegionEnd = newLines.size() - suffix;
+        BitSet movedLines = changedLines.get(0, prefix);
+        for (int line = changedLines.nextSetBit(oldRegionEnd); line >= 0; line = changedLines.nextSetBit(line + 1)) {
+            movedLines.set(line - oldRegionEnd + newRegionEnd);
+        }
+        changedLines = movedLines;
+        changedRegion = new int[]{prefix, oldRegionEnd, newRegionEnd};
+        inputLines = newLines;
+        outputLines = newOutputLines;
+
+        int[] affected = IntStream.range(prefix, newRegionEnd).toArray();
+        log.info("输入文件变化，影响 {} 行", affected.length);
+        replaceLines(affected);
+        return affected.length;
+    }
+
+    /**
+     * 并行重新替换指定的行
+     */
+    private void replaceLines(int[] lineIndexes) {
+        String[] replaced = new String[lineIndexes.length];
+        LineReplacer counting = replacer.countingMatches(report.counter("replace.replacements"));
+        IntStream.range(0, lineIndexes.length).parallel()
+                .forEach(i -> replaced[i] = counting.replace(inputLines.get(lineIndexes[i])));
+        for (int i = 0; i < lineIndexes.length; i++) {
+            outputLines.set(lineIndexes[i], replaced[i]);
+        }
+    }
+
+    /**
+     * 写出替换结果 (格式与 Replace 相同) 并分割
+     * 分割直接使用内存中的结果, 不重新读取 (也不映射) 每次都会被改写的输出文件
+     * @param initial 是否为首次处理 (完整分割), 否则按本轮变化的行增量更新
+     */
+    private void writeOutput(boolean initial) throws IOException {
+        String header = Replace.outputHeader();
+        try (BufferedWriter writer = Files.newBufferedWriter(outputFile)) {
+            writer.write(header);
+            for (String line : outputLines) {
+                writer.write(line);
+                writer.newLine();
+            }
+        }
+
+        if (initial) {
+            String lineSeparator = System.lineSeparator();
+            ChunkedText replacedSource = new ChunkedText();
+            replacedSource.append(header);
+            for (String line : outputLines) {
+                replacedSource.append(line);
+                replacedSource.append(lineSeparator);
+            }
+            split.run(replacedSource);
+            return;
+        }
+
+        // 分割的输入为文件头加上 outputLines, 行号需要加上文件头的行数
+        List<String> headerLines = header.lines().toList();
+        List<String> sourceLines = new ArrayList<>(headerLines.size() + outputLines.size());
+        sourceLines.addAll(headerLines);
+        sourceLines.addAll(outputLines);
+        int offset = headerLines.size();
+        int[] lines = changedLines.stream().map(line -> line + offset).toArray();
+        Split.SourceChange change = changedRegion == null
+                ? Split.SourceChange.lines(lines)
+                : new Split.SourceChange(changedRegion[0] + offset, changedRegion[1] + offset, changedRegion[2] + offset, lines);
+        split.update(sourceLines, change);
+    }
+}
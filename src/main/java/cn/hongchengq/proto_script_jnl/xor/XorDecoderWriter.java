@@ -0,0 +1,282 @@
+package cn.hongchengq.proto_script_jnl.xor;
+
+import cn.hongchengq.proto_script_jnl.parser.MagicNumberOperatorMode;
+import cn.hongchengq.proto_script_jnl.parser.ProtoXorField;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * 根据 CUSTOM_ENCRYPT 字段生成编解码类与二进制表 (与 XorFieldConfig.tsv 使用相同的数据)
+ * <p>
+ * 生成的类中每个字段的运算都是内联常量的表达式, 按 message 编号与字段编号 switch 分派, 不需要查表和解析字符串;
+ * 包括没有 cmdId 的 message (被其它协议引用的数据结构), 因此以 message 编号为键, 另提供 cmdId -> message 编号的 switch
+ * <p>
+ * 二进制表 (大端序):
+ * <pre>
+ * int    魔数 0x58464331 ("XFC1")
+ * int    message 数
+ * 每个 message:
+ *   UTF   名称 (DataOutput#writeUTF)
+ *   int   cmdId (没有时为 0)
+ *   short 字段数
+ *   每个字段: int 字段编号, byte 运算模式 (MagicNumberOperatorMode 序号), long 魔数1, long 魔数2
+ * </pre>
+ */
+@Slf4j
+public class XorDecoderWriter {
+    public static final int BINARY_MAGIC = 0x58464331;
+
+    // 单个方法最多包含的字段/case 数, 避免超出单个方法 64KB 的限制
+    private static final int MAX_FIELDS_PER_METHOD = 1024;
+    private static final int MAX_CASES_PER_METHOD = 2048;
+
+    /**
+     * 一个带 CUSTOM_ENCRYPT 字段的 message
+     * @param cmdId 没有时为 0
+     */
+    public record Message(String name, int cmdId, List<ProtoXorField> fields) {
+    }
+
+    /**
+     * 解析魔数后的字段
+     */
+    private record Field(int number, MagicNumberOperatorMode mode, long magicNumber1, long magicNumber2) {
+    }
+
+    private record Table(String name, int cmdId, List<Field> fields) {
+    }
+
+    /**
+     * 写出编解码类
+     * @param file 输出文件, 文件名应与 className 一致
+     * @param packageHeader 文件第一行 (package 声明)
+     * @param className 类名
+     * @param messages 按出现顺序; 同名时以后出现的为准
+     * @return 写入的 message 数
+     */
+    public static int writeDecoder(Path file, String packageHeader, String className, List<Message> messages) throws IOException {
+        List<Table> tables = prepare(messages);
+        int fieldCount = tables.stream().mapToInt(table -> table.fields().size()).sum();
+
+        StringBuilder code = new StringBuilder(256 + fieldCount * 96);
+        code.append(packageHeader).append("\n\n");
+        code.append("""
+                /**
+                 * CUSTOM_ENCRYPT 字段的编解码, 由 proto_script_jnl 生成 (与 XorFieldConfig.tsv 使用相同的数据), 请勿手动修改
+                 * <p>
+                 * 注释 "(VALUE op1 A) op2 B" 描述原始值 VALUE 写入时的变换: encode 按注释计算, decode 为其逆运算.
+                 * 第一个参数为 {@link Messages} 中的 message 编号, 协议可以先用 {@link #messageOf(int)} 由 cmdId 得到编号.
+                 * 加减与异或的结果只取决于同位及更低位, int 重载的结果与 long 版本的低 32 位相同.
+                 * 没有 CUSTOM_ENCRYPT 的字段与未知的 message 原样返回
+                 */
+                """);
+        code.append("public final class ").append(className).append(" {\n");
+        code.append("    public static final int MESSAGE_COUNT = ").append(tables.size()).append(";\n\n");
+
+        // message 编号
+        code.append("    /**\n     * message 编号\n     */\n");
+        code.append("    public static final class Messages {\n");
+        for (int i = 0; i < tables.size(); i++) {
+            code.append("        public static final int ").append(tables.get(i).name()).append(" = ").append(i).append(";\n");
+        }
+        code.append("\n        private Messages() {\n        }\n    }\n\n");
+        code.append("    private ").append(className).append("() {\n    }\n\n");
+
+        appendMessageOf(code, tables);
+        appendCodec(code, tables, "decode", "解码 (由写入的值还原原始值)");
+        appendCodec(code, tables, "encode", "编码 (按注释由原始值计算写入的值)");
+        code.append("}\n");
+
+        try (BufferedWriter writer = Files.newBufferedWriter(file)) {
+            writer.write(code.toString());
+        }
+        log.info("{} 已生成完毕，共 {} 个 message，{} 个字段", file, tables.size(), fieldCount);
+        return tables.size();
+    }
+
+    /**
+     * 写出二进制表, 格式见类注释
+     * @return 写入的 message 数
+     */
+    public static int writeBinaryTable(Path file, List<Message> messages) throws IOException {
+        List<Table> tables = prepare(messages);
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+            output.writeInt(BINARY_MAGIC);
+            output.writeInt(tables.size());
+            for (Table table : tables) {
+                output.writeUTF(table.name());
+                output.writeInt(table.cmdId());
+                output.writeShort(table.fields().size());
+                for (Field field : table.fields()) {
+                    output.writeInt(field.number());
+                    output.writeByte(field.mode().ordinal());
+                    output.writeLong(field.magicNumber1());
+                    output.writeLong(field.magicNumber2());
+                }
+            }
+        }
+        log.info("{} 已生成完毕，共 {} 个 message", file, tables.size());
+        return tables.size();
+    }
+
+    /**
+     * 去掉重复的 message 与字段 (以后出现的为准), 解析魔数
+     */
+    private static List<Table> prepare(List<Message> messages) {
+        Map<String, Message> byName = new LinkedHashMap<>();
+        for (Message message : messages) {
+            if (message.fields() == null || message.fields().isEmpty()) {
+                continue;
+            }
+            byName.remove(message.name());
+            byName.put(message.name(), message);
+        }
+
+        List<Table> tables = new ArrayList<>(byName.size());
+        for (Message message : byName.values()) {
+            Map<Integer, Field> fields = new TreeMap<>();
+            for (ProtoXorField xorField : message.fields()) {
+                try {
+                    fields.put(xorField.getFieldNumber(), new Field(xorField.getFieldNumber(), xorField.getMode(),
+                            parseMagicNumber(xorField.getMagicNumber1()), parseMagicNumber(xorField.getMagicNumber2())));
+                } catch (NumberFormatException e) {
+                    log.warn("{} 字段 {} 的魔数无法解析 ({}, {})，跳过", message.name(), xorField.getFieldNumber(),
+                            xorField.getMagicNumber1(), xorField.getMagicNumber2());
+                }
+            }
+            tables.add(new Table(message.name(), message.cmdId(), new ArrayList<>(fields.values())));
+        }
+        return tables;
+    }
+
+    /**
+     * 0X 开头的十六进制或十进制, 按无符号 64 位解析
+     */
+    private static long parseMagicNumber(String magicNumber) {
+        if (magicNumber.startsWith("0X") || magicNumber.startsWith("0x")) {
+            return Long.parseUnsignedLong(magicNumber.substring(2), 16);
+        }
+        return Long.parseUnsignedLong(magicNumber);
+    }
+
+    /**
+     * cmdId -> message 编号
+     */
+    private static void appendMessageOf(StringBuilder code, List<Table> tables) {
+        Map<Integer, Integer> indexByCmdId = new TreeMap<>();
+        for (int i = 0; i < tables.size(); i++) {
+            Table table = tables.get(i);
+            if (table.cmdId() == 0) {
+                continue;
+            }
+            Integer previous = indexByCmdId.put(table.cmdId(), i);
+            if (previous != null) {
+                log.warn("cmdId {} 同时属于 {} 与 {}，messageOf 返回 {}", table.cmdId(), tables.get(previous).name(),
+                        table.name(), table.name());
+            }
+        }
+        List<Map.Entry<Integer, Integer>> cases = new ArrayList<>(indexByCmdId.entrySet());
+        List<List<Map.Entry<Integer, Integer>>> groups = new ArrayList<>();
+        for (int start = 0; start < cases.size(); start += MAX_CASES_PER_METHOD) {
+            groups.add(cases.subList(start, Math.min(cases.size(), start + MAX_CASES_PER_METHOD)));
+        }
+
+        code.append("    /**\n     * cmdId 对应的 message 编号, 没有 CUSTOM_ENCRYPT 字段时返回 -1\n     */\n");
+        code.append("    public static int messageOf(int cmdId) {\n");
+        for (int g = 0; g < groups.size(); g++) {
+            List<Map.Entry<Integer, Integer>> group = groups.get(g);
+            code.append("        if (cmdId <= ").append(group.getLast().getKey()).append(") {\n");
+            code.append("            return messageOf").append(g).append("(cmdId);\n");
+            code.append("        }\n");
+        }
+        code.append("        return -1;\n    }\n\n");
+
+        for (int g = 0; g < groups.size(); g++) {
+            code.append("    private static int messageOf").append(g).append("(int cmdId) {\n");
+            code.append("        switch (cmdId) {\n");
+            for (Map.Entry<Integer, Integer> entry : groups.get(g)) {
+                code.append("            case ").append(entry.getKey()).append(": return ").append(entry.getValue()).append(";\n");
+            }
+            code.append("            default: return -1;\n        }\n    }\n\n");
+        }
+    }
+
+    /**
+     * decode/encode 的公开方法与按 message 编号分组的实现
+     */
+    private static void appendCodec(StringBuilder code, List<Table> tables, String methodName, String description) {
+        // 按字段数把连续的 message 分组
+        List<Integer> groupEnds = new ArrayList<>();
+        int fieldsInGroup = 0;
+        for (int i = 0; i < tables.size(); i++) {
+            int fields = tables.get(i).fields().size();
+            if (fieldsInGroup > 0 && fieldsInGroup + fields > MAX_FIELDS_PER_METHOD) {
+                groupEnds.add(i);
+                fieldsInGroup = 0;
+            }
+            fieldsInGroup += fields;
+        }
+        if (!tables.isEmpty()) {
+            groupEnds.add(tables.size());
+        }
+
+        code.append("    /**\n     * ").append(description).append("\n     */\n");
+        code.append("    public static long ").append(methodName).append("(int message, int fieldNumber, long value) {\n");
+        for (int g = 0; g < groupEnds.size(); g++) {
+            code.append("        if (message < ").append(groupEnds.get(g)).append(") {\n");
+            code.append("            return ").append(methodName).append(g).append("(message, fieldNumber, value);\n");
+            code.append("        }\n");
+        }
+        code.append("        return value;\n    }\n\n");
+
+        code.append("    public static int ").append(methodName).append("(int message, int fieldNumber, int value) {\n");
+        code.append("        return (int) ").append(methodName).append("(message, fieldNumber, (long) value);\n    }\n\n");
+
+        int start = 0;
+        for (int g = 0; g < groupEnds.size(); g++) {
+            code.append("    private static long ").append(methodName).append(g).append("(int message, int fieldNumber, long value) {\n");
+            code.append("        switch (message) {\n");
+            for (int i = start; i < groupEnds.get(g); i++) {
+                Table table = tables.get(i);
+                code.append("            case ").append(i).append(": // ").append(table.name()).append("\n");
+                code.append("                switch (fieldNumber) {\n");
+                for (Field field : table.fields()) {
+                    String expression = expression(field, methodName.equals("decode"));
+                    if (expression != null) {
+                        code.append("                    case ").append(field.number()).append(": return ").append(expression).append(";\n");
+                    }
+                }
+                code.append("                }\n                return value;\n");
+            }
+            code.append("        }\n        return value;\n    }\n\n");
+            start = groupEnds.get(g);
+        }
+    }
+
+    /**
+     * 单个字段的运算表达式, 未知模式时为 null
+     * @param decode true 为解码 (逆运算), false 为编码
+     */
+    private static String expression(Field field, boolean decode) {
+        String a = literal(field.magicNumber1());
+        String b = literal(field.magicNumber2());
+        return switch (field.mode()) {
+            case xorAndAdder -> decode ? "(value - " + b + ") ^ " + a : "(value ^ " + a + ") + " + b;
+            case xorAndSubtract -> decode ? "(value + " + b + ") ^ " + a : "(value ^ " + a + ") - " + b;
+            case adderAndXor -> decode ? "(value ^ " + b + ") - " + a : "(value + " + a + ") ^ " + b;
+            case subtractAndXor -> decode ? "(value ^ " + b + ") + " + a : "(value - " + a + ") ^ " + b;
+            case none -> null;
+        };
+    }
+
+    private static String literal(long value) {
+        return "0x" + Long.toHexString(value).toUpperCase() + "L";
+    }
+}